@@ -0,0 +1,97 @@
+package com.pivotal.rabbitmq.stompws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.util.MimeType;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame encoding and decoding through the client's message converter, the way
+ * {@code DefaultStompSession} does it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"String", "bytes", "json", "lazy"})
+    String codec;
+
+    @Param({"128", "16384"})
+    int payloadSize;
+
+    MessageConverter converter = PayloadConverters.withJson(new ObjectMapper());
+    StompEncoder encoder = new StompEncoder();
+    StompDecoder decoder = new StompDecoder();
+    Object payload;
+    Class<?> type;
+    byte[] frame;
+
+    @Setup
+    public void setUp() {
+        char[] chars = new char[payloadSize];
+        Arrays.fill(chars, 'x');
+        String text = new String(chars);
+        switch (codec) {
+            case "String":
+                payload = text;
+                type = String.class;
+                break;
+            case "json":
+                payload = new Event("id", text);
+                type = Event.class;
+                break;
+            case "lazy":
+                payload = new byte[payloadSize];
+                type = LazyPayload.class;
+                break;
+            default:
+                payload = new byte[payloadSize];
+                type = byte[].class;
+        }
+        frame = encode();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public byte[] encode() {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SEND);
+        accessor.setDestination("/queue/benchmark");
+        accessor.setLeaveMutable(true);
+        Message<byte[]> message = (Message<byte[]>) converter.toMessage(payload, accessor.getMessageHeaders());
+        // as DefaultStompSession does, copy the content type set by the converter to the native headers
+        MimeType contentType = accessor.getContentType();
+        if (contentType != null) accessor.setContentType(contentType);
+        return encoder.encode(accessor.getMessageHeaders(), message.getPayload());
+    }
+
+    @Benchmark
+    public Object decode() {
+        return converter.fromMessage(decoder.decode(ByteBuffer.wrap(frame)).get(0), type);
+    }
+
+    public static class Event {
+        public String id;
+        public String body;
+
+        public Event() {
+        }
+
+        Event(String id, String body) {
+            this.id = id;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends through a {@link RabbitStompWsClient.Destination} handle, next to
+ * {@link DefaultRabbitStompWsClient#send(String, Object)}. Meant to be run with {@code -prof gc} and compared
+ * on {@code gc.alloc.rate.norm}: what is left is mostly Spring's own encoding of the frame.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DestinationBenchmark {
+
+    /**
+     * {@code receipt}: one receipt per frame, {@code window}: one receipt every 100 frames.
+     */
+    @Param({"receipt", "window"})
+    String confirm;
+
+    @Param({"128"})
+    int payloadSize;
+
+    Loopback loopback;
+    DefaultRabbitStompWsClient client;
+    RabbitStompWsClient.Destination destination;
+    RabbitStompWsClient.SendCallback callback = failure -> {};
+    byte[] payload;
+
+    @Setup
+    public void setUp() {
+        loopback = new Loopback();
+        WebSocketConnectionProvider.Builder provider = loopback.provider();
+        if ("window".equals(confirm)) {
+            provider.withConfirmWindow(ConfirmWindow.builder()
+                    .withMaxInFlight(1000)
+                    .withReceiptEvery(100)
+                    .withLinger(Duration.ofMillis(1))
+                    .build());
+        }
+        client = provider.build().newClient("destination");
+        client.whenReady().toCompletableFuture().join();
+        destination = client.destination("/queue/benchmark");
+        payload = new byte[payloadSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.stop();
+        loopback.stop();
+    }
+
+    @Benchmark
+    public CompletionStage<?> clientSend() {
+        return client.send("/queue/benchmark", payload);
+    }
+
+    @Benchmark
+    public CompletionStage<?> handleSend() {
+        return destination.send(payload);
+    }
+
+    @Benchmark
+    public void handleSendWithCallback() {
+        destination.send(payload, callback);
+    }
+
+    @Benchmark
+    public void handleSendAndForget() {
+        destination.sendAndForget(payload);
+    }
+}
@@ -0,0 +1,67 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code StompSubscriber.handleFrame}: ACK bookkeeping and handing the message over to the consumer
+ * according to the dispatch policy. The consumer does nothing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+
+    @Param({"AUTO", "CLIENT", "CLIENT_INDIVIDUAL"})
+    AckMode ackMode;
+
+    @Param({"inline", "dedicatedThread"})
+    String dispatch;
+
+    Loopback loopback;
+    DefaultRabbitStompWsClient client;
+    DefaultRabbitStompWsClient.StompSubscriber<?> subscriber;
+    StompSession session;
+    StompHeaders headers;
+    byte[] payload = new byte[128];
+
+    @Setup
+    public void setUp() {
+        loopback = new Loopback();
+        client = loopback.provider().build().newClient("dispatch");
+        SubscriptionOptions.Builder options = SubscriptionOptions.builder()
+                .withAckMode(ackMode)
+                .withDispatchPolicy("inline".equals(dispatch) ? DispatchPolicy.inline()
+                        : DispatchPolicy.dedicatedThread(1000, DispatchPolicy.Overflow.BLOCK));
+        if (ackMode != AckMode.AUTO) options.withPrefetch(1000);
+        subscriber = (DefaultRabbitStompWsClient.StompSubscriber<?>) client
+                .subscribe("/queue/benchmark", byte[].class, options.build(), (h, p) -> {})
+                .toCompletableFuture().join();
+        session = loopback.sessionSupplier("dispatch:acks").get().toCompletableFuture().join();
+        headers = new StompHeaders();
+        headers.setDestination("/queue/benchmark");
+        headers.setSubscription("0");
+        headers.setMessageId("T_0@@1");
+        headers.setAck("T_0@@1");
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        // let the dispatching thread catch up before releasing the scheduler it ACKs with
+        while (subscriber.dispatchMetrics().getQueueDepth() > 0) Thread.sleep(1);
+        client.stop();
+        session.disconnect();
+        loopback.stop();
+    }
+
+    @Benchmark
+    public void handleFrame() {
+        subscriber.handleFrame(session, headers, payload);
+    }
+}
@@ -0,0 +1,41 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+/**
+ * Client wired to an in-process {@link StubStompBroker}, so that benchmarks measure the client alone.
+ */
+class Loopback {
+
+    final StubStompBroker broker = new StubStompBroker();
+    final ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+
+    Loopback() {
+        taskScheduler.setPoolSize(2);
+        taskScheduler.initialize();
+    }
+
+    WebSocketConnectionProvider.Builder provider() {
+        return WebSocketConnectionProvider.builder()
+                .withWebSocketClient(new LoopbackWebSocketClient(broker))
+                .withTaskScheduler(taskScheduler);
+    }
+
+    WebSocketConnectionProvider.StompSessionSupplier sessionSupplier(String name) {
+        WebSocketStompClient stompClient = new WebSocketStompClient(new LoopbackWebSocketClient(broker));
+        stompClient.setMessageConverter(PayloadConverters.defaults());
+        stompClient.setTaskScheduler(taskScheduler);
+        return provider().build().new StompSessionSupplier(name, stompClient, new WebSocketHttpHeaders(),
+                new StompHeaders(), "ws://localhost:15674/ws", false);
+    }
+
+    /**
+     * Connections are left open, closing them only logs connection failures.
+     */
+    void stop() {
+        taskScheduler.shutdown();
+    }
+}
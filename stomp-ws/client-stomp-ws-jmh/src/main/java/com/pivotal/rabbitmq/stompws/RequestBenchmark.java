@@ -0,0 +1,51 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a request to a responder which echoes it back, both on the loopback broker. Latency is
+ * sampled per request; concurrency is the number of JMH threads, e.g. {@code -t 1} against {@code -t 8},
+ * which share the single reply queue of each sender session.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBenchmark {
+
+    @Param({"128"})
+    int payloadSize;
+
+    Loopback loopback;
+    DefaultRabbitStompWsClient requester;
+    DefaultRabbitStompWsClient responder;
+    byte[] payload;
+
+    @Setup
+    public void setUp() {
+        loopback = new Loopback();
+        responder = loopback.provider().build().newClient("responder");
+        responder.subscribe("/queue/requests", byte[].class, responder::reply).toCompletableFuture().join();
+        requester = loopback.provider().build().newClient("requester");
+        requester.whenReady().toCompletableFuture().join();
+        payload = new byte[payloadSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        requester.stop();
+        responder.stop();
+        loopback.stop();
+    }
+
+    @Benchmark
+    public byte[] roundTrip() {
+        return requester.request("/queue/requests", payload, byte[].class, Duration.ofSeconds(5))
+                .toCompletableFuture().join();
+    }
+}
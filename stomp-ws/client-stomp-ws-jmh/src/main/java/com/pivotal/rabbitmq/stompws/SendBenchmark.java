@@ -0,0 +1,66 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DefaultRabbitStompWsClient#send(String, Object)}: headers, session selection, receipt handling and
+ * the chaining of the returned future. Nobody subscribes to the destination so the broker discards the
+ * messages right away.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SendBenchmark {
+
+    /**
+     * {@code receipt}: one receipt per frame, {@code window}: one receipt every 100 frames.
+     */
+    @Param({"receipt", "window"})
+    String confirm;
+
+    @Param({"128"})
+    int payloadSize;
+
+    Loopback loopback;
+    DefaultRabbitStompWsClient client;
+    byte[] payload;
+
+    @Setup
+    public void setUp() {
+        loopback = new Loopback();
+        WebSocketConnectionProvider.Builder provider = loopback.provider();
+        if ("window".equals(confirm)) {
+            provider.withConfirmWindow(ConfirmWindow.builder()
+                    .withMaxInFlight(1000)
+                    .withReceiptEvery(100)
+                    .withLinger(Duration.ofMillis(1))
+                    .build());
+        }
+        client = provider.build().newClient("send");
+        client.whenReady().toCompletableFuture().join();
+        payload = new byte[payloadSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.stop();
+        loopback.stop();
+    }
+
+    @Benchmark
+    public CompletionStage<?> send() {
+        return client.send("/queue/benchmark", payload);
+    }
+
+    @Benchmark
+    public Object sendAndWaitForConfirmation() {
+        return client.send("/queue/benchmark", payload).toCompletableFuture().join();
+    }
+}
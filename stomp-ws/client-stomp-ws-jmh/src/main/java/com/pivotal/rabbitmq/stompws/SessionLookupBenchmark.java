@@ -0,0 +1,60 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up the session to send on: {@code StompSessionSupplier.get()} once connected, and picking the sender
+ * session of a destination.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionLookupBenchmark {
+
+    @Param({"DESTINATION_HASH", "ROUND_ROBIN", "LEAST_OUTSTANDING_RECEIPTS"})
+    SenderRouting routing;
+
+    Loopback loopback;
+    WebSocketConnectionProvider.StompSessionSupplier supplier;
+    SenderSessionPool pool;
+    String[] destinations = new String[64];
+
+    @Setup
+    public void setUp() {
+        loopback = new Loopback();
+        List<WebSocketConnectionProvider.StompSessionSupplier> suppliers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) suppliers.add(loopback.sessionSupplier("lookup:sender-" + i));
+        suppliers.forEach(s -> s.get().toCompletableFuture().join());
+        supplier = suppliers.get(0);
+        pool = new SenderSessionPool(suppliers, routing);
+        for (int i = 0; i < destinations.length; i++) destinations[i] = "/queue/benchmark-" + i;
+    }
+
+    @TearDown
+    public void tearDown() {
+        loopback.stop();
+    }
+
+    @Benchmark
+    public CompletionStage<?> get() {
+        return supplier.get();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public Object select(Cursor cursor) {
+        return pool.select(destinations[cursor.next++ & (destinations.length - 1)]);
+    }
+}
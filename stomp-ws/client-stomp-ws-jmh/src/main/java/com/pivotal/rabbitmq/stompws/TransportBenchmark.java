@@ -0,0 +1,98 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link WebSocketTransport}s compared over a real socket, against a {@link StubStompServer} on localhost:
+ * throughput of pipelined sends, settled by a confirm window, and the time a single send takes to get its
+ * receipt. The latter is sampled hence JMH reports its percentiles, p0.99 among them.
+ * <p>
+ * With {@code coalescing}, pipelined sends are packed by {@link WriteCoalescing}, up to 16KiB or 1ms.
+ */
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+
+    @Param({"STANDARD", "JETTY"})
+    WebSocketTransport.Kind transport;
+
+    @Param({"false", "true"})
+    boolean compression;
+
+    @Param({"false", "true"})
+    boolean coalescing;
+
+    @Param({"128"})
+    int payloadSize;
+
+    StubStompServer server;
+    ThreadPoolTaskScheduler taskScheduler;
+    WebSocketConnectionProvider pipelinedProvider;
+    WebSocketConnectionProvider roundTripProvider;
+    DefaultRabbitStompWsClient pipelined;
+    DefaultRabbitStompWsClient roundTrip;
+    byte[] payload;
+
+    @Setup
+    public void setUp() {
+        server = new StubStompServer(new StubStompBroker());
+        int port = server.start(0);
+        taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setPoolSize(2);
+        taskScheduler.initialize();
+        WebSocketTransport.Builder builder = transport == WebSocketTransport.Kind.JETTY
+                ? WebSocketTransport.jetty() : WebSocketTransport.standard();
+        pipelinedProvider = provider(port, builder.withCompression(compression).build())
+                .withConfirmWindow(ConfirmWindow.builder()
+                        .withMaxInFlight(1000)
+                        .withReceiptEvery(100)
+                        .withLinger(Duration.ofMillis(1))
+                        .build())
+                .withWriteCoalescing(coalescing ? WriteCoalescing.builder().build() : null)
+                .build();
+        roundTripProvider = provider(port, builder.withCompression(compression).build()).build();
+        pipelined = pipelinedProvider.newClient("pipelined");
+        roundTrip = roundTripProvider.newClient("round-trip");
+        pipelined.whenReady().toCompletableFuture().join();
+        roundTrip.whenReady().toCompletableFuture().join();
+        payload = new byte[payloadSize];
+    }
+
+    private WebSocketConnectionProvider.Builder provider(int port, WebSocketTransport transport) {
+        return WebSocketConnectionProvider.builder()
+                .connectTo("localhost", port)
+                .withTaskScheduler(taskScheduler)
+                .withTransport(transport);
+    }
+
+    /**
+     * Connections are left open, closing them only logs connection failures. Pending sends are settled
+     * first, so that no write lingers when the scheduler goes.
+     */
+    @TearDown
+    public void tearDown() {
+        pipelined.send("/queue/benchmark", payload).toCompletableFuture().join();
+        taskScheduler.shutdown();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public CompletionStage<?> pipelined() {
+        return pipelined.send("/queue/benchmark", payload);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object roundTrip() {
+        return roundTrip.send("/queue/benchmark", payload).toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,226 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process {@link WebSocketClient} connected to a {@link StubStompBroker} rather than to a server. Frames
+ * are handed over in memory, there is neither a socket nor a thread in between, which makes it suitable to
+ * measure the client itself.
+ */
+public class LoopbackWebSocketClient implements WebSocketClient {
+
+    private final StubStompBroker broker;
+
+    public LoopbackWebSocketClient(StubStompBroker broker) {
+        this.broker = broker;
+    }
+
+    @Override
+    public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler webSocketHandler, String uriTemplate,
+                                                         Object... uriVariables) {
+        URI uri = UriComponentsBuilder.fromUriString(uriTemplate).buildAndExpand(uriVariables).encode().toUri();
+        return doHandshake(webSocketHandler, null, uri);
+    }
+
+    @Override
+    public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler webSocketHandler,
+                                                         WebSocketHttpHeaders headers, URI uri) {
+        SettableListenableFuture<WebSocketSession> future = new SettableListenableFuture<>();
+        if (!broker.isRunning()) {
+            future.setException(new IllegalStateException("Broker is not running"));
+            return future;
+        }
+        LoopbackSession session = new LoopbackSession(uri, headers, webSocketHandler);
+        broker.open(session);
+        try {
+            webSocketHandler.afterConnectionEstablished(session);
+            future.set(session);
+        } catch (Throwable t) {
+            broker.closed(session);
+            future.setException(t);
+        }
+        return future;
+    }
+
+    /**
+     * Client side of a loopback connection. Frames for the client are queued and delivered one at a time, by
+     * whichever thread queued the first one, so that they are handled in order without blocking the broker.
+     */
+    class LoopbackSession implements WebSocketSession, StubStompBroker.Peer {
+        private final String id = UUID.randomUUID().toString();
+        private final URI uri;
+        private final HttpHeaders handshakeHeaders;
+        private final WebSocketHandler handler;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private final Queue<WebSocketMessage<?>> inbound = new ArrayDeque<>();
+        private boolean delivering;
+        private volatile boolean open = true;
+        private int textMessageSizeLimit = 64 * 1024;
+        private int binaryMessageSizeLimit = 64 * 1024;
+
+        LoopbackSession(URI uri, HttpHeaders handshakeHeaders, WebSocketHandler handler) {
+            this.uri = uri;
+            this.handshakeHeaders = handshakeHeaders != null ? handshakeHeaders : new HttpHeaders();
+            this.handler = handler;
+        }
+
+        /**
+         * Frame from the broker to the client.
+         */
+        @Override
+        public void deliver(WebSocketMessage<?> message) {
+            synchronized (inbound) {
+                if (!open) return;
+                inbound.add(message);
+                if (delivering) return;
+                delivering = true;
+            }
+            while (true) {
+                WebSocketMessage<?> next;
+                synchronized (inbound) {
+                    next = inbound.poll();
+                    if (next == null) {
+                        delivering = false;
+                        return;
+                    }
+                }
+                try {
+                    handler.handleMessage(this, next);
+                } catch (Exception e) {
+                    closeQuietly(CloseStatus.SERVER_ERROR);
+                }
+            }
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            if (!open) throw new IllegalStateException("Session is closed");
+            broker.received(this, message);
+        }
+
+        @Override
+        public void close() {
+            close(CloseStatus.NORMAL);
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            synchronized (inbound) {
+                if (!open) return;
+                open = false;
+                inbound.clear();
+            }
+            broker.closed(this);
+            try {
+                handler.afterConnectionClosed(this, status);
+            } catch (Exception e) {
+                // nothing left to clean up
+            }
+        }
+
+        @Override
+        public void closeQuietly(CloseStatus status) {
+            try {
+                close(status);
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return uri;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return handshakeHeaders;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return "v12.stomp";
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+            this.textMessageSizeLimit = messageSizeLimit;
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return textMessageSizeLimit;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+            this.binaryMessageSizeLimit = messageSizeLimit;
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return binaryMessageSizeLimit;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public String toString() {
+            return "LoopbackSession[" + id + "]";
+        }
+    }
+}
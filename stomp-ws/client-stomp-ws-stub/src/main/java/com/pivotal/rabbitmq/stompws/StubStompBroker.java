@@ -0,0 +1,554 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Minimal in-memory STOMP 1.2 broker for {@link LoopbackWebSocketClient}, or for real WebSockets through
+ * {@link #webSocketHandler()}. It is meant to exercise the client without RabbitMQ, not to emulate it:
+ * <ul>
+ *     <li>every destination fans out to all its subscriptions, messages sent to a destination without
+ *     subscriptions are discarded. {@code /topic/} subscriptions take AMQP topic patterns</li>
+ *     <li>client ack modes and {@code prefetch-count} are honoured. Messages beyond the prefetch wait for
+ *     ACKs, unacknowledged messages are discarded when the subscription goes away</li>
+ *     <li>a {@code /temp-queue/} in the {@code reply-to} header of a SEND becomes a {@code /reply-queue/}
+ *     of the connection, messages sent there come back on the connection with the temp queue for
+ *     subscription</li>
+ *     <li>destinations declared with {@link #declareStream(String)} keep every message sent to them, at offsets
+ *     from 0. Subscriptions with an {@code x-stream-offset} header read from {@code first}, {@code last},
+ *     {@code next} or {@code offset=n}, {@code timestamp=} reads from the first, and messages carry their
+ *     offset in the {@code x-stream-offset} header</li>
+ *     <li>there is no authentication. The broker sends heartbeats as often as clients ask for, once
+ *     {@link #sendHeartbeats(TaskScheduler)} is called, but expects none</li>
+ * </ul>
+ */
+public class StubStompBroker {
+
+    private static final String topic = "/topic/";
+    private static final String tempQueue = "/temp-queue/";
+    private static final String replyQueue = "/reply-queue/";
+    private static final Set<String> reservedHeaders = new HashSet<>(Arrays.asList(
+            "destination", "receipt", "content-length", "transaction"));
+
+    private final StompEncoder encoder = new StompEncoder();
+    private final StompDecoder decoder = new StompDecoder();
+    private final Map<Peer, Connection> connections = new ConcurrentHashMap<>();
+    private final Map<String, List<Subscription>> destinations = new ConcurrentHashMap<>();
+    private final Map<String, ReplyQueue> replyQueues = new ConcurrentHashMap<>();
+    private final Map<String, List<Pending>> streams = new ConcurrentHashMap<>();
+    private final AtomicLong connectionIds = new AtomicLong();
+    private final AtomicLong messageIds = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong acknowledged = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile boolean running = true;
+    private volatile boolean partitioned;
+    private volatile TaskScheduler heartbeats;
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Accept connections again after {@link #stop()}.
+     */
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * Close every connection and refuse new ones until {@link #start()}.
+     */
+    public void stop() {
+        running = false;
+        disconnectAll();
+    }
+
+    /**
+     * Drop every frame, heartbeats included, in and out of the open connections without closing them, as if
+     * the network had gone away under half-open connections.
+     */
+    public void partition() {
+        partitioned = true;
+    }
+
+    public void heal() {
+        partitioned = false;
+    }
+
+    /**
+     * Send heartbeats to the clients which ask for them on CONNECT, from then on.
+     */
+    public void sendHeartbeats(TaskScheduler taskScheduler) {
+        this.heartbeats = taskScheduler;
+    }
+
+    /**
+     * Close every connection, as if the broker had been restarted.
+     */
+    public void disconnectAll() {
+        connections.keySet().forEach(session -> session.closeQuietly(CloseStatus.GOING_AWAY));
+    }
+
+    /**
+     * Makes the destination a stream, which keeps its messages for subscriptions to replay.
+     */
+    public void declareStream(String destination) {
+        streams.putIfAbsent(destination, new ArrayList<>());
+    }
+
+    /**
+     * @return number of messages in the stream, 0 if there is no such stream
+     */
+    public int getStreamLength(String destination) {
+        List<Pending> log = streams.get(destination);
+        if (log == null) return 0;
+        synchronized (log) {
+            return log.size();
+        }
+    }
+
+    public int getConnections() {
+        return connections.size();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getAcknowledged() {
+        return acknowledged.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Server side handler, to host the broker on a WebSocket server such as {@link StubStompServer}.
+     */
+    public WebSocketHandler webSocketHandler() {
+        return new AbstractWebSocketHandler() {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) {
+                if (running) open(new ServerPeer(session));
+                else new ServerPeer(session).closeQuietly(CloseStatus.SERVICE_RESTARTED);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) {
+                received(new ServerPeer(session), message);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+                closed(new ServerPeer(session));
+            }
+        };
+    }
+
+    void open(Peer session) {
+        connections.put(session, new Connection(session));
+    }
+
+    void closed(Peer session) {
+        Connection connection = connections.remove(session);
+        if (connection == null) return;
+        if (connection.heartbeat != null) connection.heartbeat.cancel(false);
+        connection.subscriptions.values().forEach(this::unsubscribe);
+        replyQueues.values().removeIf(queue -> queue.connection == connection);
+    }
+
+    void received(Peer session, WebSocketMessage<?> webSocketMessage) {
+        Connection connection = connections.get(session);
+        if (connection == null || partitioned) return;
+        ByteBuffer buffer = webSocketMessage instanceof TextMessage
+                ? ByteBuffer.wrap(((TextMessage) webSocketMessage).asBytes())
+                : ((BinaryMessage) webSocketMessage).getPayload();
+        for (Message<byte[]> frame : decoder.decode(buffer)) {
+            StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(frame, StompHeaderAccessor.class);
+            if (accessor == null || accessor.getCommand() == null) continue; // heartbeat
+            handle(connection, accessor, frame.getPayload());
+        }
+    }
+
+    private void handle(Connection connection, StompHeaderAccessor frame, byte[] payload) {
+        switch (frame.getCommand()) {
+            case CONNECT:
+            case STOMP:
+                long interval = heartbeatInterval(frame);
+                if (interval > 0) {
+                    connection.heartbeat = heartbeats.scheduleAtFixedRate(connection::heartbeat, interval);
+                }
+                connection.send(StompCommand.CONNECTED, connected -> {
+                    connected.setNativeHeader("version", "1.2");
+                    connected.setNativeHeader("heart-beat", interval + ",0");
+                    connected.setNativeHeader("server", "stub");
+                }, new byte[0]);
+                break;
+            case SEND:
+                sent.incrementAndGet();
+                replyTo(connection, frame);
+                route(frame, payload);
+                break;
+            case SUBSCRIBE:
+                Subscription subscription = new Subscription(connection, frame);
+                connection.subscriptions.put(subscription.id, subscription);
+                List<Pending> log = streams.get(subscription.destination);
+                if (log == null) {
+                    destinations.computeIfAbsent(subscription.destination, d -> new CopyOnWriteArrayList<>())
+                            .add(subscription);
+                    break;
+                }
+                // no message is appended between the replay and the subscription going live
+                synchronized (log) {
+                    destinations.computeIfAbsent(subscription.destination, d -> new CopyOnWriteArrayList<>())
+                            .add(subscription);
+                    for (int offset = startOffset(frame, log.size()); offset < log.size(); offset++) {
+                        Pending message = log.get(offset);
+                        subscription.offer(message.frame, message.payload, offset);
+                    }
+                }
+                break;
+            case UNSUBSCRIBE:
+                Subscription removed = connection.subscriptions.remove(frame.getFirstNativeHeader("id"));
+                if (removed != null) unsubscribe(removed);
+                break;
+            case ACK:
+            case NACK:
+                String ackId = frame.getFirstNativeHeader("id");
+                boolean consumed = frame.getCommand() == StompCommand.ACK;
+                connection.subscriptions.values().forEach(s -> s.acknowledge(ackId, consumed));
+                break;
+            case DISCONNECT:
+                sendReceipt(connection, frame);
+                connection.session.closeQuietly(CloseStatus.NORMAL);
+                return;
+            default:
+                break;
+        }
+        sendReceipt(connection, frame);
+    }
+
+    private int startOffset(StompHeaderAccessor frame, int length) {
+        String offset = frame.getFirstNativeHeader("x-stream-offset");
+        if (offset == null || "next".equals(offset)) return length;
+        if ("last".equals(offset)) return Math.max(0, length - 1);
+        if (offset.startsWith("offset=")) return (int) Math.min(length, Long.parseLong(offset.substring(7)));
+        return 0;
+    }
+
+    /**
+     * @return how often the broker heartbeats the client, 0 if it does not
+     */
+    private long heartbeatInterval(StompHeaderAccessor frame) {
+        long[] heartbeat = frame.getHeartbeat();
+        return heartbeats != null && heartbeat.length == 2 ? heartbeat[1] : 0;
+    }
+
+    private void sendReceipt(Connection connection, StompHeaderAccessor frame) {
+        String receipt = frame.getReceipt();
+        if (receipt != null) {
+            connection.send(StompCommand.RECEIPT, r -> r.setReceiptId(receipt), new byte[0]);
+        }
+    }
+
+    /**
+     * Points the reply-to header of the frame at the reply queue of its temp queue, as RabbitMQ does.
+     */
+    private void replyTo(Connection connection, StompHeaderAccessor frame) {
+        String replyTo = frame.getFirstNativeHeader("reply-to");
+        if (replyTo == null || !replyTo.startsWith(tempQueue)) return;
+        String queue = String.format("%samq.gen-%d-%s", replyQueue, connection.id,
+                replyTo.substring(tempQueue.length()));
+        replyQueues.computeIfAbsent(queue, q -> new ReplyQueue(connection, replyTo));
+        frame.setNativeHeader("reply-to", queue);
+    }
+
+    private void route(StompHeaderAccessor frame, byte[] payload) {
+        String destination = frame.getDestination();
+        if (destination != null && destination.startsWith(replyQueue)) {
+            ReplyQueue queue = replyQueues.get(destination);
+            if (queue != null) queue.deliver(frame, payload);
+            return;
+        }
+        if (destination != null && destination.startsWith(topic)) {
+            destinations.forEach((pattern, subscriptions) -> {
+                if (pattern.startsWith(topic) && matches(pattern.substring(topic.length()),
+                        destination.substring(topic.length()))) {
+                    for (Subscription subscription : subscriptions) subscription.offer(frame, payload);
+                }
+            });
+            return;
+        }
+        List<Pending> log = streams.get(destination);
+        if (log != null) {
+            synchronized (log) {
+                int offset = log.size();
+                log.add(new Pending(null, frame, payload, offset));
+                List<Subscription> subscriptions = destinations.get(destination);
+                if (subscriptions != null) {
+                    for (Subscription subscription : subscriptions) subscription.offer(frame, payload, offset);
+                }
+            }
+            return;
+        }
+        List<Subscription> subscriptions = destinations.get(destination);
+        if (subscriptions == null) return;
+        for (Subscription subscription : subscriptions) subscription.offer(frame, payload);
+    }
+
+    /**
+     * AMQP topic matching, {@code *} stands for one word and {@code #} for any number of words.
+     */
+    static boolean matches(String pattern, String routingKey) {
+        return matches(words(pattern), 0, words(routingKey), 0);
+    }
+
+    private static boolean matches(String[] pattern, int i, String[] key, int j) {
+        if (i == pattern.length) return j == key.length;
+        if (pattern[i].equals("#")) {
+            return matches(pattern, i + 1, key, j) || (j < key.length && matches(pattern, i, key, j + 1));
+        }
+        if (j == key.length) return false;
+        if (!pattern[i].equals("*") && !pattern[i].equals(key[j])) return false;
+        return matches(pattern, i + 1, key, j + 1);
+    }
+
+    private static String[] words(String pattern) {
+        return pattern.isEmpty() ? new String[0] : pattern.split("\\.", -1);
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        List<Subscription> subscriptions = destinations.get(subscription.destination);
+        if (subscriptions != null) subscriptions.remove(subscription);
+    }
+
+    /**
+     * Client end of a connection, as seen by the broker.
+     */
+    interface Peer {
+        void deliver(WebSocketMessage<?> message);
+        void closeQuietly(CloseStatus status);
+    }
+
+    /**
+     * Server session of a connection, equal to any other ServerPeer of the same session.
+     */
+    static class ServerPeer implements Peer {
+        private final WebSocketSession session;
+
+        ServerPeer(WebSocketSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public void deliver(WebSocketMessage<?> message) {
+            // sessions do not support concurrent sends
+            synchronized (session) {
+                try {
+                    if (session.isOpen()) session.sendMessage(message);
+                } catch (IOException e) {
+                    closeQuietly(CloseStatus.SERVER_ERROR);
+                }
+            }
+        }
+
+        @Override
+        public void closeQuietly(CloseStatus status) {
+            try {
+                session.close(status);
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ServerPeer && ((ServerPeer) o).session == session;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(session);
+        }
+    }
+
+    class Connection {
+        final long id = connectionIds.incrementAndGet();
+        final Peer session;
+        final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+        volatile ScheduledFuture<?> heartbeat;
+
+        Connection(Peer session) {
+            this.session = session;
+        }
+
+        void send(StompCommand command, Consumer<StompHeaderAccessor> headers, byte[] payload) {
+            StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+            headers.accept(accessor);
+            if (partitioned) return;
+            session.deliver(new BinaryMessage(encoder.encode(accessor.getMessageHeaders(), payload)));
+        }
+
+        void heartbeat() {
+            if (!partitioned) session.deliver(new BinaryMessage(new byte[]{'\n'}));
+        }
+    }
+
+    class Subscription {
+        final Connection connection;
+        final String id;
+        final String destination;
+        final boolean clientAck;
+        final boolean cumulative;
+        final int prefetch;
+        private final Set<String> unacknowledged = new LinkedHashSet<>();
+        private final Queue<Pending> waiting = new ArrayDeque<>();
+
+        Subscription(Connection connection, StompHeaderAccessor frame) {
+            this.connection = connection;
+            this.id = frame.getFirstNativeHeader("id");
+            this.destination = frame.getDestination();
+            String ack = frame.getFirstNativeHeader("ack");
+            this.clientAck = ack != null && !"auto".equals(ack);
+            this.cumulative = "client".equals(ack);
+            String prefetchCount = frame.getFirstNativeHeader("prefetch-count");
+            this.prefetch = clientAck && prefetchCount != null ? Integer.parseInt(prefetchCount) : 0;
+        }
+
+        void offer(StompHeaderAccessor frame, byte[] payload) {
+            offer(frame, payload, -1);
+        }
+
+        void offer(StompHeaderAccessor frame, byte[] payload, long streamOffset) {
+            Pending pending = new Pending("T_" + id + "@@" + messageIds.incrementAndGet(), frame, payload,
+                    streamOffset);
+            synchronized (this) {
+                if (prefetch > 0 && unacknowledged.size() >= prefetch) {
+                    waiting.add(pending);
+                    return;
+                }
+                if (clientAck) unacknowledged.add(pending.messageId);
+            }
+            deliver(pending);
+        }
+
+        private void deliver(Pending pending) {
+            String messageId = pending.messageId;
+            StompHeaderAccessor frame = pending.frame;
+            delivered.incrementAndGet();
+            connection.send(StompCommand.MESSAGE, message -> {
+                Map<String, List<String>> headers = frame.toNativeHeaderMap();
+                headers.forEach((name, values) -> {
+                    if (!reservedHeaders.contains(name)) message.setNativeHeader(name, values.get(0));
+                });
+                // the destination the message was sent to, which a topic pattern may match
+                message.setDestination(frame.getDestination());
+                message.setSubscriptionId(id);
+                message.setMessageId(messageId);
+                message.setNativeHeader("redelivered", "false");
+                if (clientAck) message.setNativeHeader("ack", messageId);
+                if (pending.streamOffset >= 0) {
+                    message.setNativeHeader("x-stream-offset", Long.toString(pending.streamOffset));
+                }
+            }, pending.payload);
+        }
+
+        void acknowledge(String ackId, boolean consumed) {
+            Queue<Pending> released = new ArrayDeque<>();
+            synchronized (this) {
+                if (!unacknowledged.contains(ackId)) return;
+                Iterator<String> it = unacknowledged.iterator();
+                while (it.hasNext()) {
+                    String messageId = it.next();
+                    boolean last = messageId.equals(ackId);
+                    if (cumulative || last) {
+                        it.remove();
+                        if (consumed) acknowledged.incrementAndGet();
+                        else rejected.incrementAndGet();
+                    }
+                    if (last) break;
+                }
+                while (!waiting.isEmpty() && unacknowledged.size() < prefetch) {
+                    Pending next = waiting.poll();
+                    unacknowledged.add(next.messageId);
+                    released.add(next);
+                }
+            }
+            released.forEach(this::deliver);
+        }
+    }
+
+    class ReplyQueue {
+        final Connection connection;
+        final String tempQueue;
+
+        ReplyQueue(Connection connection, String tempQueue) {
+            this.connection = connection;
+            this.tempQueue = tempQueue;
+        }
+
+        void deliver(StompHeaderAccessor frame, byte[] payload) {
+            delivered.incrementAndGet();
+            connection.send(StompCommand.MESSAGE, message -> {
+                frame.toNativeHeaderMap().forEach((name, values) -> {
+                    if (!reservedHeaders.contains(name)) message.setNativeHeader(name, values.get(0));
+                });
+                message.setDestination(tempQueue);
+                message.setSubscriptionId(tempQueue);
+                message.setMessageId("T_" + tempQueue + "@@" + messageIds.incrementAndGet());
+                message.setNativeHeader("redelivered", "false");
+            }, payload);
+        }
+    }
+
+    static class Pending {
+        final String messageId;
+        final StompHeaderAccessor frame;
+        final byte[] payload;
+        final long streamOffset;
+
+        Pending(String messageId, StompHeaderAccessor frame, byte[] payload, long streamOffset) {
+            this.messageId = messageId;
+            this.frame = frame;
+            this.payload = payload;
+            this.streamOffset = streamOffset;
+        }
+    }
+}
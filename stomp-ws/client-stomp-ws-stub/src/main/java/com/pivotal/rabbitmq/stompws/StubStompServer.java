@@ -0,0 +1,134 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.servlets.DefaultServlet;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.websocket.server.WsSci;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.adapter.standard.StandardWebSocketHandlerAdapter;
+import org.springframework.web.socket.adapter.standard.StandardWebSocketSession;
+import org.springframework.web.socket.server.standard.ServerEndpointRegistration;
+
+import javax.websocket.CloseReason;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.Session;
+import javax.websocket.server.ServerContainer;
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Embedded Tomcat serving a {@link StubStompBroker} on {@code ws://localhost:<port>/ws}, like web-stomp does.
+ * Unlike {@link LoopbackWebSocketClient}, frames go through a real socket hence it can be used to compare
+ * WebSocket transports.
+ */
+public class StubStompServer {
+
+    private final StubStompBroker broker;
+    private final int maxMessageSize;
+    private Tomcat tomcat;
+
+    public StubStompServer(StubStompBroker broker) {
+        this(broker, 1024 * 1024);
+    }
+
+    public StubStompServer(StubStompBroker broker, int maxMessageSize) {
+        this.broker = broker;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public StubStompBroker getBroker() {
+        return broker;
+    }
+
+    /**
+     * @param port 0 to pick a free one
+     * @return the port it listens on
+     */
+    public synchronized int start(int port) {
+        if (tomcat != null) throw new IllegalStateException("Server already started");
+        try {
+            File baseDir = Files.createTempDirectory("stub-stomp-server").toFile();
+            baseDir.deleteOnExit();
+            Tomcat server = new Tomcat();
+            server.setBaseDir(baseDir.getAbsolutePath());
+            server.setPort(port);
+            StandardContext context = (StandardContext) server.addContext("", baseDir.getAbsolutePath());
+            // nothing to clear in an embedded server, and the reflection it takes fails on recent JDKs
+            context.setClearReferencesObjectStreamClassCaches(false);
+            context.setClearReferencesRmiTargets(false);
+            context.setClearReferencesThreadLocals(false);
+            // the upgrade is a filter hence there must be a servlet to map requests to
+            Tomcat.addServlet(context, "default", new DefaultServlet());
+            context.addServletMappingDecoded("/", "default");
+            context.addServletContainerInitializer(new WsSci(), null);
+            context.addServletContainerInitializer((classes, servletContext) -> {
+                ServerContainer container = (ServerContainer) servletContext
+                        .getAttribute(ServerContainer.class.getName());
+                container.setDefaultMaxTextMessageBufferSize(maxMessageSize);
+                container.setDefaultMaxBinaryMessageBufferSize(maxMessageSize);
+                try {
+                    container.addEndpoint(new ServerEndpointRegistration("/ws",
+                            new BrokerEndpoint(broker.webSocketHandler())));
+                } catch (DeploymentException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, null);
+            server.getConnector();
+            server.start();
+            tomcat = server;
+            return server.getConnector().getLocalPort();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to start stub server", e);
+        }
+    }
+
+    public synchronized void stop() {
+        if (tomcat == null) return;
+        broker.disconnectAll();
+        try {
+            tomcat.stop();
+            tomcat.destroy();
+        } catch (LifecycleException e) {
+            throw new IllegalStateException("Failed to stop stub server", e);
+        } finally {
+            tomcat = null;
+        }
+    }
+
+    /**
+     * Adapts the broker's handler to every session, as Spring's {@code ServerEndpointExporter} would.
+     */
+    static class BrokerEndpoint extends Endpoint {
+        private static final String adapter = StandardWebSocketHandlerAdapter.class.getName();
+        private final WebSocketHandler handler;
+
+        BrokerEndpoint(WebSocketHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            StandardWebSocketHandlerAdapter sessionAdapter = new StandardWebSocketHandlerAdapter(handler,
+                    new StandardWebSocketSession(null, null, null, null));
+            session.getUserProperties().put(adapter, sessionAdapter);
+            sessionAdapter.onOpen(session, config);
+        }
+
+        @Override
+        public void onClose(Session session, CloseReason closeReason) {
+            StandardWebSocketHandlerAdapter sessionAdapter = (StandardWebSocketHandlerAdapter) session
+                    .getUserProperties().get(adapter);
+            if (sessionAdapter != null) sessionAdapter.onClose(session, closeReason);
+        }
+
+        @Override
+        public void onError(Session session, Throwable cause) {
+            StandardWebSocketHandlerAdapter sessionAdapter = (StandardWebSocketHandlerAdapter) session
+                    .getUserProperties().get(adapter);
+            if (sessionAdapter != null) sessionAdapter.onError(session, cause);
+        }
+    }
+}
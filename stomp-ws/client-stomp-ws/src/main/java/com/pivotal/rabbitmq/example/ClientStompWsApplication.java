@@ -10,6 +10,7 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Profile;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
@@ -28,6 +29,7 @@ public class ClientStompWsApplication {
 	RabbitStompWsClient rabbit;
 
 	@Bean
+	@Profile("!perf-test")
 	public CommandLineRunner sendMessagesToTest() {
 		return (args) -> {
 			taskScheduler.scheduleAtFixedRate(()-> {
@@ -38,6 +40,7 @@ public class ClientStompWsApplication {
 		};
 	}
 	@Bean
+	@Profile("!perf-test")
 	public CommandLineRunner sendMessagesToTest2() {
 		return (args) -> {
 			taskScheduler.scheduleAtFixedRate(()-> {
@@ -49,12 +52,14 @@ public class ClientStompWsApplication {
 	}
 
 	@Bean
+	@Profile("!perf-test")
 	public CompletionStage<Subscription> queueTestListener() {
 		return rabbit.subscribe("/queue/test", String.class,
 				(stompHeaders, s) -> {log.info("/queue/test : Received message {}", s);});
 	}
 
 	@Bean
+	@Profile("!perf-test")
 	public CompletionStage<Subscription> queueTest2Listener() {
 		return rabbit.subscribe("/queue/test2", String.class,
 				(stompHeaders, s) -> {log.info("/queue/test2 : Received message {}", s);});
@@ -0,0 +1,78 @@
+package com.pivotal.rabbitmq.example;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Bounds the number of messages waiting for a receipt. Unlike a semaphore, nobody blocks waiting for a
+ * permit: waiters are called back, holding the permit, when a send completes. Waiters run one after the
+ * other on the thread which releases a permit, including the permits they release themselves, e.g. when
+ * their send fails straight away, so that a long queue of waiters does not turn into a deep recursion.
+ */
+class OutstandingSends {
+
+    private final int max;
+    private final Deque<Runnable> waiting = new ArrayDeque<>();
+    private int outstanding;
+    private int released;
+    private boolean draining;
+
+    OutstandingSends(int max) {
+        this.max = max;
+    }
+
+    /**
+     * @return true if the caller got a permit, else {@code whenAcquired} runs with one once available
+     */
+    synchronized boolean acquireOrWait(Runnable whenAcquired) {
+        if (outstanding < max) {
+            outstanding++;
+            return true;
+        }
+        waiting.add(whenAcquired);
+        return false;
+    }
+
+    void release() {
+        synchronized (this) {
+            released++;
+            if (draining) return;
+            draining = true;
+        }
+        boolean drained = false;
+        try {
+            while (true) {
+                Runnable next;
+                synchronized (this) {
+                    if (released == 0) {
+                        draining = false;
+                        drained = true;
+                        return;
+                    }
+                    released--;
+                    // the permit goes straight to the next waiter
+                    next = waiting.poll();
+                    if (next == null) {
+                        outstanding--;
+                        continue;
+                    }
+                }
+                next.run();
+            }
+        } finally {
+            if (!drained) {
+                synchronized (this) {
+                    draining = false;
+                }
+            }
+        }
+    }
+
+    synchronized int outstanding() {
+        return outstanding;
+    }
+
+    synchronized int waiting() {
+        return waiting.size();
+    }
+}
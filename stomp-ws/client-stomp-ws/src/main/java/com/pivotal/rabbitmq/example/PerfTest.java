@@ -0,0 +1,237 @@
+package com.pivotal.rabbitmq.example;
+
+import com.pivotal.rabbitmq.stompws.AckMode;
+import com.pivotal.rabbitmq.stompws.RabbitStompWsClient;
+import com.pivotal.rabbitmq.stompws.SubscriptionOptions;
+import com.pivotal.rabbitmq.stompws.WebSocketConnectionProvider;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for STOMP over WebSocket which reports like RabbitMQ's PerfTest.
+ * <p>
+ * Every message carries the time it was meant to be sent at. With a rate, that is its slot in the producer's
+ * schedule rather than the time it was actually sent, so that a stalled producer shows up in the latencies
+ * rather than hiding them (coordinated omission). Producers and consumers run in the same JVM, which makes
+ * {@link System#nanoTime()} comparable across them.
+ */
+public class PerfTest {
+
+    private static final long highestTrackableLatency = TimeUnit.MINUTES.toNanos(1);
+
+    private final PerfTestProperties properties;
+    private final WebSocketConnectionProvider provider;
+    private final PrintStream out;
+    private final String id = "test-" + new SimpleDateFormat("HHmmss-SSS").format(new Date());
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder confirmed = new LongAdder();
+    private final LongAdder nacked = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final Recorder consumerLatency = new Recorder(highestTrackableLatency, 3);
+    private final Recorder confirmLatency = new Recorder(highestTrackableLatency, 3);
+    private Histogram consumerInterval;
+    private Histogram confirmInterval;
+
+    private final List<RabbitStompWsClient> clients = new ArrayList<>();
+    private final List<Thread> producers = new ArrayList<>();
+    private volatile boolean running = true;
+    private long start;
+
+    public PerfTest(PerfTestProperties properties, WebSocketConnectionProvider provider, PrintStream out) {
+        if (properties.getSize() < 12) throw new IllegalArgumentException("size must be at least 12 bytes");
+        if (properties.getDestinations().isEmpty()) throw new IllegalArgumentException("No destinations");
+        this.properties = properties;
+        this.provider = provider;
+        this.out = out;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * Runs for {@link PerfTestProperties#getTime()} or until the calling thread is interrupted.
+     */
+    public void run() throws Exception {
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        start = System.nanoTime();
+        try {
+            startConsumers();
+            startProducers();
+            long interval = properties.getReportInterval().toNanos();
+            reporter.scheduleAtFixedRate(new Reporter(), interval, interval, TimeUnit.NANOSECONDS);
+            awaitEnd();
+        } finally {
+            running = false;
+            for (Thread producer : producers) producer.join(1000);
+            reporter.shutdownNow();
+            reporter.awaitTermination(1, TimeUnit.SECONDS);
+            summary(System.nanoTime() - start);
+            clients.forEach(RabbitStompWsClient::stop);
+        }
+    }
+
+    private void awaitEnd() throws InterruptedException {
+        if (properties.getTime().isZero()) {
+            Thread.currentThread().join();
+        } else {
+            Thread.sleep(properties.getTime().toMillis());
+        }
+    }
+
+    private void startConsumers() throws Exception {
+        SubscriptionOptions.Builder options = SubscriptionOptions.builder().withAckMode(properties.getAckMode());
+        if (properties.getAckMode() != AckMode.AUTO && properties.getQos() > 0) options.withPrefetch(properties.getQos());
+        for (int i = 0; i < properties.getConsumers(); i++) {
+            RabbitStompWsClient client = provider.newClient("perf-test-consumer-" + i);
+            clients.add(client);
+            client.subscribe(destinationOf(i), byte[].class, options.build(), (headers, payload) -> {
+                consumerLatency.recordValue(Math.min(highestTrackableLatency,
+                        Math.max(0, System.nanoTime() - ByteBuffer.wrap(payload).getLong(0))));
+                received.increment();
+            }).toCompletableFuture().get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    private void startProducers() throws Exception {
+        for (int i = 0; i < properties.getProducers(); i++) {
+            RabbitStompWsClient client = provider.newClient("perf-test-producer-" + i);
+            clients.add(client);
+            client.whenReady().toCompletableFuture().get(30, TimeUnit.SECONDS);
+            Thread producer = new Thread(new Producer(i, client, destinationOf(i)), "perf-test-producer-" + i);
+            producer.setDaemon(true);
+            producers.add(producer);
+        }
+        producers.forEach(Thread::start);
+    }
+
+    private String destinationOf(int i) {
+        return properties.getDestinations().get(i % properties.getDestinations().size());
+    }
+
+    class Producer implements Runnable {
+        private final int id;
+        private final RabbitStompWsClient client;
+        private final String destination;
+        private final Semaphore unconfirmed = new Semaphore(properties.getConfirm());
+
+        Producer(int id, RabbitStompWsClient client, String destination) {
+            this.id = id;
+            this.client = client;
+            this.destination = destination;
+        }
+
+        @Override
+        public void run() {
+            long interval = properties.getRate() > 0 ? TimeUnit.SECONDS.toNanos(1) / properties.getRate() : 0;
+            long next = System.nanoTime();
+            while (running) {
+                long intended;
+                if (interval > 0) {
+                    intended = next;
+                    next += interval;
+                    long wait;
+                    while (running && (wait = intended - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+                } else {
+                    intended = System.nanoTime();
+                }
+                try {
+                    unconfirmed.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!running) return;
+                send(intended);
+            }
+        }
+
+        private void send(long intended) {
+            ByteBuffer payload = ByteBuffer.allocate(properties.getSize());
+            payload.putLong(intended).putInt(id);
+            client.send(destination, payload.array()).whenComplete((receipt, throwable) -> {
+                unconfirmed.release();
+                if (throwable == null) {
+                    confirmLatency.recordValue(Math.min(highestTrackableLatency, System.nanoTime() - intended));
+                    confirmed.increment();
+                } else {
+                    nacked.increment();
+                }
+            });
+            sent.increment();
+        }
+    }
+
+    class Reporter implements Runnable {
+        private long last = start;
+        private long lastSent;
+        private long lastConfirmed;
+        private long lastNacked;
+        private long lastReceived;
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            double elapsed = (now - last) / 1e9;
+            long sent = PerfTest.this.sent.sum();
+            long confirmed = PerfTest.this.confirmed.sum();
+            long nacked = PerfTest.this.nacked.sum();
+            long received = PerfTest.this.received.sum();
+            consumerInterval = consumerLatency.getIntervalHistogram(consumerInterval);
+            confirmInterval = confirmLatency.getIntervalHistogram(confirmInterval);
+            out.printf("id: %s, time: %.3fs, sent: %d msg/s, confirmed: %d msg/s, nacked: %d msg/s, " +
+                            "received: %d msg/s, min/median/75th/95th/99th consumer latency: %s µs, " +
+                            "confirm latency: %s µs%n",
+                    id, (now - start) / 1e9,
+                    rate(sent - lastSent, elapsed), rate(confirmed - lastConfirmed, elapsed),
+                    rate(nacked - lastNacked, elapsed), rate(received - lastReceived, elapsed),
+                    percentiles(consumerInterval), percentiles(confirmInterval));
+            last = now;
+            lastSent = sent;
+            lastConfirmed = confirmed;
+            lastNacked = nacked;
+            lastReceived = received;
+        }
+    }
+
+    private void summary(long elapsedNanos) {
+        double elapsed = elapsedNanos / 1e9;
+        out.printf("id: %s, sending rate avg: %d msg/s%n", id, rate(sent.sum(), elapsed));
+        out.printf("id: %s, receiving rate avg: %d msg/s%n", id, rate(received.sum(), elapsed));
+    }
+
+    private static long rate(long count, double seconds) {
+        return seconds > 0 ? Math.round(count / seconds) : 0;
+    }
+
+    private static String percentiles(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) return "0/0/0/0/0";
+        return String.format("%d/%d/%d/%d/%d",
+                micros(histogram.getMinValue()),
+                micros(histogram.getValueAtPercentile(50)),
+                micros(histogram.getValueAtPercentile(75)),
+                micros(histogram.getValueAtPercentile(95)),
+                micros(histogram.getValueAtPercentile(99)));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
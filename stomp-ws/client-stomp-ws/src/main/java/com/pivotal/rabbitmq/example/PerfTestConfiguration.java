@@ -0,0 +1,35 @@
+package com.pivotal.rabbitmq.example;
+
+import com.pivotal.rabbitmq.stompws.LoopbackWebSocketClient;
+import com.pivotal.rabbitmq.stompws.StubStompBroker;
+import com.pivotal.rabbitmq.stompws.WebSocketConnectionProvider;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.TaskScheduler;
+
+/**
+ * Runs the {@link PerfTest} instead of the demo when the {@code perf-test} profile is active.
+ */
+@Configuration
+@Profile("perf-test")
+@EnableConfigurationProperties(PerfTestProperties.class)
+public class PerfTestConfiguration {
+
+    @Bean
+    public CommandLineRunner perfTest(PerfTestProperties properties, RabbitStompWebSocketConfiguration rabbit,
+                                      TaskScheduler taskScheduler, ConfigurableApplicationContext context) {
+        return args -> {
+            WebSocketConnectionProvider.Builder provider = rabbit.providerBuilder();
+            if ("stub".equals(properties.getBroker())) {
+                provider.withWebSocketClient(new LoopbackWebSocketClient(new StubStompBroker()));
+            }
+            new PerfTest(properties, provider.build(), System.out).run();
+            System.exit(SpringApplication.exit(context));
+        };
+    }
+}
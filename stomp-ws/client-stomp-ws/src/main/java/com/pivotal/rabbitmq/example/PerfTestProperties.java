@@ -0,0 +1,138 @@
+package com.pivotal.rabbitmq.example;
+
+import com.pivotal.rabbitmq.stompws.AckMode;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Workload of the {@code perf-test} profile. Names follow PerfTest's options where there is one, see the
+ * README for the mapping.
+ */
+@ConfigurationProperties("perf-test")
+public class PerfTestProperties {
+
+    /**
+     * {@code rabbitmq} to go through web-stomp or {@code stub} to go through an in-process STOMP broker.
+     */
+    private String broker = "rabbitmq";
+    private int producers = 1;
+    private int consumers = 1;
+    /**
+     * Messages per second per producer, unlimited if negative.
+     */
+    private int rate = -1;
+    /**
+     * Message size in bytes, at least 12 to hold the timestamp and the producer.
+     */
+    private int size = 12;
+    /**
+     * Producers and consumers are assigned to destinations round-robin.
+     */
+    private List<String> destinations = new ArrayList<>(Collections.singletonList("/queue/perf-test"));
+    /**
+     * Maximum number of messages each producer waits a receipt for.
+     */
+    private int confirm = 1000;
+    private AckMode ackMode = AckMode.AUTO;
+    /**
+     * Prefetch of each consumer, only with client ack modes.
+     */
+    private int qos = 0;
+    /**
+     * How long to run for, until stopped if zero.
+     */
+    private Duration time = Duration.ZERO;
+    private Duration reportInterval = Duration.ofSeconds(1);
+
+    public String getBroker() {
+        return broker;
+    }
+
+    public void setBroker(String broker) {
+        this.broker = broker;
+    }
+
+    public int getProducers() {
+        return producers;
+    }
+
+    public void setProducers(int producers) {
+        this.producers = producers;
+    }
+
+    public int getConsumers() {
+        return consumers;
+    }
+
+    public void setConsumers(int consumers) {
+        this.consumers = consumers;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public List<String> getDestinations() {
+        return destinations;
+    }
+
+    public void setDestinations(List<String> destinations) {
+        this.destinations = destinations;
+    }
+
+    public int getConfirm() {
+        return confirm;
+    }
+
+    public void setConfirm(int confirm) {
+        this.confirm = confirm;
+    }
+
+    public AckMode getAckMode() {
+        return ackMode;
+    }
+
+    public void setAckMode(AckMode ackMode) {
+        this.ackMode = ackMode;
+    }
+
+    public int getQos() {
+        return qos;
+    }
+
+    public void setQos(int qos) {
+        this.qos = qos;
+    }
+
+    public Duration getTime() {
+        return time;
+    }
+
+    public void setTime(Duration time) {
+        this.time = time;
+    }
+
+    public Duration getReportInterval() {
+        return reportInterval;
+    }
+
+    public void setReportInterval(Duration reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+}
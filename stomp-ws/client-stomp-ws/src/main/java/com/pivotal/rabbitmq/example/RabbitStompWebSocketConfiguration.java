@@ -1,7 +1,13 @@
 package com.pivotal.rabbitmq.example;
 
+import com.pivotal.rabbitmq.stompws.BrokerNode;
+import com.pivotal.rabbitmq.stompws.CongestionControl;
+import com.pivotal.rabbitmq.stompws.Heartbeat;
+import com.pivotal.rabbitmq.stompws.OutboundSpool;
 import com.pivotal.rabbitmq.stompws.RabbitStompWsClient;
 import com.pivotal.rabbitmq.stompws.WebSocketConnectionProvider;
+import com.pivotal.rabbitmq.stompws.WebSocketTransport;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -10,15 +16,28 @@ import org.springframework.messaging.simp.stomp.StompHeaders;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 @EnableScheduling
 public class RabbitStompWebSocketConfiguration {
 
     @Autowired TaskScheduler taskScheduler;
+    @Autowired MeterRegistry meterRegistry;
     @Value("${spring.rabbitmq.host:localhost}") String hostname;
     @Value("${spring.rabbitmq.port:15674}") int port;
+    @Value("${spring.rabbitmq.addresses:}") String addresses;
     @Value("${spring.rabbitmq.username:guest}") String username;
     @Value("${spring.rabbitmq.password:guest}") String password;
+    @Value("${spring.rabbitmq.transport:STANDARD}") WebSocketTransport.Kind transport;
+    @Value("${spring.rabbitmq.compression:false}") boolean compression;
+    @Value("${spring.rabbitmq.spool-directory:}") String spoolDirectory;
+    @Value("${spring.rabbitmq.heartbeat:}") Duration heartbeat;
+    @Value("${spring.rabbitmq.congestion-control:false}") boolean congestionControl;
+    @Value("${spring.rabbitmq.max-send-rate:0}") int maxSendRate;
 
     @Bean(destroyMethod = "stop")
     public RabbitStompWsClient stompForRest(WebSocketConnectionProvider provider) {
@@ -29,13 +48,52 @@ public class RabbitStompWebSocketConfiguration {
     public RabbitStompWsClient stompForScheduledTask(WebSocketConnectionProvider provider) {
         return provider.newClient("stompForScheduledTask");
     }
-    @Bean
+    @Bean(destroyMethod = "stop")
     public WebSocketConnectionProvider webSocketConnectionProvider() {
+        return providerBuilder().build();
+    }
+    WebSocketConnectionProvider.Builder providerBuilder() {
         return WebSocketConnectionProvider.builder()
-                .connectTo(hostname, port)
+                .connectTo(nodes())
                 .withStompHeader(headerWithCredentials())
                 .withTaskScheduler(taskScheduler)
-                .build();
+                .withTransport(transport())
+                .withOutboundSpool(spoolDirectory.isEmpty() ? null
+                        : OutboundSpool.builder(Paths.get(spoolDirectory)).build())
+                .withHeartbeat(heartbeat == null ? null : Heartbeat.builder()
+                        .withSendInterval(heartbeat)
+                        .withReceiveInterval(heartbeat)
+                        .build())
+                .withCongestionControl(congestionControl())
+                .withMeterRegistry(meterRegistry);
+    }
+    /**
+     * Adaptive limit with {@code spring.rabbitmq.congestion-control}, capped by {@code spring.rabbitmq.max-send-rate}
+     * if set.
+     */
+    CongestionControl congestionControl() {
+        if (!congestionControl && maxSendRate <= 0) return null;
+        CongestionControl.Builder builder = CongestionControl.builder();
+        if (maxSendRate > 0) builder.withMaxRate(maxSendRate);
+        return builder.build();
+    }
+    /**
+     * {@code spring.rabbitmq.addresses}, e.g. {@code host1:15674,host2:15674}, or else host and port.
+     */
+    List<BrokerNode> nodes() {
+        List<BrokerNode> nodes = new ArrayList<>();
+        for (String address : addresses.split(",")) {
+            if (address.trim().isEmpty()) continue;
+            String[] hostAndPort = address.trim().split(":");
+            nodes.add(BrokerNode.of(hostAndPort[0], hostAndPort.length > 1 ? Integer.parseInt(hostAndPort[1]) : port));
+        }
+        if (nodes.isEmpty()) nodes.add(BrokerNode.of(hostname, port));
+        return nodes;
+    }
+    WebSocketTransport transport() {
+        WebSocketTransport.Builder builder = transport == WebSocketTransport.Kind.JETTY
+                ? WebSocketTransport.jetty() : WebSocketTransport.standard();
+        return builder.withCompression(compression).build();
     }
     StompHeaders headerWithCredentials() {
         StompHeaders header = new StompHeaders();
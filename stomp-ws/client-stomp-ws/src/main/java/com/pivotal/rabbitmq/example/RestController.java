@@ -3,28 +3,132 @@ package com.pivotal.rabbitmq.example;
 import com.pivotal.rabbitmq.stompws.RabbitStompWsClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
 
-import java.util.concurrent.CompletionStage;
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Sends messages without holding a servlet thread while waiting for their receipts. Each message answers
+ * {@code ok}, {@code failed} or, if its receipt did not arrive within {@link RestProperties#getSendTimeout()},
+ * {@code timeout}.
+ */
 @Controller
+@ResponseBody
+@EnableConfigurationProperties(RestProperties.class)
 public class RestController {
 
+    static final String OK = "ok";
+    static final String FAILED = "failed";
+    static final String TIMEOUT = "timeout";
+
     @Autowired
     @Qualifier("stompForRest")
     RabbitStompWsClient rabbit;
 
+    @Autowired
+    RestProperties properties;
+
+    OutstandingSends outstanding;
+
+    @PostConstruct
+    void init() {
+        outstanding = new OutstandingSends(properties.getMaxOutstanding());
+    }
+
     @PostMapping("/send")
-    public String sendMessage(@RequestParam String destination, @RequestBody String body) {
-        CompletionStage<String> result = rabbit.send(destination, body).thenApply(o ->  "ok")
-                .exceptionally(throwable -> "failed");
-        try {
-            return result.toCompletableFuture().get();
-        } catch (Exception e) {
-            return "failed";
+    public DeferredResult<String> sendMessage(@RequestParam String destination, @RequestBody String body) {
+        DeferredResult<String> result = new DeferredResult<>(properties.getSendTimeout().toMillis(), TIMEOUT);
+        Runnable send = () -> {
+            if (result.isSetOrExpired()) {
+                outstanding.release();
+                return;
+            }
+            rabbit.send(destination, body).whenComplete((o, throwable) -> {
+                outstanding.release();
+                result.setResult(throwable == null ? OK : FAILED);
+            });
+        };
+        if (outstanding.acquireOrWait(send)) send.run();
+        return result;
+    }
+
+    /**
+     * Sends a JSON array of messages to the same destination, in order, and answers with an array of
+     * results in the same order.
+     */
+    @PostMapping("/send/batch")
+    public DeferredResult<List<String>> sendMessages(@RequestParam String destination,
+                                                    @RequestBody List<String> bodies) {
+        DeferredResult<List<String>> result = new DeferredResult<>(properties.getSendTimeout().toMillis());
+        new Batch(destination, bodies, result).start();
+        return result;
+    }
+
+    /**
+     * Streams a batch through the client: each message is sent as soon as there is a permit for it, so a
+     * large batch neither blocks a thread nor takes more than its share of {@link #outstanding}.
+     */
+    class Batch {
+        final String destination;
+        final List<String> bodies;
+        final DeferredResult<List<String>> result;
+        final AtomicReferenceArray<String> results;
+        final AtomicInteger completed = new AtomicInteger();
+        volatile boolean expired;
+        int next;
+
+        Batch(String destination, List<String> bodies, DeferredResult<List<String>> result) {
+            this.destination = destination;
+            this.bodies = bodies;
+            this.result = result;
+            this.results = new AtomicReferenceArray<>(bodies.size());
+            result.onTimeout(() -> {
+                expired = true;
+                result.setResult(results());
+            });
+        }
+
+        void start() {
+            if (bodies.isEmpty()) result.setResult(Collections.emptyList());
+            else if (outstanding.acquireOrWait(this::sendNext)) sendNext();
+        }
+
+        /**
+         * Called holding a permit, by one thread at a time.
+         */
+        private void sendNext() {
+            do {
+                if (expired) {
+                    outstanding.release();
+                    return;
+                }
+                int index = next++;
+                rabbit.send(destination, bodies.get(index)).whenComplete((o, throwable) -> {
+                    outstanding.release();
+                    results.set(index, throwable == null ? OK : FAILED);
+                    if (completed.incrementAndGet() == bodies.size()) result.setResult(results());
+                });
+            } while (next < bodies.size() && outstanding.acquireOrWait(this::sendNext));
+        }
+
+        private List<String> results() {
+            List<String> list = new ArrayList<>(results.length());
+            for (int i = 0; i < results.length(); i++) {
+                String r = results.get(i);
+                list.add(r != null ? r : TIMEOUT);
+            }
+            return list;
         }
     }
 }
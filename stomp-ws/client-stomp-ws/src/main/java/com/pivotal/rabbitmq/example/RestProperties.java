@@ -0,0 +1,39 @@
+package com.pivotal.rabbitmq.example;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Limits of the {@link RestController}'s endpoints.
+ */
+@ConfigurationProperties("rest")
+public class RestProperties {
+
+    /**
+     * How long a request waits for its messages' receipts, including the time waiting to send them.
+     */
+    private Duration sendTimeout = Duration.ofSeconds(5);
+    /**
+     * Maximum number of messages, across all requests, waiting for a receipt. Requests beyond that wait
+     * without holding a thread.
+     */
+    private int maxOutstanding = 1000;
+
+    public Duration getSendTimeout() {
+        return sendTimeout;
+    }
+
+    public void setSendTimeout(Duration sendTimeout) {
+        this.sendTimeout = sendTimeout;
+    }
+
+    public int getMaxOutstanding() {
+        return maxOutstanding;
+    }
+
+    public void setMaxOutstanding(int maxOutstanding) {
+        if (maxOutstanding < 1) throw new IllegalArgumentException("maxOutstanding must be greater than 0");
+        this.maxOutstanding = maxOutstanding;
+    }
+}
@@ -0,0 +1,29 @@
+package com.pivotal.rabbitmq.stompws;
+
+/**
+ * STOMP acknowledgement modes supported by RabbitMQ.
+ */
+public enum AckMode {
+    /**
+     * Messages are considered acknowledged as soon as the broker sends them. This is the default.
+     */
+    AUTO("auto"),
+    /**
+     * An ACK acknowledges the message and all the messages received before it on the same subscription.
+     */
+    CLIENT("client"),
+    /**
+     * An ACK only acknowledges the message it refers to.
+     */
+    CLIENT_INDIVIDUAL("client-individual");
+
+    private final String header;
+
+    AckMode(String header) {
+        this.header = header;
+    }
+
+    public String header() {
+        return header;
+    }
+}
@@ -0,0 +1,43 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter between reconnection attempts. The first attempt is immediate, the following
+ * ones wait twice as long as the previous one, up to a maximum, minus a random jitter of up to half the delay so
+ * that clients disconnected at the same time do not reconnect in lockstep.
+ */
+public class Backoff {
+
+    private final Duration initialDelay;
+    private final Duration maxDelay;
+
+    public Backoff(Duration initialDelay, Duration maxDelay) {
+        if (initialDelay.isNegative() || initialDelay.isZero()) throw new IllegalArgumentException("initialDelay must be positive");
+        if (maxDelay.compareTo(initialDelay) < 0) throw new IllegalArgumentException("maxDelay must not be lower than initialDelay");
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    public static Backoff defaultBackoff() {
+        return new Backoff(Duration.ofMillis(100), Duration.ofSeconds(5));
+    }
+
+    /**
+     * @param attempt number of consecutive failed attempts so far
+     * @return milliseconds to wait before the next attempt
+     */
+    public long delayMillis(int attempt) {
+        if (attempt <= 0) return 0;
+        long max = maxDelay.toMillis();
+        long delay = initialDelay.toMillis() << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > max) delay = max;
+        return delay - ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Backoff{initialDelay=%s, maxDelay=%s}", initialDelay, maxDelay);
+    }
+}
@@ -0,0 +1,67 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.util.Objects;
+
+/**
+ * A node of the cluster, i.e. a web-stomp endpoint. Its name is the one queue locators refer to, by default
+ * its hostname.
+ */
+public final class BrokerNode {
+
+    private final String name;
+    private final String hostname;
+    private final int port;
+
+    private BrokerNode(String name, String hostname, int port) {
+        if (hostname == null || hostname.isEmpty()) throw new IllegalArgumentException("hostname is required");
+        if (port < 1 || port > 65535) throw new IllegalArgumentException("port must be between 1 and 65535");
+        this.name = name != null ? name : hostname;
+        this.hostname = hostname;
+        this.port = port;
+    }
+
+    public static BrokerNode of(String hostname, int port) {
+        return new BrokerNode(null, hostname, port);
+    }
+
+    /**
+     * @param name name of the node, e.g. {@code rabbit@host1}
+     */
+    public static BrokerNode of(String name, String hostname, int port) {
+        return new BrokerNode(name, hostname, port);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHostname() {
+        return hostname;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    String url() {
+        return String.format("ws://%s:%d/ws", hostname, port);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BrokerNode)) return false;
+        BrokerNode that = (BrokerNode) o;
+        return port == that.port && name.equals(that.name) && hostname.equals(that.hostname);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, hostname, port);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BrokerNode{name=%s, hostname=%s, port=%d}", name, hostname, port);
+    }
+}
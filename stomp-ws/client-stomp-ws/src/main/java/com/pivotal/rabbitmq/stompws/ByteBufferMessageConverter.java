@@ -0,0 +1,49 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Passes {@link ByteBuffer} payloads through. Received payloads are wrapped rather than copied, whatever their
+ * content type. Sent buffers are only copied when they do not expose their whole backing array.
+ */
+public class ByteBufferMessageConverter extends AbstractMessageConverter {
+
+    public ByteBufferMessageConverter() {
+        super(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+        setStrictContentTypeMatch(false);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return ByteBuffer.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canConvertFrom(Message<?> message, Class<?> targetClass) {
+        return supports(targetClass) && message.getPayload() instanceof byte[];
+    }
+
+    @Override
+    protected Object convertFromInternal(Message<?> message, Class<?> targetClass, @Nullable Object conversionHint) {
+        Object payload = message.getPayload();
+        return payload instanceof byte[] ? ByteBuffer.wrap((byte[]) payload).asReadOnlyBuffer() : null;
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, @Nullable MessageHeaders headers, @Nullable Object conversionHint) {
+        ByteBuffer buffer = (ByteBuffer) payload;
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,266 @@
+package com.pivotal.rabbitmq.stompws;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer meters of a client, tagged with the client's name and, where it applies, the destination.
+ * Meters are looked up once per destination and session and then cached, recording does not allocate.
+ */
+class ClientMetrics {
+
+    static final ClientMetrics NONE = new ClientMetrics();
+
+    private static final Duration minExpectedLatency = Duration.ofMillis(1);
+    private static final Duration maxExpectedLatency = Duration.ofSeconds(30);
+
+    private final String client;
+    private final MeterRegistry registry;
+    private final DestinationMeters noDestination = new DestinationMeters();
+    private final SessionMeters noSession = new SessionMeters();
+    private final Map<String, DestinationMeters> destinations = new ConcurrentHashMap<>();
+    private final Map<String, SessionMeters> sessions = new ConcurrentHashMap<>();
+    private final LaneMeters noLane = new LaneMeters();
+    private final Counter reconnects;
+    private final Counter readIdleTimeouts;
+    private final Counter requestTimeouts;
+
+    private ClientMetrics() {
+        this.client = null;
+        this.registry = null;
+        this.reconnects = null;
+        this.readIdleTimeouts = null;
+        this.requestTimeouts = null;
+    }
+
+    ClientMetrics(String client, MeterRegistry registry) {
+        this.client = client;
+        this.registry = registry;
+        this.reconnects = Counter.builder("stomp.client.reconnects")
+                .description("Attempts to restore the subscriber session")
+                .tag("client", client)
+                .register(registry);
+        this.readIdleTimeouts = Counter.builder("stomp.client.read.idle.timeouts")
+                .description("Sessions declared dead for receiving nothing, not even heartbeats")
+                .tag("client", client)
+                .register(registry);
+        this.requestTimeouts = Counter.builder("stomp.client.request.timeouts")
+                .description("Requests which got no reply in time")
+                .tag("client", client)
+                .register(registry);
+    }
+
+    DestinationMeters destination(String destination) {
+        if (registry == null || destination == null) return noDestination;
+        DestinationMeters meters = destinations.get(destination);
+        return meters != null ? meters : destinations.computeIfAbsent(destination, DestinationMeters::new);
+    }
+
+    SessionMeters session(String session) {
+        if (registry == null) return noSession;
+        return sessions.computeIfAbsent(session, SessionMeters::new);
+    }
+
+    <T> void inFlight(T obj, ToDoubleFunction<T> inFlight) {
+        if (registry == null) return;
+        Gauge.builder("stomp.client.in.flight", obj, inFlight)
+                .description("Messages sent and waiting for their receipt")
+                .tag("client", client)
+                .register(registry);
+    }
+
+    LaneMeters lane(String lane) {
+        if (registry == null) return noLane;
+        return new LaneMeters(lane);
+    }
+
+    /**
+     * Gauges of the congestion controller of a sender session.
+     */
+    void congestion(String session, CongestionController controller) {
+        if (registry == null) return;
+        Gauge.builder("stomp.client.congestion.limit", controller, CongestionController::getLimit)
+                .description("Sends allowed to wait for their receipt")
+                .tags("client", client, "session", session)
+                .register(registry);
+        Gauge.builder("stomp.client.congestion.queued", controller, CongestionController::getQueued)
+                .description("Sends held back by the congestion controller")
+                .tags("client", client, "session", session)
+                .register(registry);
+        Gauge.builder("stomp.client.congestion.rtt", controller, c -> c.getSmoothedRtt().toNanos() / 1e9)
+                .description("Moving average of the receipt round trip")
+                .tags("client", client, "session", session)
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    /**
+     * Removes the meters of the client from the registry.
+     */
+    void close() {
+        if (registry == null) return;
+        registry.getMeters().stream()
+                .filter(meter -> client.equals(meter.getId().getTag("client")))
+                .forEach(registry::remove);
+        destinations.clear();
+        sessions.clear();
+    }
+
+    void reconnecting() {
+        if (reconnects != null) reconnects.increment();
+    }
+
+    void readIdleTimeout() {
+        if (readIdleTimeouts != null) readIdleTimeouts.increment();
+    }
+
+    void requestTimeout() {
+        if (requestTimeouts != null) requestTimeouts.increment();
+    }
+
+    class DestinationMeters {
+        private final Counter sent;
+        private final Counter lost;
+        private final Timer receiptLatency;
+        private final Counter delivered;
+        private final Timer handlerLatency;
+
+        private DestinationMeters() {
+            sent = lost = delivered = null;
+            receiptLatency = handlerLatency = null;
+        }
+
+        private DestinationMeters(String destination) {
+            sent = Counter.builder("stomp.client.sent")
+                    .description("Messages sent")
+                    .tags("client", client, "destination", destination)
+                    .register(registry);
+            lost = Counter.builder("stomp.client.receipts.lost")
+                    .description("Messages sent which failed or whose receipt was lost")
+                    .tags("client", client, "destination", destination)
+                    .register(registry);
+            receiptLatency = Timer.builder("stomp.client.receipt.latency")
+                    .description("Time from sending a message to its receipt")
+                    .tags("client", client, "destination", destination)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(minExpectedLatency)
+                    .maximumExpectedValue(maxExpectedLatency)
+                    .register(registry);
+            delivered = Counter.builder("stomp.client.delivered")
+                    .description("Messages delivered to subscriptions")
+                    .tags("client", client, "destination", destination)
+                    .register(registry);
+            handlerLatency = Timer.builder("stomp.client.handler.latency")
+                    .description("Time spent by subscriptions' consumers")
+                    .tags("client", client, "destination", destination)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(1000))
+                    .maximumExpectedValue(maxExpectedLatency)
+                    .register(registry);
+        }
+
+        void sent() {
+            if (sent != null) sent.increment();
+        }
+
+        void settled(long sentAtNanos, Throwable failure) {
+            if (sent == null) return;
+            if (failure == null) receiptLatency.record(System.nanoTime() - sentAtNanos, TimeUnit.NANOSECONDS);
+            else lost.increment();
+        }
+
+        /**
+         * Settled without its send time, counts lost receipts only.
+         */
+        void settled(Throwable failure) {
+            if (failure != null && lost != null) lost.increment();
+        }
+
+        void delivered() {
+            if (delivered != null) delivered.increment();
+        }
+
+        void handled(long nanos) {
+            if (handlerLatency != null) handlerLatency.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    class LaneMeters {
+        private final Timer latency;
+
+        private LaneMeters() {
+            latency = null;
+        }
+
+        private LaneMeters(String lane) {
+            latency = Timer.builder("stomp.client.lane.latency")
+                    .description("Time from sending a message through a send lane to its receipt")
+                    .tags("client", client, "lane", lane)
+                    .publishPercentileHistogram()
+                    .publishPercentiles(0.5, 0.99)
+                    .minimumExpectedValue(minExpectedLatency)
+                    .maximumExpectedValue(maxExpectedLatency)
+                    .register(registry);
+        }
+
+        void settled(long sentAtNanos, Throwable failure) {
+            if (latency != null && failure == null) latency.record(System.nanoTime() - sentAtNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    class SessionMeters {
+        private final Counter connected;
+        private final Counter failed;
+        private final Timer connectLatency;
+        private final Timer failover;
+
+        private SessionMeters() {
+            connected = failed = null;
+            connectLatency = failover = null;
+        }
+
+        private SessionMeters(String session) {
+            connected = Counter.builder("stomp.client.connections")
+                    .description("Sessions established")
+                    .tags("client", client, "session", session, "outcome", "success")
+                    .register(registry);
+            failed = Counter.builder("stomp.client.connections")
+                    .description("Sessions established")
+                    .tags("client", client, "session", session, "outcome", "failure")
+                    .register(registry);
+            connectLatency = Timer.builder("stomp.client.connect.duration")
+                    .description("Time to establish a session, WebSocket handshake and STOMP CONNECT")
+                    .tags("client", client, "session", session)
+                    .register(registry);
+            failover = Timer.builder("stomp.client.failover.duration")
+                    .description("Time from losing a session to establishing the next one")
+                    .tags("client", client, "session", session)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(minExpectedLatency)
+                    .maximumExpectedValue(maxExpectedLatency)
+                    .register(registry);
+        }
+
+        void connected(long startNanos) {
+            if (connected == null) return;
+            connected.increment();
+            connectLatency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void failed() {
+            if (failed != null) failed.increment();
+        }
+
+        void recovered(long lostNanos) {
+            if (failover != null) failover.record(System.nanoTime() - lostNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands the STOMP client sessions which coalesce SEND frames according to {@link WriteCoalescing}.
+ */
+class CoalescingWebSocketClient implements WebSocketClient {
+
+    private static final Logger log = LoggerFactory.getLogger(CoalescingWebSocketClient.class);
+    private static final byte[] send = {'S', 'E', 'N', 'D'};
+
+    private final WebSocketClient delegate;
+    private final WriteCoalescing coalescing;
+    private final TaskScheduler taskScheduler;
+
+    CoalescingWebSocketClient(WebSocketClient delegate, WriteCoalescing coalescing, TaskScheduler taskScheduler) {
+        if (taskScheduler == null) throw new IllegalArgumentException("A TaskScheduler is required to coalesce writes");
+        this.delegate = delegate;
+        this.coalescing = coalescing;
+        this.taskScheduler = taskScheduler;
+    }
+
+    @Override
+    public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler webSocketHandler, String uriTemplate,
+                                                         Object... uriVariables) {
+        return delegate.doHandshake(new CoalescingHandler(webSocketHandler), uriTemplate, uriVariables);
+    }
+
+    @Override
+    public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler webSocketHandler,
+                                                         WebSocketHttpHeaders headers, URI uri) {
+        return delegate.doHandshake(new CoalescingHandler(webSocketHandler), headers, uri);
+    }
+
+    /**
+     * Passes the handler the coalescing session rather than the transport's, one handler per connection.
+     */
+    class CoalescingHandler extends WebSocketHandlerDecorator {
+        private CoalescingSession session;
+
+        CoalescingHandler(WebSocketHandler delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+            this.session = new CoalescingSession(session);
+            super.afterConnectionEstablished(this.session);
+        }
+
+        @Override
+        public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+            super.handleMessage(this.session, message);
+        }
+
+        @Override
+        public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+            super.handleTransportError(this.session != null ? this.session : session, exception);
+        }
+
+        @Override
+        public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+            if (this.session != null) this.session.discard();
+            super.afterConnectionClosed(this.session != null ? this.session : session, closeStatus);
+        }
+    }
+
+    /**
+     * Packs SEND frames into buffers and queues them, along with the other frames, to be written in order.
+     * Whichever thread finds the session free writes the queue: no thread waits on another one's write,
+     * which would deadlock should that write wait in turn on the former, e.g. for a lock a receipt callback
+     * needs.
+     * <p>
+     * Buffers are recycled once written. The transports write synchronously, a buffer is free again as
+     * soon as {@code sendMessage} returns.
+     */
+    class CoalescingSession extends WebSocketSessionDecorator {
+        private final ReentrantLock writeLock = new ReentrantLock();
+        /**
+         * Messages and {@link Batch}es in the order they are to be written.
+         */
+        private final Deque<Object> writes = new ArrayDeque<>();
+        private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+        private byte[] buffer;
+        private int size;
+        private int frames;
+        private WebSocketMessage<?> first;
+        private ScheduledFuture<?> lingerTask;
+
+        CoalescingSession(WebSocketSession delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            ByteBuffer payload = payloadOf(message);
+            int length = payload.remaining();
+            synchronized (this) {
+                if (!isSend(payload) || length > coalescing.getMaxBytes()) {
+                    enqueueBatch();
+                    writes.add(message);
+                } else {
+                    if (size + length > coalescing.getMaxBytes()) enqueueBatch();
+                    if (buffer == null) {
+                        buffer = freeBuffers.isEmpty() ? new byte[coalescing.getMaxBytes()] : freeBuffers.poll();
+                    }
+                    payload.get(buffer, size, length);
+                    size += length;
+                    if (frames++ == 0) first = message;
+                    if (size < buffer.length) {
+                        if (lingerTask == null) {
+                            lingerTask = taskScheduler.schedule(this::linger,
+                                    new Date(System.currentTimeMillis() + coalescing.getLinger().toMillis()));
+                        }
+                        return;
+                    }
+                    enqueueBatch();
+                }
+            }
+            write();
+        }
+
+        @Override
+        public void close(CloseStatus status) throws IOException {
+            synchronized (this) {
+                enqueueBatch();
+            }
+            try {
+                write();
+            } catch (IOException e) {
+                log.warn("Failed to write coalesced frames before closing", e);
+            }
+            super.close(status);
+        }
+
+        /**
+         * The session is gone, so are the frames not written yet. Their receipts never arrive.
+         */
+        synchronized void discard() {
+            if (lingerTask != null) lingerTask.cancel(false);
+            lingerTask = null;
+            writes.clear();
+            buffer = null;
+            size = 0;
+            frames = 0;
+            first = null;
+        }
+
+        private void linger() {
+            synchronized (this) {
+                lingerTask = null;
+                enqueueBatch();
+            }
+            try {
+                write();
+            } catch (IOException | RuntimeException e) {
+                // nobody waits on a lingering write: closing the session lets the client find out
+                log.error("Failed to write coalesced frames, closing the session", e);
+                try {
+                    getDelegate().close(CloseStatus.SERVER_ERROR);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void enqueueBatch() {
+            if (lingerTask != null) {
+                lingerTask.cancel(false);
+                lingerTask = null;
+            }
+            if (frames == 0) return;
+            if (frames == 1) {
+                writes.add(first);
+                freeBuffers.add(buffer);
+            } else {
+                writes.add(new Batch(buffer, size));
+            }
+            buffer = null;
+            size = 0;
+            frames = 0;
+            first = null;
+        }
+
+        /**
+         * Writes the queue unless another thread already is. Once the lock is released, the queue is checked
+         * again for writes queued by threads which found it taken.
+         */
+        private void write() throws IOException {
+            while (writeLock.tryLock()) {
+                try {
+                    Object next;
+                    while ((next = poll()) != null) {
+                        if (next instanceof Batch) {
+                            Batch batch = (Batch) next;
+                            try {
+                                super.sendMessage(new BinaryMessage(ByteBuffer.wrap(batch.buffer, 0, batch.size)));
+                            } finally {
+                                recycle(batch.buffer);
+                            }
+                        } else {
+                            super.sendMessage((WebSocketMessage<?>) next);
+                        }
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+                synchronized (this) {
+                    if (writes.isEmpty()) return;
+                }
+            }
+        }
+
+        private synchronized Object poll() {
+            return writes.poll();
+        }
+
+        private synchronized void recycle(byte[] buffer) {
+            freeBuffers.add(buffer);
+        }
+
+        private ByteBuffer payloadOf(WebSocketMessage<?> message) {
+            if (message instanceof TextMessage) return ByteBuffer.wrap(((TextMessage) message).asBytes());
+            if (message instanceof BinaryMessage) return ((BinaryMessage) message).getPayload().duplicate();
+            return ByteBuffer.allocate(0);
+        }
+
+        private boolean isSend(ByteBuffer payload) {
+            if (payload.remaining() <= send.length) return false;
+            int position = payload.position();
+            for (int i = 0; i < send.length; i++) {
+                if (payload.get(position + i) != send[i]) return false;
+            }
+            byte next = payload.get(position + send.length);
+            return next == '\n' || next == '\r';
+        }
+    }
+
+    /**
+     * Frames packed in a buffer, written as one binary message.
+     */
+    static class Batch {
+        final byte[] buffer;
+        final int size;
+
+        Batch(byte[] buffer, int size) {
+            this.buffer = buffer;
+            this.size = size;
+        }
+    }
+}
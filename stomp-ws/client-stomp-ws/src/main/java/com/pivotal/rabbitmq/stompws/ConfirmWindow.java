@@ -0,0 +1,111 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.time.Duration;
+
+/**
+ * Settings of the confirm window used by sender sessions. Rather than requesting a RECEIPT for every frame,
+ * a sender requests one every {@link #getReceiptEvery()} frames, or once {@link #getLinger()} has elapsed,
+ * and the RECEIPT settles all the frames sent before it, in the same fashion multiple publisher confirms do.
+ * No more than {@link #getMaxInFlight()} frames can be waiting for a receipt at any time; further sends
+ * are held back according to the {@link Overflow} policy.
+ */
+public class ConfirmWindow {
+
+    public enum Overflow {
+        /**
+         * The calling thread blocks until the window has room. Do not send from a receipt callback with this policy.
+         */
+        BLOCK,
+        /**
+         * The send is queued, in order, and written as soon as the window has room. The calling thread never blocks.
+         * No more than {@link ConfirmWindow#getMaxDeferred()} sends are queued, further sends fail right away.
+         */
+        DEFER
+    }
+
+    private final int maxInFlight;
+    private final int receiptEvery;
+    private final Duration linger;
+    private final Overflow overflow;
+    private final int maxDeferred;
+
+    ConfirmWindow(int maxInFlight, int receiptEvery, Duration linger, Overflow overflow, int maxDeferred) {
+        this.maxInFlight = maxInFlight;
+        this.receiptEvery = receiptEvery;
+        this.linger = linger;
+        this.overflow = overflow;
+        this.maxDeferred = maxDeferred;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getReceiptEvery() {
+        return receiptEvery;
+    }
+
+    public Duration getLinger() {
+        return linger;
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * @return the number of sends queued with the {@link Overflow#DEFER} policy beyond which sends fail
+     */
+    public int getMaxDeferred() {
+        return maxDeferred;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConfirmWindow{maxInFlight=%d, receiptEvery=%d, linger=%s, overflow=%s, maxDeferred=%d}",
+                maxInFlight, receiptEvery, linger, overflow, maxDeferred);
+    }
+
+    public static class Builder {
+        int maxInFlight = 1000;
+        int receiptEvery = 100;
+        Duration linger = Duration.ofMillis(5);
+        Overflow overflow = Overflow.BLOCK;
+        int maxDeferred = 10_000;
+
+        public Builder withMaxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be greater than 0");
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+        public Builder withReceiptEvery(int receiptEvery) {
+            if (receiptEvery < 1) throw new IllegalArgumentException("receiptEvery must be greater than 0");
+            this.receiptEvery = receiptEvery;
+            return this;
+        }
+        public Builder withLinger(Duration linger) {
+            if (linger.isNegative() || linger.isZero()) throw new IllegalArgumentException("linger must be positive");
+            this.linger = linger;
+            return this;
+        }
+        public Builder withOverflow(Overflow overflow) {
+            this.overflow = overflow;
+            return this;
+        }
+        /**
+         * Sends queued with the {@link Overflow#DEFER} policy, 10,000 by default.
+         */
+        public Builder withMaxDeferred(int maxDeferred) {
+            if (maxDeferred < 1) throw new IllegalArgumentException("maxDeferred must be greater than 0");
+            this.maxDeferred = maxDeferred;
+            return this;
+        }
+        public ConfirmWindow build() {
+            return new ConfirmWindow(maxInFlight, Math.min(receiptEvery, maxInFlight), linger, overflow, maxDeferred);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.pivotal.rabbitmq.stompws;
+
+/**
+ * Settings of the congestion controller in front of each sender session. The controller bounds the number of
+ * sends waiting for their receipt and adjusts the bound to the receipt round trip time, AIMD-style: it grows by
+ * one send per round trip while round trips stay within {@link #getLatencyTolerance()} times the shortest one
+ * seen, and shrinks by {@link #getBackoffRatio()} when they do not or a receipt is lost, e.g. once the broker
+ * raises a memory or disk alarm. Sends beyond the limit wait in a queue of up to {@link #getMaxQueued()} sends,
+ * further sends fail right away. Optionally, a token bucket caps the send rate to {@link #getMaxRate()}.
+ */
+public class CongestionControl {
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+    private final int maxQueued;
+    private final int maxRate;
+    private final int burst;
+
+    CongestionControl(int initialLimit, int minLimit, int maxLimit, double latencyTolerance, double backoffRatio,
+                      int maxQueued, int maxRate, int burst) {
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.backoffRatio = backoffRatio;
+        this.maxQueued = maxQueued;
+        this.maxRate = maxRate;
+        this.burst = burst;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * @return sends per second, or 0 if the rate is not capped
+     */
+    public int getMaxRate() {
+        return maxRate;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CongestionControl{initialLimit=%d, minLimit=%d, maxLimit=%d, latencyTolerance=%s, " +
+                        "backoffRatio=%s, maxQueued=%d, maxRate=%d, burst=%d}", initialLimit, minLimit, maxLimit,
+                latencyTolerance, backoffRatio, maxQueued, maxRate, burst);
+    }
+
+    public static class Builder {
+        int initialLimit = 64;
+        int minLimit = 8;
+        int maxLimit = 10_000;
+        double latencyTolerance = 2.0;
+        double backoffRatio = 0.5;
+        int maxQueued = 10_000;
+        int maxRate;
+        int burst;
+
+        public Builder withInitialLimit(int initialLimit) {
+            if (initialLimit < 1) throw new IllegalArgumentException("initialLimit must be greater than 0");
+            this.initialLimit = initialLimit;
+            return this;
+        }
+        /**
+         * Bounds of the number of sends waiting for their receipt. Equal bounds turn the adaptive limit off.
+         */
+        public Builder withLimits(int minLimit, int maxLimit) {
+            if (minLimit < 1) throw new IllegalArgumentException("minLimit must be greater than 0");
+            if (maxLimit < minLimit) throw new IllegalArgumentException("maxLimit must not be less than minLimit");
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            return this;
+        }
+        /**
+         * How many times the shortest round trip a round trip may take before the limit shrinks. Default is 2.
+         */
+        public Builder withLatencyTolerance(double latencyTolerance) {
+            if (latencyTolerance < 1) throw new IllegalArgumentException("latencyTolerance must be at least 1");
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+        /**
+         * Factor the limit is multiplied by when it shrinks. Default is 0.5.
+         */
+        public Builder withBackoffRatio(double backoffRatio) {
+            if (backoffRatio <= 0 || backoffRatio >= 1) throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+        public Builder withMaxQueued(int maxQueued) {
+            if (maxQueued < 0) throw new IllegalArgumentException("maxQueued must not be negative");
+            this.maxQueued = maxQueued;
+            return this;
+        }
+        /**
+         * Hard cap on the sends per second of each sender session. By default, the rate is not capped.
+         */
+        public Builder withMaxRate(int maxRate) {
+            if (maxRate < 1) throw new IllegalArgumentException("maxRate must be greater than 0");
+            this.maxRate = maxRate;
+            return this;
+        }
+        /**
+         * Sends allowed in a row above the max rate after an idle period. Default is a tenth of the max rate.
+         */
+        public Builder withBurst(int burst) {
+            if (burst < 1) throw new IllegalArgumentException("burst must be greater than 0");
+            this.burst = burst;
+            return this;
+        }
+        public CongestionControl build() {
+            int limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+            int bucket = maxRate == 0 ? 0 : burst > 0 ? burst : Math.max(1, maxRate / 10);
+            return new CongestionControl(limit, minLimit, maxLimit, latencyTolerance, backoffRatio, maxQueued,
+                    maxRate, bucket);
+        }
+    }
+}
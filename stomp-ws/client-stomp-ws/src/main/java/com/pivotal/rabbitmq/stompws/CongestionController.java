@@ -0,0 +1,237 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongSupplier;
+
+/**
+ * Admits the sends of a sender session according to a {@link CongestionControl}, see there for the algorithm.
+ * Sends are admitted in the order they are submitted: once one waits, the ones after it wait too. Waiting sends
+ * are admitted on the thread which settles a receipt, or on the TaskScheduler once the token bucket refills.
+ * <p>
+ * The shortest round trip is forgotten every {@link #minRttWindow}, so that the controller follows a broker
+ * which got slower for good, e.g. after a failover to a farther node.
+ */
+public class CongestionController {
+
+    static final RejectedExecutionException queueFull = new RejectedExecutionException("Too many sends waiting");
+    static final Duration minRttWindow = Duration.ofSeconds(30);
+
+    private final CongestionControl settings;
+    private final TaskScheduler taskScheduler;
+    private final LongSupplier clock;
+
+    private final Deque<Admission> queued = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long minRtt;
+    private long minRttSince;
+    private long smoothedRtt;
+    private long lastDecrease;
+    private long decreases;
+    private double tokens;
+    private long refilledAt;
+    private boolean refillScheduled;
+    private boolean draining;
+    /**
+     * Told whenever no send is left waiting, e.g. so that the sends of {@link LaneScheduler} come in.
+     */
+    Runnable drained = () -> { };
+
+    CongestionController(CongestionControl settings, TaskScheduler taskScheduler) {
+        this(settings, taskScheduler, System::nanoTime);
+    }
+
+    CongestionController(CongestionControl settings, TaskScheduler taskScheduler, LongSupplier clock) {
+        if (settings.getMaxRate() > 0 && taskScheduler == null) {
+            throw new IllegalArgumentException("A TaskScheduler is required to cap the send rate");
+        }
+        this.settings = settings;
+        this.taskScheduler = taskScheduler;
+        this.clock = clock;
+        this.limit = settings.getInitialLimit();
+        this.tokens = settings.getBurst();
+        this.refilledAt = clock.getAsLong();
+        this.minRttSince = refilledAt;
+    }
+
+    /**
+     * @return the number of sends allowed to wait for their receipt at any time
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return queued.size();
+    }
+
+    /**
+     * @return the shortest receipt round trip within the current window, or zero if none was receipted yet
+     */
+    public synchronized Duration getMinRtt() {
+        return Duration.ofNanos(minRtt);
+    }
+
+    /**
+     * @return the moving average of the receipt round trip
+     */
+    public synchronized Duration getSmoothedRtt() {
+        return Duration.ofNanos(smoothedRtt);
+    }
+
+    /**
+     * @return how many times the limit shrank
+     */
+    public synchronized long getDecreases() {
+        return decreases;
+    }
+
+    /**
+     * Runs the send once admitted, or fails it if too many sends are waiting already. The controller learns
+     * the round trip of the send from its future.
+     */
+    void send(CompletableFuture<?> sent, Runnable send) {
+        Admission admission = new Admission(sent, send);
+        synchronized (this) {
+            if (draining || !queued.isEmpty() || !admit()) {
+                if (queued.size() >= settings.getMaxQueued()) {
+                    sent.completeExceptionally(queueFull);
+                    return;
+                }
+                queued.add(admission);
+                return;
+            }
+        }
+        admission.run();
+    }
+
+    /**
+     * Admits the sends which are waiting, one at a time so that they are written in order.
+     */
+    void drain() {
+        synchronized (this) {
+            if (draining) return;
+            draining = true;
+        }
+        Admission next = null;
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (queued.isEmpty()) {
+                        draining = false;
+                        break;
+                    }
+                    if (!admit()) {
+                        draining = false;
+                        return;
+                    }
+                    next = queued.poll();
+                }
+                next.run();
+                next = null;
+            }
+        } finally {
+            if (next != null) {
+                synchronized (this) {
+                    draining = false;
+                }
+            }
+        }
+        drained.run();
+    }
+
+    /**
+     * Takes a slot and a token, if both are available. Schedules a drain for when the next token is due if
+     * the bucket is empty.
+     */
+    private boolean admit() {
+        if (inFlight >= (int) limit) return false;
+        if (settings.getMaxRate() > 0) {
+            long now = clock.getAsLong();
+            tokens = Math.min(settings.getBurst(), tokens + (now - refilledAt) * settings.getMaxRate() / 1e9);
+            refilledAt = now;
+            if (tokens < 1) {
+                scheduleRefill((long) ((1 - tokens) * 1e9 / settings.getMaxRate()));
+                return false;
+            }
+            tokens--;
+        }
+        inFlight++;
+        return true;
+    }
+
+    private void scheduleRefill(long delayNanos) {
+        if (refillScheduled) return;
+        refillScheduled = true;
+        taskScheduler.schedule(() -> {
+            synchronized (this) {
+                refillScheduled = false;
+            }
+            drain();
+        }, new Date(System.currentTimeMillis() + Math.max(1, delayNanos / 1_000_000)));
+    }
+
+    void settled(long sentAtNanos, Throwable failure) {
+        long now = clock.getAsLong();
+        synchronized (this) {
+            boolean windowUsed = inFlight >= limit / 2;
+            inFlight--;
+            if (failure != null) {
+                decrease(now);
+            } else {
+                long rtt = now - sentAtNanos;
+                smoothedRtt = smoothedRtt == 0 ? rtt : smoothedRtt + (rtt - smoothedRtt) / 8;
+                if (minRtt == 0 || rtt < minRtt || now - minRttSince > minRttWindow.toNanos()) {
+                    minRtt = rtt;
+                    minRttSince = now;
+                }
+                if (rtt > minRtt * settings.getLatencyTolerance()) decrease(now);
+                else if (windowUsed) limit = Math.min(settings.getMaxLimit(), limit + 1 / limit);
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Shrinks the limit once per round trip at most, the sends of the same round trip see the same congestion.
+     */
+    private void decrease(long now) {
+        if (decreases > 0 && now - lastDecrease < smoothedRtt) return;
+        limit = Math.max(settings.getMinLimit(), limit * settings.getBackoffRatio());
+        lastDecrease = now;
+        decreases++;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("CongestionController{limit=%d, inFlight=%d, queued=%d, minRtt=%s, smoothedRtt=%s}",
+                (int) limit, inFlight, queued.size(), getMinRtt(), getSmoothedRtt());
+    }
+
+    private class Admission {
+        final CompletableFuture<?> sent;
+        final Runnable send;
+
+        Admission(CompletableFuture<?> sent, Runnable send) {
+            this.sent = sent;
+            this.send = send;
+        }
+
+        void run() {
+            long sentAt = clock.getAsLong();
+            sent.whenComplete((ok, failure) -> settled(sentAt, failure));
+            send.run();
+        }
+    }
+}
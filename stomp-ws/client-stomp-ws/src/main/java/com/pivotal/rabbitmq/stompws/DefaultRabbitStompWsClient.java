@@ -5,40 +5,94 @@ import org.slf4j.LoggerFactory;
 import org.springframework.messaging.simp.stomp.StompFrameHandler;
 import org.springframework.messaging.simp.stomp.StompHeaders;
 import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.scheduling.TaskScheduler;
 
 import java.lang.reflect.Type;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
-import java.util.function.Supplier;
 
 public class DefaultRabbitStompWsClient implements RabbitStompWsClient {
 
     private String name;
-    private Supplier<CompletionStage<StompSession>> senderSession;
-    private SubscriptionManager subscriptionManager;
-    private AtomicBoolean startSubscriptionManager = new AtomicBoolean();
+    private SenderSessionPool senders;
+    private List<SubscriptionManager> subscriptionManagers;
+    private TaskScheduler taskScheduler;
+    private ClientMetrics metrics;
+    RequestReply requests;
 
-    DefaultRabbitStompWsClient(String name, Supplier<CompletionStage<StompSession>> senderSession,
-                               Supplier<CompletionStage<StompSession>> subscriberSession) {
+    DefaultRabbitStompWsClient(String name, SenderSessionPool senders,
+                               SessionSupplier subscriberSession,
+                               TaskScheduler taskScheduler, Backoff reconnectBackoff) {
+        this(name, senders, subscriberSession, taskScheduler, reconnectBackoff, ClientMetrics.NONE);
+    }
+
+    DefaultRabbitStompWsClient(String name, SenderSessionPool senders,
+                               SessionSupplier subscriberSession,
+                               TaskScheduler taskScheduler, Backoff reconnectBackoff, ClientMetrics metrics) {
+        this(name, senders, Collections.singletonList(subscriberSession), taskScheduler, reconnectBackoff, metrics);
+    }
+
+    DefaultRabbitStompWsClient(String name, SenderSessionPool senders,
+                               List<? extends SessionSupplier> subscriberSessions,
+                               TaskScheduler taskScheduler, Backoff reconnectBackoff, ClientMetrics metrics) {
+        this(name, senders, subscriberSessions, taskScheduler, taskScheduler, reconnectBackoff, metrics);
+    }
+
+    /**
+     * @param subscriberSessions shards subscriptions are spread across by destination hash, each one with its
+     *                           own {@link SubscriptionManager}
+     * @param managementScheduler runs the subscription managers, shared with the other clients of the provider
+     */
+    DefaultRabbitStompWsClient(String name, SenderSessionPool senders,
+                               List<? extends SessionSupplier> subscriberSessions,
+                               TaskScheduler taskScheduler, TaskScheduler managementScheduler,
+                               Backoff reconnectBackoff, ClientMetrics metrics) {
         this.name = name;
-        this.senderSession = senderSession;
-        this.subscriptionManager = new SubscriptionManager(name, Executors.newSingleThreadExecutor(),
-                subscriberSession);
+        this.senders = senders;
+        this.taskScheduler = taskScheduler;
+        this.metrics = metrics;
+        this.subscriptionManagers = new ArrayList<>(subscriberSessions.size());
+        for (int i = 0; i < subscriberSessions.size(); i++) {
+            subscriptionManagers.add(new SubscriptionManager(subscriberSessions.size() == 1 ? name : name + "." + i,
+                    new SerialExecutor(managementScheduler), subscriberSessions.get(i), reconnectBackoff));
+        }
     }
 
+    /**
+     * Releases everything the client holds: sessions are disconnected, requests waiting for their reply fail
+     * and the client's meters are removed. A stopped client cannot be restarted.
+     */
     @Override
     public void stop() {
-        subscriptionManager.stop();
+        if (requests != null) requests.stop();
+        subscriptionManagers.forEach(SubscriptionManager::stop);
+        senders.stop();
+        metrics.close();
+    }
+
+    /**
+     * @return the congestion controller of each sender session, empty without {@link CongestionControl}
+     */
+    public List<CongestionController> congestionControllers() {
+        List<CongestionController> controllers = new ArrayList<>();
+        for (SenderSessionPool.Sender sender : senders.senders()) {
+            if (sender.congestion() != null) controllers.add(sender.congestion());
+        }
+        return controllers;
     }
 
     @Override
     public CompletionStage<?> whenReady() {
-        return senderSession.get();
+        return senders.whenReady();
     }
 
     @Override
@@ -49,130 +103,354 @@ public class DefaultRabbitStompWsClient implements RabbitStompWsClient {
     }
     @Override
     public <T> CompletionStage<?> send(StompHeaders headers, T payload) {
-        CompletableFuture<Boolean> sent = new CompletableFuture<>();
-        senderSession.get().whenComplete((stompSession, throwable) -> {
-            if (throwable != null) { sent.completeExceptionally(throwable); return;}
-            try {
-                StompSession.Receiptable receipt = stompSession.send(headers, payload);
-                receipt.addReceiptLostTask(()->sent.completeExceptionally(undelivered));
-                receipt.addReceiptTask(()->sent.complete(true));
-            }catch(Throwable e) {
-                sent.completeExceptionally(e);
-            }
-        });
-        return sent;
+        return senders.select(headers.getDestination()).send(headers, payload);
+    }
+    @Override
+    public <T> CompletionStage<?> send(String destination, T payload, SendPriority priority) {
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination(destination);
+        return senders.select(destination).send(headers, payload, priority);
+    }
+
+    @Override
+    public <T> CompletionStage<T> request(String destination, Object payload, Class<T> replyType,
+                                          Duration timeout) {
+        if (requests == null) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("Requests are not supported by this client"));
+            return failed;
+        }
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination(destination);
+        return requests.request(senders.select(destination), headers, payload, replyType, timeout,
+                metrics.destination(destination));
+    }
+
+    @Override
+    public Destination destination(String destination) {
+        return new DestinationHandle(destination, senders.select(destination), metrics.destination(destination));
     }
 
     @Override
     public <T> CompletionStage<RabbitStompWsClient.Subscription> subscribe(String destination, Class<T> type, BiConsumer<StompHeaders,T> consumer) {
+        return subscribe(destination, type, SubscriptionOptions.autoAck(), consumer);
+    }
+
+    @Override
+    public <T> CompletionStage<RabbitStompWsClient.Subscription> subscribe(String destination, Class<T> type,
+                                                                    SubscriptionOptions options,
+                                                                    BiConsumer<StompHeaders, T> consumer) {
         StompHeaders headers = new StompHeaders();
         headers.setDestination(destination);
-        return subscribe(headers, type, consumer);
+        return subscribe(headers, type, options, consumer);
     }
 
     public <T> CompletionStage<RabbitStompWsClient.Subscription> subscribe(StompHeaders headers, Class<T> type,
                                                                     BiConsumer<StompHeaders,T> consumer) {
-        if (startSubscriptionManager.compareAndSet(false, true)) {
-            subscriptionManager.start();
-        }
-        return subscriptionManager.addSubscription(headers, type, consumer);
+        return subscribe(headers, type, SubscriptionOptions.autoAck(), consumer);
+    }
+
+    public <T> CompletionStage<RabbitStompWsClient.Subscription> subscribe(StompHeaders headers, Class<T> type,
+                                                                    SubscriptionOptions options,
+                                                                    BiConsumer<StompHeaders,T> consumer) {
+        return subscribe(headers, type, options, (h, payload, acknowledgement) -> {
+            try {
+                consumer.accept(h, payload);
+            } catch (RuntimeException e) {
+                acknowledgement.nack();
+                throw e;
+            }
+            acknowledgement.ack();
+        });
     }
 
-    Exception undelivered = new Exception("Undelivered");
+    /**
+     * Subscribes a consumer which acknowledges the messages itself, possibly after it has returned.
+     */
+    <T> CompletionStage<RabbitStompWsClient.Subscription> subscribe(StompHeaders headers, Class<T> type,
+                                                             SubscriptionOptions options,
+                                                             AcknowledgingConsumer<T> consumer) {
+        SubscriptionManager subscriptionManager = subscriptionManagerFor(headers.getDestination());
+        subscriptionManager.start();
+        return subscriptionManager.addSubscription(headers, type, options, consumer);
+    }
 
-    class SubscriptionManager implements Runnable {
+    /**
+     * Subscriptions to the same destination share a shard, hence a fan-out, see
+     * {@link SubscriptionManager#share}, only serves subscriptions of its own shard.
+     */
+    private SubscriptionManager subscriptionManagerFor(String destination) {
+        if (subscriptionManagers.size() == 1 || destination == null) return subscriptionManagers.get(0);
+        return subscriptionManagers.get(Math.floorMod(destination.hashCode(), subscriptionManagers.size()));
+    }
+
+    interface AcknowledgingConsumer<T> {
+        void accept(StompHeaders headers, T payload, Acknowledgement acknowledgement);
+    }
+
+    /**
+     * ACKs or NACKs one message. Both do nothing on an auto-ack subscription.
+     */
+    interface Acknowledgement {
+        void ack();
+        void nack();
+    }
+
+    /**
+     * Keeps the subscriptions of a shard live on its subscriber session. It reacts to the session being established or
+     * lost: subscriptions are (re)subscribed as soon as a session is connected and a lost session is
+     * reconnected following the {@link Backoff}. All the state changes run one at a time on a
+     * {@link SerialExecutor} hence there is no need for further synchronization.
+     * <p>
+     * Shared subscriptions, see {@link SubscriptionOptions#isShared()}, join a {@link FanOutSubscriber} of the
+     * same binding, i.e. same payload type and headers other than the destination, whose destination is
+     * theirs or whose topic pattern covers theirs. Only fan-outs are subscribed on the session.
+     */
+    class SubscriptionManager implements SessionSupplier.Listener {
         private Logger logger;
-        private ExecutorService executorService;
-        private Supplier<CompletionStage<StompSession>> sessionSupplier;
-        private BlockingQueue<StompSubscriber<?>> subscriptionRequest = new LinkedBlockingDeque<>();
-        private List<StompSubscriber<?>> subscribers = Collections.synchronizedList(new ArrayList<>());
+        private SerialExecutor executor;
+        private SessionSupplier sessionSupplier;
+        private Backoff backoff;
+        private List<StompSubscriber<?>> subscribers = new CopyOnWriteArrayList<>();
+        private final Map<String, List<FanOutSubscriber<?>>> fanOuts = new HashMap<>();
         private AtomicBoolean shouldRun = new AtomicBoolean();
+        private AtomicBoolean started = new AtomicBoolean();
+        private volatile StompSession current;
+        private int attempts;
+        private ScheduledFuture<?> reconnect;
 
-        public SubscriptionManager(String name, ExecutorService executorService, Supplier<CompletionStage<StompSession>> sessionSupplier) {
-            this.executorService = executorService;
+        public SubscriptionManager(String name, SerialExecutor executor,
+                                   SessionSupplier sessionSupplier, Backoff backoff) {
+            this.executor = executor;
             this.sessionSupplier = sessionSupplier;
+            this.backoff = backoff;
             logger = LoggerFactory.getLogger(SubscriptionManager.class.getName()+"."+name);
+            sessionSupplier.addListener(this);
         }
 
         private Exception failToAddSubscription = new Exception("Failed to add subscription");
 
         public <T> CompletionStage<RabbitStompWsClient.Subscription> addSubscription(StompHeaders headers, Class<T> type,
-                                                                 BiConsumer<StompHeaders, T> consumer) {
-            StompSubscriber<T> subscription = new StompSubscriber<>(headers, type, consumer);
+                                                                 SubscriptionOptions options,
+                                                                 AcknowledgingConsumer<T> consumer) {
+            StompSubscriber<T> subscription = new StompSubscriber<>(headers, type, options, consumer, logger);
+            subscription.subscriptionManager = this;
+            if (options.isShared() && isShareable(headers, options)) return share(subscription);
+            return add(subscription);
+        }
+
+        private <T> CompletionStage<RabbitStompWsClient.Subscription> add(StompSubscriber<T> subscription) {
             logger.info("Adding subscription {}", subscription);
-            if (!subscriptionRequest.add(subscription)) {
+            subscription.subscriptionManager = this;
+            subscribers.add(subscription);
+            if (!execute(() -> {
+                StompSession session = current;
+                if (session != null && session.isConnected()) {
+                    logger.info("Subscribing {}", subscription);
+                    subscription.subscribe(session);
+                } else {
+                    connect();
+                }
+            })) {
+                subscribers.remove(subscription);
                 subscription.completionStage().completeExceptionally(failToAddSubscription);
             }
             return subscription.completionStage();
         }
 
-        private AtomicReference<Future<?>> subscriber = new AtomicReference<>();
+        void remove(StompSubscriber<?> subscriber) {
+            subscribers.remove(subscriber);
+        }
+
+        /**
+         * Every subscription to a topic or an exchange gets every message, unlike subscriptions to a queue.
+         * Named and durable subscriptions are left alone, they may compete for the same queue.
+         */
+        private boolean isShareable(StompHeaders headers, SubscriptionOptions options) {
+            String destination = headers.getDestination();
+            return options.getAckMode() == AckMode.AUTO && destination != null
+                    && destination.startsWith(FanOutSubscriber.topic)
+                    && !headers.containsKey("x-queue-name")
+                    && !"true".equals(headers.getFirst("durable"))
+                    && !"true".equals(headers.getFirst("persistent"));
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> CompletionStage<RabbitStompWsClient.Subscription> share(StompSubscriber<T> member) {
+            String binding = bindingOf(member);
+            String destination = member.headers.getDestination();
+            FanOutSubscriber<T> fanOut = null;
+            boolean created = false;
+            synchronized (fanOuts) {
+                List<FanOutSubscriber<?>> candidates = fanOuts.computeIfAbsent(binding, b -> new ArrayList<>());
+                for (FanOutSubscriber<?> candidate : candidates) {
+                    if (candidate.accepts(destination)) {
+                        fanOut = (FanOutSubscriber<T>) candidate;
+                        if (candidate.isFor(destination)) break;
+                    }
+                }
+                if (fanOut == null) {
+                    StompHeaders headers = new StompHeaders();
+                    headers.putAll(member.headers);
+                    fanOut = new FanOutSubscriber<>(binding, headers, member.type, logger);
+                    candidates.add(fanOut);
+                    created = true;
+                }
+                fanOut.join(member);
+            }
+            logger.info("Sharing subscription {} through {}", member, fanOut);
+            if (created) add(fanOut);
+            return member.completionStage();
+        }
 
+        private String bindingOf(StompSubscriber<?> subscriber) {
+            Map<String, List<String>> headers = new TreeMap<>(subscriber.headers);
+            headers.remove(StompHeaders.DESTINATION);
+            headers.remove(StompHeaders.ID);
+            return subscriber.type.getName() + headers;
+        }
+
+        void leave(FanOutSubscriber<?> fanOut, StompSubscriber<?> member) {
+            boolean empty;
+            synchronized (fanOuts) {
+                empty = fanOut.leave(member);
+                if (empty) {
+                    List<FanOutSubscriber<?>> candidates = fanOuts.get(fanOut.binding);
+                    candidates.remove(fanOut);
+                    if (candidates.isEmpty()) fanOuts.remove(fanOut.binding);
+                }
+            }
+            if (empty) {
+                logger.info("Last subscription through {} cancelled", fanOut);
+                fanOut.cancel();
+            }
+        }
+
+        /**
+         * Connects the first time it is called, a manager which was stopped stays stopped.
+         */
         void start() {
-            if (shouldRun.compareAndSet(false, true)) {
-                subscriber.getAndUpdate(future -> {
-                    if (future != null) return future;
-                    else return executorService.submit(this);
-                });
+            if (started.compareAndSet(false, true) && shouldRun.compareAndSet(false, true)) {
+                execute(this::connect);
             }
         }
+
+        /**
+         * Closes the session and releases the executor, whether the manager was started or not.
+         */
         void stop() {
-            if (shouldRun.compareAndSet(true, false)) {
-                subscriber.getAndUpdate(future -> {
-                    if (future != null) future.cancel(true);
-                    return null;
-                });
-                if (current != null) current.disconnect();
-            }
+            started.set(true);
+            if (shouldRun.compareAndSet(true, false)) subscribers.forEach(StompSubscriber::stopDispatching);
+            execute(() -> {
+                if (reconnect != null) reconnect.cancel(false);
+                current = null;
+                sessionSupplier.close();
+            });
+            executor.shutdown();
         }
-        private StompSession current;
 
         @Override
-        public void run() {
-            while(shouldRun.get()) {
-                try {
-                    StompSubscriber<?> subscriber = subscriptionRequest.poll(1, TimeUnit.SECONDS);
-                    if (subscriber != null) subscribers.add(subscriber);
-
-                    sessionSupplier.get().thenAccept(stompSession -> {
-                        if (current == null || !current.isConnected()) {
-                            logger.info("(Re)Subscribing {} subscriptions: {}", subscribers.size(), subscribers);
-                            subscribers.forEach(stompSubscriber -> stompSubscriber.subscribe(stompSession));
-                        }else if (subscriber != null) {
-                            logger.info("Subscribing {}", subscriber);
-                            subscriber.subscribe(stompSession);
-                        }
-                        current = stompSession;
-                    }).exceptionally(throwable -> {
-                        current = null;
-                        return null;
-                    });
-                    subscribers.removeIf(StompSubscriber::isCancelled);
+        public void connected(StompSession session) {
+            execute(() -> resubscribe(session));
+        }
 
-                } catch (InterruptedException e) {
+        @Override
+        public void lost(Throwable cause) {
+            execute(() -> {
+                current = null;
+                scheduleReconnect();
+            });
+        }
 
-                }
+        private boolean execute(Runnable task) {
+            try {
+                executor.execute(task);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
             }
         }
 
+        private void connect() {
+            if (!shouldRun.get() || current != null || (reconnect != null && !reconnect.isDone())) return;
+            reconnect = null;
+            sessionSupplier.get().whenComplete((session, throwable) -> {
+                if (throwable == null) connected(session);
+                else execute(this::scheduleReconnect);
+            });
+        }
+
+        private void scheduleReconnect() {
+            if (!shouldRun.get() || current != null || (reconnect != null && !reconnect.isDone())) return;
+            long delay = backoff.delayMillis(attempts++);
+            metrics.reconnecting();
+            logger.info("Reconnecting in {} ms (attempt {})", delay, attempts);
+            reconnect = executor.schedule(() -> {
+                reconnect = null;
+                connect();
+            }, delay);
+        }
+
+        private void resubscribe(StompSession session) {
+            if (!shouldRun.get() || session == current || !session.isConnected()) return;
+            current = session;
+            attempts = 0;
+            subscribers.removeIf(StompSubscriber::isCancelled);
+            logger.info("(Re)Subscribing {} subscriptions: {}", subscribers.size(), subscribers);
+            subscribers.forEach(stompSubscriber -> stompSubscriber.subscribe(session));
+        }
+
     }
     interface Subscription {
         void cancel();
     }
 
-    class StompSubscriber<T> implements StompFrameHandler, RabbitStompWsClient.Subscription {
+    private static final Acknowledgement autoAcknowledgement = new Acknowledgement() {
+        @Override
+        public void ack() {
+        }
+
+        @Override
+        public void nack() {
+        }
+    };
+
+    class StompSubscriber<T> implements RabbitStompWsClient.Subscription {
 
         private StompHeaders headers;
         private Class<T> type;
-        private BiConsumer<StompHeaders,T> consumer;
+        private AcknowledgingConsumer<T> consumer;
+        private MessageAcknowledger acknowledger;
+        private StreamTracker stream;
+        private DispatchMetrics dispatchMetrics = new DispatchMetrics();
+        private ClientMetrics.DestinationMeters meters;
+        private Dispatcher dispatcher;
         private AtomicReference<StompSession.Subscription> stompSubscription = new AtomicReference<>();
+        private FanOutSubscriber<T> fanOut;
+        private SubscriptionManager subscriptionManager;
+        private StompSession subscribedOn;
         private CompletableFuture<RabbitStompWsClient.Subscription> completableFuture;
 
-        public StompSubscriber(StompHeaders headers, Class<T> type, BiConsumer<StompHeaders, T> consumer) {
-            assert headers != null && type != null && consumer != null;
-            this.headers = headers;
+        public StompSubscriber(StompHeaders headers, Class<T> type, SubscriptionOptions options,
+                               AcknowledgingConsumer<T> consumer, Logger logger) {
+            assert headers != null && type != null && options != null && consumer != null;
+            // the ack mode and the prefetch go on a copy, callers may subscribe several times with the same headers
+            this.headers = new StompHeaders();
+            this.headers.putAll(headers);
             this.type = type;
             this.consumer = consumer;
+            if (options.getAckMode() != AckMode.AUTO) {
+                this.headers.setAck(options.getAckMode().header());
+                acknowledger = new MessageAcknowledger(logger, options, taskScheduler);
+            }
+            if (options.getPrefetch() > 0) {
+                this.headers.set("prefetch-count", String.valueOf(options.getPrefetch()));
+            }
+            if (options.getStream() != null) {
+                stream = new StreamTracker(logger, options.getStream(), taskScheduler);
+            }
+            dispatcher = Dispatcher.of(headers.getDestination(), options.getDispatchPolicy(), dispatchMetrics, logger);
+            meters = metrics.destination(headers.getDestination());
             completableFuture = new CompletableFuture<>();
         }
         @Override
@@ -184,7 +462,14 @@ public class DefaultRabbitStompWsClient implements RabbitStompWsClient {
         }
 
         void subscribe(StompSession stompSession) {
+            // both resubscribe and addSubscription may find the same newly connected session
+            if (stompSession == subscribedOn && stompSubscription.get() != null) return;
             try {
+                subscribedOn = stompSession;
+                StompHeaders subscribeHeaders = new StompHeaders();
+                subscribeHeaders.putAll(headers);
+                // a stream is resumed where it was left, rather than from the start of the consumption
+                if (stream != null) subscribeHeaders.set(StreamTracker.offsetHeader, stream.resumeFrom());
                 stompSubscription.getAndUpdate(subscription -> {
                     if (subscription != null) {
                         try {
@@ -192,7 +477,7 @@ public class DefaultRabbitStompWsClient implements RabbitStompWsClient {
                         }catch(Throwable t) { // ignore
                         }
                     }
-                    return stompSession.subscribe(headers, this);
+                    return stompSession.subscribe(subscribeHeaders, new FrameHandler(stompSession));
                 });
                 completableFuture.complete(this);
             }catch(Throwable t) {
@@ -201,14 +486,81 @@ public class DefaultRabbitStompWsClient implements RabbitStompWsClient {
             }
         }
 
-        @Override
-        public Type getPayloadType(StompHeaders headers) {
-            return type;
+        void handleFrame(StompSession session, StompHeaders headers, Object payload) {
+            meters.delivered();
+            if (acknowledger != null) acknowledger.received(session, headers);
+            dispatcher.dispatch(() -> consume(session, headers, payload), () -> {
+                if (acknowledger != null) acknowledger.nack(session, headers);
+            });
+        }
+
+        private void consume(StompSession session, StompHeaders headers, Object payload) {
+            long start = System.nanoTime();
+            try {
+                consumer.accept(headers, type.cast(payload), acknowledger == null ? autoAcknowledgement
+                        : new SessionAcknowledgement(session, headers));
+            } finally {
+                meters.handled(System.nanoTime() - start);
+            }
+        }
+
+        class SessionAcknowledgement implements Acknowledgement {
+            private final StompSession session;
+            private final StompHeaders headers;
+
+            SessionAcknowledgement(StompSession session, StompHeaders headers) {
+                this.session = session;
+                this.headers = headers;
+            }
+
+            @Override
+            public void ack() {
+                if (stream != null) stream.acknowledged(headers);
+                acknowledger.ack(session, headers);
+            }
+
+            @Override
+            public void nack() {
+                acknowledger.nack(session, headers);
+            }
         }
 
         @Override
-        public void handleFrame(StompHeaders headers, Object payload) {
-            consumer.accept(headers, type.cast(payload));
+        public DispatchMetrics dispatchMetrics() {
+            return dispatchMetrics;
+        }
+
+        /**
+         * @return the tracker of the stream offset, or null if the subscription is not to a stream
+         */
+        StreamTracker stream() {
+            return stream;
+        }
+
+        void stopDispatching() {
+            dispatcher.stop();
+            if (stream != null) stream.stop();
+        }
+
+        /**
+         * Binds the frames to the session they are delivered on, ACK ids are only valid on that session.
+         */
+        class FrameHandler implements StompFrameHandler {
+            private final StompSession session;
+
+            FrameHandler(StompSession session) {
+                this.session = session;
+            }
+
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return type;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                StompSubscriber.this.handleFrame(session, headers, payload);
+            }
         }
 
         private AtomicBoolean cancelled = new AtomicBoolean();
@@ -216,6 +568,11 @@ public class DefaultRabbitStompWsClient implements RabbitStompWsClient {
         @Override
         public void cancel() {
             if (cancelled.compareAndSet(false, true)) {
+                if (acknowledger != null) acknowledger.flush();
+                if (stream != null) stream.stop();
+                if (fanOut != null) subscriptionManager.leave(fanOut, this);
+                subscriptionManager.remove(this);
+                dispatcher.stop();
                 stompSubscription.getAndUpdate(subscription -> {
                     if (subscription == null) return null;
                     subscription.unsubscribe();
@@ -228,4 +585,81 @@ public class DefaultRabbitStompWsClient implements RabbitStompWsClient {
         }
 
     }
+
+    /**
+     * Single broker subscription for the local subscriptions which share it. A message goes to every local
+     * subscription whose topic pattern matches its own, through a {@link TopicTrie}, and each local
+     * subscription dispatches it on its own. Local subscriptions get the same payload instance and a read-only
+     * view of the headers.
+     * <p>
+     * The broker subscription is to the destination of the first local subscription, and is cancelled with
+     * the last one. Subscriptions whose pattern it covers join it rather than subscribe on the broker, and keep
+     * it alive.
+     */
+    class FanOutSubscriber<T> extends StompSubscriber<T> {
+        static final String topic = "/topic/";
+
+        private final String binding;
+        private final String destination;
+        private final List<StompSubscriber<T>> members = new CopyOnWriteArrayList<>();
+        private final TopicTrie<StompSubscriber<T>> patterns;
+
+        FanOutSubscriber(String binding, StompHeaders headers, Class<T> type, Logger logger) {
+            super(headers, type, SubscriptionOptions.autoAck(), (h, payload, acknowledgement) -> {}, logger);
+            this.binding = binding;
+            this.destination = headers.getDestination();
+            this.patterns = new TopicTrie<>();
+        }
+
+        boolean isFor(String destination) {
+            return this.destination.equals(destination);
+        }
+
+        boolean accepts(String destination) {
+            if (isFor(destination)) return true;
+            return destination.startsWith(topic) && TopicTrie.covers(pattern(this.destination), pattern(destination));
+        }
+
+        void join(StompSubscriber<T> member) {
+            member.fanOut = this;
+            members.add(member);
+            if (patterns != null) patterns.add(pattern(member.headers.getDestination()), member);
+            completionStage().whenComplete((subscription, throwable) -> {
+                if (throwable == null) member.completionStage().complete(member);
+                else member.completionStage().completeExceptionally(throwable);
+            });
+        }
+
+        /**
+         * @return whether no local subscription is left
+         */
+        @SuppressWarnings("unchecked")
+        boolean leave(StompSubscriber<?> member) {
+            members.remove(member);
+            if (patterns != null) patterns.remove(pattern(member.headers.getDestination()), (StompSubscriber<T>) member);
+            return members.isEmpty();
+        }
+
+        @Override
+        void handleFrame(StompSession session, StompHeaders headers, Object payload) {
+            // every member sees the same headers, none of them may change them for the others
+            StompHeaders shared = StompHeaders.readOnlyStompHeaders(headers);
+            String messageDestination = shared.getDestination();
+            if (messageDestination == null || !messageDestination.startsWith(topic)) {
+                for (StompSubscriber<T> member : members) member.handleFrame(session, shared, payload);
+                return;
+            }
+            patterns.match(pattern(messageDestination), member -> member.handleFrame(session, shared, payload));
+        }
+
+        @Override
+        void stopDispatching() {
+            super.stopDispatching();
+            members.forEach(StompSubscriber::stopDispatching);
+        }
+
+        private String pattern(String destination) {
+            return destination.substring(topic.length());
+        }
+    }
 }
@@ -0,0 +1,74 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.messaging.simp.stomp.StompHeaders;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * {@link RabbitStompWsClient.Destination} bound to the sender session and meters of its destination. The
+ * headers are built once and handed to every send, the sender sets receipts on a copy of its own. Callback
+ * sends reuse the receipt tasks of the last callback, so that sending with the same callback
+ * allocates neither a future nor a task per message.
+ */
+class DestinationHandle implements RabbitStompWsClient.Destination {
+
+    private final String name;
+    private final SenderSessionPool.Sender sender;
+    private final ClientMetrics.DestinationMeters meters;
+    private final StompHeaders template;
+    private volatile Callback last;
+
+    DestinationHandle(String name, SenderSessionPool.Sender sender, ClientMetrics.DestinationMeters meters) {
+        this.name = name;
+        this.sender = sender;
+        this.meters = meters;
+        this.template = new StompHeaders();
+        template.setDestination(name);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public <T> CompletionStage<?> send(T payload) {
+        return sender.send(template, payload);
+    }
+
+    @Override
+    public <T> void send(T payload, RabbitStompWsClient.SendCallback callback) {
+        if (sender.sendsWithFuture()) {
+            sender.send(template, payload).whenComplete((ok, failure) -> callback.settled(failure));
+            return;
+        }
+        sender.send(template, payload, meters, settlement(callback));
+    }
+
+    @Override
+    public <T> void sendAndForget(T payload) {
+        if (sender.sendsWithFuture()) {
+            sender.send(template, payload);
+            return;
+        }
+        sender.send(template, payload, meters, null);
+    }
+
+    private SenderSessionPool.Settlement settlement(RabbitStompWsClient.SendCallback callback) {
+        Callback cached = last;
+        if (cached != null && cached.callback == callback) return cached.settlement;
+        cached = new Callback(callback, sender.settlement(meters, callback));
+        last = cached;
+        return cached.settlement;
+    }
+
+    private static class Callback {
+        final RabbitStompWsClient.SendCallback callback;
+        final SenderSessionPool.Settlement settlement;
+
+        Callback(RabbitStompWsClient.SendCallback callback, SenderSessionPool.Settlement settlement) {
+            this.callback = callback;
+            this.settlement = settlement;
+        }
+    }
+}
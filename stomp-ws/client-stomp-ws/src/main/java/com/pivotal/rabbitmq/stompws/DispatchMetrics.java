@@ -0,0 +1,64 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters of a subscription's dispatching: how many messages are waiting for the consumer, how many were
+ * consumed or dropped, and how long the consumer took.
+ */
+public class DispatchMetrics {
+
+    private final LongAdder consumed = new LongAdder();
+    private final LongAdder consumeNanos = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile IntSupplier queueDepth = () -> 0;
+
+    void queueDepth(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    void consumed(long nanos, boolean succeeded) {
+        consumed.increment();
+        consumeNanos.add(nanos);
+        if (!succeeded) failed.increment();
+    }
+
+    void dropped() {
+        dropped.increment();
+    }
+
+    /**
+     * @return messages waiting for the consumer
+     */
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    public long getConsumed() {
+        return consumed.sum();
+    }
+
+    /**
+     * @return messages for which the consumer threw an exception
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getTotalConsumeTime(TimeUnit unit) {
+        return unit.convert(consumeNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DispatchMetrics{queueDepth=%d, consumed=%d, failed=%d, dropped=%d}",
+                getQueueDepth(), getConsumed(), getFailed(), getDropped());
+    }
+}
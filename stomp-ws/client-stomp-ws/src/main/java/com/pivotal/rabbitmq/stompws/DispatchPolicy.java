@@ -0,0 +1,110 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decides which thread runs a subscription's consumer. By default, consumers run {@link #inline()} on the
+ * WebSocket transport thread, which means that a slow consumer holds up every other subscription and the
+ * heartbeats of the session.
+ * <p>
+ * Policies that hand messages over to other threads bound the number of messages waiting for the consumer
+ * and apply an {@link Overflow} behaviour once that bound is reached.
+ */
+public class DispatchPolicy {
+
+    public enum Overflow {
+        /**
+         * Block the transport thread until there is room, which eventually pushes back on the broker.
+         */
+        BLOCK,
+        /**
+         * Drop the message that has just arrived. In client-individual ack mode the message is NACKed.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest message waiting for the consumer. In client-individual ack mode the message is NACKed.
+         */
+        DROP_OLDEST
+    }
+
+    enum Kind { INLINE, DEDICATED_THREAD, SHARED_EXECUTOR, THREAD_PER_MESSAGE }
+
+    private final Kind kind;
+    private final int capacity;
+    private final Overflow overflow;
+    private final Executor executor;
+    private final ThreadFactory threadFactory;
+
+    private DispatchPolicy(Kind kind, int capacity, Overflow overflow, Executor executor, ThreadFactory threadFactory) {
+        if (kind != Kind.INLINE && capacity < 1) throw new IllegalArgumentException("capacity must be greater than 0");
+        this.kind = kind;
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.executor = executor;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * The consumer runs on the transport thread. This is the default.
+     */
+    public static DispatchPolicy inline() {
+        return new DispatchPolicy(Kind.INLINE, 0, Overflow.BLOCK, null, null);
+    }
+
+    /**
+     * Messages are queued, up to {@code capacity}, and the consumer runs on a thread dedicated to the subscription.
+     */
+    public static DispatchPolicy dedicatedThread(int capacity, Overflow overflow) {
+        return new DispatchPolicy(Kind.DEDICATED_THREAD, capacity, overflow, null, null);
+    }
+
+    /**
+     * Messages are queued, up to {@code capacity}, and the consumer runs on a shared executor. A subscription
+     * never runs on more than one of the executor's threads at a time so messages are consumed in order.
+     */
+    public static DispatchPolicy sharedExecutor(Executor executor, int capacity, Overflow overflow) {
+        if (executor == null) throw new IllegalArgumentException("executor is required");
+        return new DispatchPolicy(Kind.SHARED_EXECUTOR, capacity, overflow, executor, null);
+    }
+
+    /**
+     * Each message is consumed on a new thread, with up to {@code maxConcurrent} messages being consumed at the
+     * same time. Messages are not consumed in order. On Java 21 or later, pass {@code Thread.ofVirtual().factory()}
+     * to consume each message on its own virtual thread.
+     */
+    public static DispatchPolicy threadPerMessage(ThreadFactory threadFactory, int maxConcurrent, Overflow overflow) {
+        if (threadFactory == null) throw new IllegalArgumentException("threadFactory is required");
+        return new DispatchPolicy(Kind.THREAD_PER_MESSAGE, maxConcurrent, overflow, null, threadFactory);
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    boolean isOrdered() {
+        return kind != Kind.THREAD_PER_MESSAGE;
+    }
+
+    @Override
+    public String toString() {
+        return kind == Kind.INLINE ? "DispatchPolicy{inline}"
+                : String.format("DispatchPolicy{%s, capacity=%d, overflow=%s}", kind, capacity, overflow);
+    }
+}
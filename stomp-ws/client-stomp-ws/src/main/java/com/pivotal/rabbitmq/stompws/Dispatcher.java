@@ -0,0 +1,311 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.slf4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs a subscription's consumer according to its {@link DispatchPolicy}.
+ */
+abstract class Dispatcher {
+
+    protected final DispatchMetrics metrics;
+    protected final Logger log;
+
+    Dispatcher(DispatchMetrics metrics, Logger log) {
+        this.metrics = metrics;
+        this.log = log;
+    }
+
+    static Dispatcher of(String name, DispatchPolicy policy, DispatchMetrics metrics, Logger log) {
+        switch (policy.getKind()) {
+            case DEDICATED_THREAD:
+                return new DedicatedThread(name, policy, metrics, log);
+            case SHARED_EXECUTOR:
+                return new SharedExecutor(policy, metrics, log);
+            case THREAD_PER_MESSAGE:
+                return new ThreadPerMessage(policy, metrics, log);
+            default:
+                return new Inline(metrics, log);
+        }
+    }
+
+    /**
+     * @param consume runs the consumer
+     * @param drop called instead of consume when the message is dropped
+     */
+    abstract void dispatch(Runnable consume, Runnable drop);
+
+    void stop() {
+    }
+
+    protected void consume(Runnable consume) {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            consume.run();
+            succeeded = true;
+        } catch (Throwable t) {
+            log.error("Consumer failed", t);
+        } finally {
+            metrics.consumed(System.nanoTime() - start, succeeded);
+        }
+    }
+
+    protected void drop(Runnable drop) {
+        metrics.dropped();
+        try {
+            drop.run();
+        } catch (Throwable t) {
+            log.warn("Failed to drop message", t);
+        }
+    }
+
+    static class Inline extends Dispatcher {
+        Inline(DispatchMetrics metrics, Logger log) {
+            super(metrics, log);
+        }
+
+        @Override
+        void dispatch(Runnable consume, Runnable drop) {
+            long start = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                consume.run();
+                succeeded = true;
+            } finally {
+                metrics.consumed(System.nanoTime() - start, succeeded);
+            }
+        }
+    }
+
+    /**
+     * Bounded queue of messages waiting for the consumer, drained by subclasses.
+     */
+    abstract static class Queued extends Dispatcher {
+        private final int capacity;
+        private final DispatchPolicy.Overflow overflow;
+        private final Deque<Task> queue = new ArrayDeque<>();
+        protected final ReentrantLock lock = new ReentrantLock();
+        protected final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        protected volatile boolean stopped;
+
+        Queued(DispatchPolicy policy, DispatchMetrics metrics, Logger log) {
+            super(metrics, log);
+            this.capacity = policy.getCapacity();
+            this.overflow = policy.getOverflow();
+            metrics.queueDepth(this::size);
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void dispatch(Runnable consume, Runnable drop) {
+            Task task = new Task(consume, drop);
+            Task dropped = null;
+            lock.lock();
+            try {
+                if (stopped) {
+                    dropped = task;
+                } else if (queue.size() < capacity) {
+                    queue.add(task);
+                } else if (overflow == DispatchPolicy.Overflow.DROP_NEWEST) {
+                    dropped = task;
+                } else if (overflow == DispatchPolicy.Overflow.DROP_OLDEST) {
+                    dropped = queue.poll();
+                    queue.add(task);
+                } else {
+                    while (queue.size() >= capacity && !stopped) notFull.awaitUninterruptibly();
+                    if (stopped) dropped = task;
+                    else queue.add(task);
+                }
+                if (dropped != task) notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+            if (dropped != null) drop(dropped.drop);
+            if (dropped != task) scheduleDrain();
+        }
+
+        /**
+         * @return next task or null if there is none
+         */
+        protected Task poll() {
+            lock.lock();
+            try {
+                Task task = queue.poll();
+                if (task != null) notFull.signal();
+                return task;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        protected void scheduleDrain() {
+        }
+
+        @Override
+        void stop() {
+            lock.lock();
+            try {
+                stopped = true;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    static class DedicatedThread extends Queued {
+        private final Thread thread;
+
+        DedicatedThread(String name, DispatchPolicy policy, DispatchMetrics metrics, Logger log) {
+            super(policy, metrics, log);
+            thread = new Thread(this::run, "stomp-dispatch-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void run() {
+            while (true) {
+                Task task;
+                lock.lock();
+                try {
+                    while (size() == 0 && !stopped) notEmpty.awaitUninterruptibly();
+                    task = poll();
+                } finally {
+                    lock.unlock();
+                }
+                if (task == null) return;
+                consume(task.consume);
+            }
+        }
+    }
+
+    /**
+     * Drains the queue on a shared executor, one task at a time so that messages are consumed in order.
+     */
+    static class SharedExecutor extends Queued {
+        private static final int batch = 64;
+        private final Executor executor;
+        private boolean draining;
+
+        SharedExecutor(DispatchPolicy policy, DispatchMetrics metrics, Logger log) {
+            super(policy, metrics, log);
+            this.executor = policy.getExecutor();
+        }
+
+        @Override
+        protected void scheduleDrain() {
+            lock.lock();
+            try {
+                if (draining) return;
+                draining = true;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                log.error("Executor rejected dispatching, messages are waiting for the next one", e);
+                lock.lock();
+                try {
+                    draining = false;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        private void drain() {
+            for (int i = 0; i < batch; i++) {
+                Task task;
+                lock.lock();
+                try {
+                    task = poll();
+                    if (task == null) {
+                        draining = false;
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                consume(task.consume);
+            }
+            // give other subscriptions sharing the executor a chance
+            lock.lock();
+            try {
+                draining = false;
+            } finally {
+                lock.unlock();
+            }
+            scheduleDrain();
+        }
+    }
+
+    static class ThreadPerMessage extends Dispatcher {
+        private final ThreadFactory threadFactory;
+        private final Semaphore permits;
+        private final int maxConcurrent;
+        private final DispatchPolicy.Overflow overflow;
+
+        ThreadPerMessage(DispatchPolicy policy, DispatchMetrics metrics, Logger log) {
+            super(metrics, log);
+            this.threadFactory = policy.getThreadFactory();
+            this.maxConcurrent = policy.getCapacity();
+            this.permits = new Semaphore(maxConcurrent);
+            this.overflow = policy.getOverflow();
+            metrics.queueDepth(() -> maxConcurrent - permits.availablePermits());
+        }
+
+        @Override
+        void dispatch(Runnable consume, Runnable drop) {
+            if (overflow == DispatchPolicy.Overflow.BLOCK) {
+                permits.acquireUninterruptibly();
+            } else if (!permits.tryAcquire()) {
+                // there is no queue hence no older message to drop
+                drop(drop);
+                return;
+            }
+            try {
+                threadFactory.newThread(() -> {
+                    try {
+                        consume(consume);
+                    } finally {
+                        permits.release();
+                    }
+                }).start();
+            } catch (Throwable t) {
+                permits.release();
+                log.error("Failed to start consumer thread", t);
+                drop(drop);
+            }
+        }
+    }
+
+    static class Task {
+        final Runnable consume;
+        final Runnable drop;
+
+        Task(Runnable consume, Runnable drop) {
+            this.consume = consume;
+            this.drop = drop;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the {@link BrokerNode} each session connects to, according to the {@link NodeSelection}. Sessions are
+ * pinned to nodes in round-robin order when they are created. The round trip of every node is the moving
+ * average of the time its STOMP handshakes take. A node which failed, either to connect or with a transport
+ * error, is quarantined: it is only picked when every other node is quarantined too.
+ */
+class EndpointSelector {
+
+    /**
+     * Weight of the latest handshake in the moving average.
+     */
+    private static final double alpha = 0.3;
+
+    private final List<BrokerNode> nodes;
+    private final NodeSelection selection;
+    private final long quarantineNanos;
+    private final Map<BrokerNode, NodeState> states = new LinkedHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    EndpointSelector(List<BrokerNode> nodes, NodeSelection selection, Duration quarantine) {
+        if (nodes.isEmpty()) throw new IllegalArgumentException("At least one node is required");
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        this.selection = selection;
+        this.quarantineNanos = quarantine.toNanos();
+        for (BrokerNode node : nodes) states.put(node, new NodeState());
+    }
+
+    static EndpointSelector single(BrokerNode node) {
+        return new EndpointSelector(Collections.singletonList(node), NodeSelection.ROUND_ROBIN, Duration.ZERO);
+    }
+
+    List<BrokerNode> nodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the node a new session is pinned to
+     */
+    BrokerNode pin() {
+        return nodes.get(Math.floorMod(next.getAndIncrement(), nodes.size()));
+    }
+
+    /**
+     * @return the node a session pinned to the given one connects to now
+     */
+    BrokerNode select(BrokerNode pinned) {
+        if (nodes.size() == 1) return nodes.get(0);
+        long now = System.nanoTime();
+        if (selection == NodeSelection.LOWEST_LATENCY) return lowestLatency(now);
+        int start = nodes.indexOf(pinned);
+        for (int i = 0; i < nodes.size(); i++) {
+            BrokerNode node = nodes.get(Math.floorMod(start + i, nodes.size()));
+            if (!states.get(node).quarantined(now)) return node;
+        }
+        return leastRecentlyFailed();
+    }
+
+    void connected(BrokerNode node, long handshakeNanos) {
+        NodeState state = states.get(node);
+        if (state == null) return;
+        synchronized (state) {
+            state.roundTripNanos = state.roundTripNanos < 0 ? handshakeNanos
+                    : (long) (alpha * handshakeNanos + (1 - alpha) * state.roundTripNanos);
+            state.failedAt = 0;
+            state.failed = false;
+        }
+    }
+
+    void failed(BrokerNode node) {
+        NodeState state = states.get(node);
+        if (state == null) return;
+        synchronized (state) {
+            state.failedAt = System.nanoTime();
+            state.failed = true;
+        }
+    }
+
+    /**
+     * @return moving average of the node's handshakes or -1 if it has not connected yet
+     */
+    long roundTripNanos(BrokerNode node) {
+        NodeState state = states.get(node);
+        synchronized (state) {
+            return state.roundTripNanos;
+        }
+    }
+
+    private BrokerNode lowestLatency(long now) {
+        BrokerNode selected = null;
+        long lowest = Long.MAX_VALUE;
+        for (BrokerNode node : nodes) {
+            NodeState state = states.get(node);
+            synchronized (state) {
+                if (state.quarantined(now)) continue;
+                if (state.roundTripNanos < lowest) {
+                    lowest = state.roundTripNanos;
+                    selected = node;
+                }
+            }
+        }
+        return selected != null ? selected : leastRecentlyFailed();
+    }
+
+    private BrokerNode leastRecentlyFailed() {
+        BrokerNode selected = null;
+        long oldest = 0;
+        for (BrokerNode node : nodes) {
+            NodeState state = states.get(node);
+            synchronized (state) {
+                if (selected == null || state.failedAt - oldest < 0) {
+                    oldest = state.failedAt;
+                    selected = node;
+                }
+            }
+        }
+        return selected;
+    }
+
+    private class NodeState {
+        long roundTripNanos = -1;
+        long failedAt;
+        boolean failed;
+
+        synchronized boolean quarantined(long now) {
+            return failed && now - failedAt < quarantineNanos;
+        }
+    }
+}
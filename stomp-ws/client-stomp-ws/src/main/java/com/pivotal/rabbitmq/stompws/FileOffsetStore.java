@@ -0,0 +1,61 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.OptionalLong;
+
+/**
+ * {@link OffsetStore} with a file per consumer in a directory, which holds the offset as text. An offset is
+ * written to a temporary file first and then moved over the previous one, a crash leaves either of them.
+ */
+public class FileOffsetStore implements OffsetStore {
+
+    private final Path directory;
+
+    public FileOffsetStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public OptionalLong load(String consumer) {
+        try {
+            String offset = new String(Files.readAllBytes(fileOf(consumer)), StandardCharsets.US_ASCII).trim();
+            return OptionalLong.of(Long.parseLong(offset));
+        } catch (NoSuchFileException e) {
+            return OptionalLong.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load the offset of " + consumer, e);
+        }
+    }
+
+    @Override
+    public void store(String consumer, long offset) {
+        Path file = fileOf(consumer);
+        try {
+            Files.createDirectories(directory);
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, Long.toString(offset).getBytes(StandardCharsets.US_ASCII));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store the offset of " + consumer, e);
+        }
+    }
+
+    private Path fileOf(String consumer) {
+        return directory.resolve(consumer.replaceAll("[^A-Za-z0-9._-]", "_") + ".offset");
+    }
+
+    @Override
+    public String toString() {
+        return "FileOffsetStore{directory=" + directory + "}";
+    }
+}
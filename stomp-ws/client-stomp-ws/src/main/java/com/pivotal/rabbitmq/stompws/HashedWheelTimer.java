@@ -0,0 +1,122 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Times out many short-lived operations with a single task on the {@link TaskScheduler}, rather than a task
+ * each. Timeouts go into the bucket of the tick they expire on, modulo the size of the wheel; every tick the
+ * current bucket is swept, and its timeouts which are due expire. Those which are not due yet but not a full
+ * turn or more away either move on to the next tick: timeouts expire up to a tick late, never early.
+ * <p>
+ * New timeouts are queued without locking and moved into the wheel by the sweep, the wheel itself is only
+ * touched by the sweep. A cancelled timeout stays in its bucket until it would have expired.
+ */
+class HashedWheelTimer {
+
+    private final TaskScheduler taskScheduler;
+    private final long tickNanos;
+    private final Queue<Timeout>[] wheel;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> notYetDue = new ArrayDeque<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile ScheduledFuture<?> sweeper;
+    private long startNanos;
+    private long tick;
+
+    @SuppressWarnings("unchecked")
+    HashedWheelTimer(TaskScheduler taskScheduler, Duration tick, int buckets) {
+        if (taskScheduler == null) throw new IllegalArgumentException("A TaskScheduler is required to time out requests");
+        if (buckets < 1) throw new IllegalArgumentException("buckets must be greater than 0");
+        this.taskScheduler = taskScheduler;
+        this.tickNanos = tick.toNanos();
+        this.wheel = new Queue[buckets];
+        for (int i = 0; i < buckets; i++) wheel[i] = new ArrayDeque<>();
+    }
+
+    /**
+     * @param task runs on the scheduler's thread, once the delay has elapsed, unless cancelled before
+     */
+    Timeout schedule(Runnable task, Duration delay) {
+        start();
+        Timeout timeout = new Timeout(task, System.nanoTime() + delay.toNanos());
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops sweeping, the timeouts left never expire.
+     */
+    void stop() {
+        ScheduledFuture<?> sweeper = this.sweeper;
+        if (sweeper != null) sweeper.cancel(false);
+    }
+
+    private void start() {
+        if (!started.compareAndSet(false, true)) return;
+        synchronized (this) {
+            startNanos = System.nanoTime();
+            sweeper = taskScheduler.scheduleAtFixedRate(this::sweep, Math.max(1, tickNanos / 1_000_000));
+        }
+    }
+
+    private synchronized void sweep() {
+        long now = System.nanoTime();
+        // catch up with the ticks the scheduler was late for
+        long current = (now - startNanos) / tickNanos;
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.isCancelled()) continue;
+            long expiresAt = Math.max(current, (timeout.deadline - startNanos) / tickNanos);
+            wheel[(int) (expiresAt % wheel.length)].add(timeout);
+        }
+        for (; tick <= current; tick++) {
+            Iterator<Timeout> bucket = wheel[(int) (tick % wheel.length)].iterator();
+            while (bucket.hasNext()) {
+                timeout = bucket.next();
+                if (timeout.isCancelled()) {
+                    bucket.remove();
+                } else if (timeout.deadline - now <= tickNanos) {
+                    bucket.remove();
+                    if (timeout.deadline - now <= 0) timeout.expire();
+                    else notYetDue.add(timeout);
+                }
+            }
+        }
+        wheel[(int) (tick % wheel.length)].addAll(notYetDue);
+        notYetDue.clear();
+    }
+
+    static class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false if the timeout already expired or was cancelled
+         */
+        boolean cancel() {
+            return done.compareAndSet(false, true);
+        }
+
+        boolean isCancelled() {
+            return done.get();
+        }
+
+        private void expire() {
+            if (done.compareAndSet(false, true)) task.run();
+        }
+    }
+}
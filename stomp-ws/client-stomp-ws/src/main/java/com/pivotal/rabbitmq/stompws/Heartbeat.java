@@ -0,0 +1,104 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.time.Duration;
+
+/**
+ * STOMP heartbeats requested on CONNECT, and the watchdog which relies on them. The client sends a heartbeat
+ * whenever it has not written anything for {@link #getSendInterval()} and asks the broker to do the same every
+ * {@link #getReceiveInterval()}. A session which has not received anything, frame or heartbeat, for
+ * {@link #getReadIdleTimeout()} is declared dead and reconnected, without waiting for TCP to notice a half-open
+ * connection.
+ * <p>
+ * The broker may settle on longer intervals than requested. If its interval is not shorter than the timeout,
+ * the timeout is stretched to three of the broker's intervals. If the broker sends no heartbeats at all, the
+ * session is not watched.
+ */
+public class Heartbeat {
+
+    private final Duration sendInterval;
+    private final Duration receiveInterval;
+    private final Duration readIdleTimeout;
+
+    Heartbeat(Duration sendInterval, Duration receiveInterval, Duration readIdleTimeout) {
+        this.sendInterval = sendInterval;
+        this.receiveInterval = receiveInterval;
+        this.readIdleTimeout = readIdleTimeout;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Duration getSendInterval() {
+        return sendInterval;
+    }
+
+    public Duration getReceiveInterval() {
+        return receiveInterval;
+    }
+
+    public Duration getReadIdleTimeout() {
+        return readIdleTimeout;
+    }
+
+    /**
+     * How often the watchdog looks at a session, so that it trips within a quarter of the timeout.
+     */
+    Duration getCheckInterval() {
+        return Duration.ofMillis(Math.max(1, readIdleTimeout.toMillis() / 4));
+    }
+
+    long[] toStompHeartbeat() {
+        return new long[]{sendInterval.toMillis(), receiveInterval.toMillis()};
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Heartbeat{sendInterval=%s, receiveInterval=%s, readIdleTimeout=%s}", sendInterval,
+                receiveInterval, readIdleTimeout);
+    }
+
+    public static class Builder {
+        Duration sendInterval = Duration.ofMillis(200);
+        Duration receiveInterval = Duration.ofMillis(200);
+        Duration readIdleTimeout;
+
+        /**
+         * Default is 200ms.
+         */
+        public Builder withSendInterval(Duration sendInterval) {
+            if (sendInterval.isNegative() || sendInterval.isZero()) {
+                throw new IllegalArgumentException("sendInterval must be positive");
+            }
+            this.sendInterval = sendInterval;
+            return this;
+        }
+        /**
+         * Default is 200ms.
+         */
+        public Builder withReceiveInterval(Duration receiveInterval) {
+            if (receiveInterval.isNegative() || receiveInterval.isZero()) {
+                throw new IllegalArgumentException("receiveInterval must be positive");
+            }
+            this.receiveInterval = receiveInterval;
+            return this;
+        }
+        /**
+         * Silence after which a session is declared dead. Default is three receive intervals.
+         */
+        public Builder withReadIdleTimeout(Duration readIdleTimeout) {
+            if (readIdleTimeout.isNegative() || readIdleTimeout.isZero()) {
+                throw new IllegalArgumentException("readIdleTimeout must be positive");
+            }
+            this.readIdleTimeout = readIdleTimeout;
+            return this;
+        }
+        public Heartbeat build() {
+            Duration timeout = readIdleTimeout != null ? readIdleTimeout : receiveInterval.multipliedBy(3);
+            if (timeout.compareTo(receiveInterval) <= 0) {
+                throw new IllegalArgumentException("readIdleTimeout must be longer than receiveInterval");
+            }
+            return new Heartbeat(sendInterval, receiveInterval, timeout);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.pivotal.rabbitmq.stompws;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes JSON payloads straight from and to bytes, never going through a {@link String}.
+ * Each thread serializes into its own buffer, which is reused from one message to the next, so that the only
+ * allocation per message sent is the frame's payload itself.
+ */
+public class JsonMessageConverter extends AbstractMessageConverter {
+
+    private static final int maxPooledBufferSize = 1024 * 1024;
+
+    private final ObjectMapper objectMapper;
+    private final ThreadLocal<PooledBuffer> buffers = ThreadLocal.withInitial(PooledBuffer::new);
+
+    public JsonMessageConverter(ObjectMapper objectMapper) {
+        super(MimeTypeUtils.APPLICATION_JSON);
+        setStrictContentTypeMatch(false);
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return clazz != String.class && clazz != byte[].class && !ByteBuffer.class.isAssignableFrom(clazz)
+                && clazz != LazyPayload.class;
+    }
+
+    @Override
+    protected Object convertFromInternal(Message<?> message, Class<?> targetClass, @Nullable Object conversionHint) {
+        Object payload = message.getPayload();
+        if (!(payload instanceof byte[])) return null;
+        try {
+            JavaType type = objectMapper.constructType(targetClass);
+            return objectMapper.readValue((byte[]) payload, type);
+        } catch (IOException e) {
+            throw new MessageConversionException(message, "Could not read JSON: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, @Nullable MessageHeaders headers, @Nullable Object conversionHint) {
+        PooledBuffer buffer = buffers.get();
+        try {
+            objectMapper.writeValue(buffer, payload);
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new MessageConversionException("Could not write JSON: " + e.getMessage(), e);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    static class PooledBuffer extends ByteArrayOutputStream {
+        PooledBuffer() {
+            super(4096);
+        }
+
+        @Override
+        public void close() {
+            // ObjectMapper closes the target stream once written, keep it open to reuse it
+        }
+
+        void release() {
+            reset();
+            // do not keep oversized buffers around
+            if (buf.length > maxPooledBufferSize) buf = new byte[4096];
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Writes the sends of a sender session from its lanes according to {@link SendLanes}, in smooth weighted
+ * round robin. There is no writer thread: the thread which finds no one else writing writes the sends waiting,
+ * its own and those queued meanwhile by other threads, one at a time. A send which arrives while a batch is
+ * being written thus goes ahead of the rest of the batch if its lane weighs more.
+ */
+class LaneScheduler {
+
+    static final RejectedExecutionException laneFull = new RejectedExecutionException("Send lane full");
+
+    private final Lane[] lanes;
+    private boolean draining;
+    /**
+     * Whether the next send can be written without waiting in another queue, e.g. the congestion controller's,
+     * where it would lose its priority. Call {@link #drain()} once it can again.
+     */
+    BooleanSupplier ready = () -> true;
+
+    LaneScheduler(SendLanes settings, ClientMetrics metrics) {
+        SendPriority[] priorities = SendPriority.values();
+        lanes = new Lane[priorities.length];
+        for (SendPriority priority : priorities) {
+            lanes[priority.ordinal()] = new Lane(settings.getWeight(priority), settings.getCapacity(priority),
+                    metrics.lane(priority.name().toLowerCase()));
+        }
+    }
+
+    synchronized int queued(SendPriority priority) {
+        return lanes[priority.ordinal()].queue.size();
+    }
+
+    /**
+     * Queues the send in its lane, or fails it if the lane is full, and writes what is waiting unless another
+     * thread is already doing it. The latency of the lane is measured up to the settlement of the send.
+     */
+    void send(SendPriority priority, CompletableFuture<?> sent, Runnable send) {
+        Lane lane = lanes[priority.ordinal()];
+        long start = System.nanoTime();
+        synchronized (this) {
+            if (lane.queue.size() >= lane.capacity) {
+                sent.completeExceptionally(laneFull);
+                return;
+            }
+            lane.queue.add(send);
+        }
+        sent.whenComplete((ok, failure) -> lane.meters.settled(start, failure));
+        drain();
+    }
+
+    void drain() {
+        while (true) {
+            synchronized (this) {
+                if (draining) return;
+                draining = true;
+            }
+            try {
+                while (ready.getAsBoolean()) {
+                    Runnable next;
+                    synchronized (this) {
+                        next = next();
+                    }
+                    if (next == null) break;
+                    next.run();
+                }
+            } finally {
+                synchronized (this) {
+                    draining = false;
+                }
+            }
+            // whoever made it ready may have found this thread still draining
+            synchronized (this) {
+                if (isEmpty()) return;
+            }
+            if (!ready.getAsBoolean()) return;
+        }
+    }
+
+    /**
+     * Every lane with sends waiting earns its weight, the richest one sends and pays for everyone.
+     */
+    private Runnable next() {
+        Lane selected = null;
+        int weights = 0;
+        for (Lane lane : lanes) {
+            if (lane.queue.isEmpty()) continue;
+            lane.credit += lane.weight;
+            weights += lane.weight;
+            if (selected == null || lane.credit > selected.credit) selected = lane;
+        }
+        if (selected == null) return null;
+        selected.credit -= weights;
+        // a lane neither earns nor owes anything while it has nothing to send
+        if (selected.queue.size() == 1) selected.credit = 0;
+        return selected.queue.poll();
+    }
+
+    private boolean isEmpty() {
+        for (Lane lane : lanes) if (!lane.queue.isEmpty()) return false;
+        return true;
+    }
+
+    private static class Lane {
+        final int weight;
+        final int capacity;
+        final ClientMetrics.LaneMeters meters;
+        final Queue<Runnable> queue = new ArrayDeque<>();
+        int credit;
+
+        Lane(int weight, int capacity, ClientMetrics.LaneMeters meters) {
+            this.weight = weight;
+            this.capacity = capacity;
+            this.meters = meters;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.converter.MessageConverter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Payload of a message which is only decoded when asked to. Subscribe with {@code LazyPayload.class} so that
+ * consumers which only look at the headers, or at a fraction of the messages, do not pay for decoding.
+ */
+public class LazyPayload {
+
+    private final Message<byte[]> message;
+    private final MessageConverter converter;
+
+    LazyPayload(Message<byte[]> message, MessageConverter converter) {
+        this.message = message;
+        this.converter = converter;
+    }
+
+    public int size() {
+        return message.getPayload().length;
+    }
+
+    /**
+     * @return read-only view of the raw payload, nothing is copied
+     */
+    public ByteBuffer buffer() {
+        return ByteBuffer.wrap(message.getPayload()).asReadOnlyBuffer();
+    }
+
+    public String asString() {
+        return new String(message.getPayload(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes the payload with the client's message converter.
+     */
+    public <T> T as(Class<T> type) {
+        Object decoded = converter.fromMessage(message, type);
+        if (decoded == null) {
+            throw new MessageConversionException(message, "No converter for payload type " + type.getName());
+        }
+        return type.cast(decoded);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LazyPayload{%d bytes}", size());
+    }
+}
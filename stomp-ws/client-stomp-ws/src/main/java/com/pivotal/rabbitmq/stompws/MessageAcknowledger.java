@@ -0,0 +1,162 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.slf4j.Logger;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Batches the ACKs of a client-ack subscription according to its {@link SubscriptionOptions}.
+ * <p>
+ * ACK ids are only valid on the session that delivered the message. When the subscription is restored on a
+ * new session, the ACKs still pending for the previous one are sent if that session is still connected or
+ * else dropped: the broker redelivers those messages, flagged with the {@code redelivered} header, and they
+ * are acknowledged again on the new session.
+ */
+class MessageAcknowledger {
+
+    private final Logger log;
+    private final SubscriptionOptions options;
+    private final TaskScheduler taskScheduler;
+
+    private StompSession session;
+    private final List<String> pending = new ArrayList<>();
+    private ScheduledFuture<?> lingerTask;
+    private long acknowledged;
+    private long rejected;
+    private long redelivered;
+    private long dropped;
+
+    MessageAcknowledger(Logger log, SubscriptionOptions options, TaskScheduler taskScheduler) {
+        if (taskScheduler == null) throw new IllegalArgumentException("A TaskScheduler is required to batch ACKs");
+        this.log = log;
+        this.options = options;
+        this.taskScheduler = taskScheduler;
+    }
+
+    synchronized long acknowledged() {
+        return acknowledged;
+    }
+
+    synchronized long rejected() {
+        return rejected;
+    }
+
+    synchronized long redelivered() {
+        return redelivered;
+    }
+
+    synchronized long dropped() {
+        return dropped;
+    }
+
+    synchronized void received(StompSession session, StompHeaders headers) {
+        if ("true".equals(headers.getFirst("redelivered"))) redelivered++;
+        if (this.session != session) rebind(session);
+    }
+
+    synchronized void ack(StompSession session, StompHeaders headers) {
+        if (isStale(session)) {
+            acknowledgeStale(session, headers, true);
+            return;
+        }
+        pending.add(ackIdOf(headers));
+        if (pending.size() >= options.getAckEvery()) {
+            flush();
+        } else if (lingerTask == null) {
+            lingerTask = taskScheduler.schedule(this::linger,
+                    new Date(System.currentTimeMillis() + options.getAckLinger().toMillis()));
+        }
+    }
+
+    synchronized void nack(StompSession session, StompHeaders headers) {
+        if (isStale(session)) {
+            acknowledgeStale(session, headers, false);
+            return;
+        }
+        // in client mode a NACK is cumulative too so the messages already processed are ACKed first
+        flush();
+        try {
+            session.acknowledge(ackHeaders(ackIdOf(headers)), false);
+            rejected++;
+        } catch (Throwable t) {
+            log.warn("Failed to NACK {}", ackIdOf(headers), t);
+        }
+    }
+
+    synchronized void flush() {
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        if (pending.isEmpty()) return;
+        try {
+            if (options.getAckMode() == AckMode.CLIENT) {
+                session.acknowledge(ackHeaders(pending.get(pending.size() - 1)), true);
+            } else {
+                for (String ackId : pending) session.acknowledge(ackHeaders(ackId), true);
+            }
+            acknowledged += pending.size();
+        } catch (Throwable t) {
+            log.warn("Failed to ACK {} messages, they will be redelivered", pending.size(), t);
+            dropped += pending.size();
+        }
+        pending.clear();
+    }
+
+    private synchronized void linger() {
+        lingerTask = null;
+        flush();
+    }
+
+    /**
+     * Messages may still be consumed once the subscription has moved on to another session, when they are
+     * dispatched to other threads. Those are acknowledged straight away if their session is still connected.
+     */
+    private boolean isStale(StompSession session) {
+        if (this.session == null) this.session = session;
+        return this.session != session;
+    }
+
+    private void acknowledgeStale(StompSession session, StompHeaders headers, boolean consumed) {
+        if (session.isConnected()) {
+            try {
+                session.acknowledge(ackHeaders(ackIdOf(headers)), consumed);
+                if (consumed) acknowledged++;
+                else rejected++;
+                return;
+            } catch (Throwable t) {
+                log.warn("Failed to acknowledge {}", ackIdOf(headers), t);
+            }
+        }
+        dropped++;
+    }
+
+    private void rebind(StompSession session) {
+        if (this.session != null && this.session.isConnected()) {
+            flush();
+        } else if (!pending.isEmpty()) {
+            log.info("Dropping {} ACKs of a closed session, the broker redelivers those messages", pending.size());
+            dropped += pending.size();
+            pending.clear();
+        }
+        this.session = session;
+    }
+
+    private String ackIdOf(StompHeaders headers) {
+        String ack = headers.getAck();
+        return ack != null ? ack : headers.getMessageId();
+    }
+
+    private StompHeaders ackHeaders(String ackId) {
+        StompHeaders headers = new StompHeaders();
+        headers.setId(ackId);
+        headers.setMessageId(ackId);
+        return headers;
+    }
+}
@@ -0,0 +1,18 @@
+package com.pivotal.rabbitmq.stompws;
+
+/**
+ * How a session picks the {@link BrokerNode} it connects to. Regardless of the strategy, a node which failed
+ * is skipped for a while, as long as another node is available, so that sessions fail over straight away.
+ */
+public enum NodeSelection {
+    /**
+     * Sessions are spread across nodes in round-robin order. A session which failed over goes back to its
+     * own node the next time it connects, provided the node is out of quarantine.
+     */
+    ROUND_ROBIN,
+    /**
+     * Sessions connect to the node with the lowest round trip, as measured by the STOMP handshakes so far.
+     * Nodes not measured yet are tried first.
+     */
+    LOWEST_LATENCY
+}
@@ -0,0 +1,17 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.util.OptionalLong;
+
+/**
+ * Keeps the offset of the last message each stream consumer processed, so that it resumes after it when
+ * it subscribes again, be it after a reconnection or a restart. See {@link FileOffsetStore}.
+ */
+public interface OffsetStore {
+
+    /**
+     * @return the last offset stored for the consumer, or empty if there is none
+     */
+    OptionalLong load(String consumer);
+
+    void store(String consumer, long offset);
+}
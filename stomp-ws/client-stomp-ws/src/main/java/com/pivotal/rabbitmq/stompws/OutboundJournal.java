@@ -0,0 +1,284 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.messaging.simp.stomp.StompHeaders;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Append-only journal of the frames of an {@link OutboundSpool}, made of memory-mapped segment files.
+ * <p>
+ * Each entry is laid out as its length, a state byte, the headers and the body. The length is written last
+ * so that an entry torn by a crash reads as the end of the segment. Acknowledging an entry flips its state
+ * byte in place, and a segment is deleted once all its entries are acknowledged, hence the journal only
+ * holds the frames still waiting for a receipt. Entries of a previous run are recovered when it is opened.
+ * <p>
+ * Written entries reach the page cache, not the disk: they survive the process, not the host.
+ */
+class OutboundJournal {
+
+    private static final byte PENDING = 1;
+    private static final byte ACKNOWLEDGED = 2;
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Set<Entry> pending = new LinkedHashSet<>();
+    private Segment current;
+    private boolean closed;
+
+    OutboundJournal(Path directory, int segmentSize, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IllegalStateException("Journal " + directory + " is in use by another process");
+        }
+        recover();
+    }
+
+    /**
+     * @return entries waiting for a receipt, oldest first
+     */
+    synchronized List<Entry> pending() {
+        return new ArrayList<>(pending);
+    }
+
+    synchronized boolean isPending(Entry entry) {
+        return pending.contains(entry);
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    synchronized int segments() {
+        return segments.size();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the entry does not fit in a segment
+     * @throws IllegalStateException if the journal is full or closed
+     */
+    synchronized Entry append(StompHeaders headers, byte[] body) {
+        if (closed) throw new IllegalStateException("Journal is closed");
+        byte[] encodedHeaders = encode(headers);
+        int length = 1 + 4 + encodedHeaders.length + 4 + body.length;
+        if (4 + length > segmentSize) {
+            throw new IllegalArgumentException(String.format("Frame of %d bytes exceeds the segment size", length));
+        }
+        if (current == null || current.position + 4 + length > segmentSize) roll();
+        int offset = current.position;
+        MappedByteBuffer buffer = current.buffer;
+        buffer.put(offset + 4, PENDING);
+        buffer.putInt(offset + 5, encodedHeaders.length);
+        put(buffer, offset + 9, encodedHeaders);
+        buffer.putInt(offset + 9 + encodedHeaders.length, body.length);
+        put(buffer, offset + 13 + encodedHeaders.length, body);
+        buffer.putInt(offset, length);
+        current.position += 4 + length;
+        current.pending++;
+        Entry entry = new Entry(current, offset);
+        pending.add(entry);
+        return entry;
+    }
+
+    synchronized void acknowledge(Entry entry) {
+        if (!pending.remove(entry)) return;
+        entry.segment.buffer.put(entry.offset + 4, ACKNOWLEDGED);
+        if (--entry.segment.pending == 0 && entry.segment != current) delete(entry.segment);
+    }
+
+    /**
+     * Reads an entry back, to replay it.
+     */
+    synchronized StompHeaders headers(Entry entry) {
+        MappedByteBuffer buffer = entry.segment.buffer;
+        byte[] encoded = new byte[buffer.getInt(entry.offset + 5)];
+        get(buffer, entry.offset + 9, encoded);
+        return decode(encoded);
+    }
+
+    synchronized byte[] body(Entry entry) {
+        MappedByteBuffer buffer = entry.segment.buffer;
+        int headersLength = buffer.getInt(entry.offset + 5);
+        byte[] body = new byte[buffer.getInt(entry.offset + 9 + headersLength)];
+        get(buffer, entry.offset + 13 + headersLength, body);
+        return body;
+    }
+
+    /**
+     * Releases the journal, pending entries stay on disk for the next run.
+     */
+    synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            lock.release();
+        } catch (IOException ignored) {
+        }
+        try {
+            lockChannel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void roll() {
+        if (current != null && current.pending == 0) delete(current);
+        if (segments.size() >= maxSegments) {
+            throw new IllegalStateException(String.format("Journal is full, %d segments of %d bytes", maxSegments,
+                    segmentSize));
+        }
+        long index = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        try {
+            current = open(index, true);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to create journal segment", e);
+        }
+        segments.put(index, current);
+    }
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), null);
+            }
+        }
+        for (Map.Entry<Long, Segment> indexed : new ArrayList<>(segments.entrySet())) {
+            Segment segment = open(indexed.getKey(), false);
+            MappedByteBuffer buffer = segment.buffer;
+            while (segment.position + 4 <= buffer.capacity()) {
+                int length = buffer.getInt(segment.position);
+                if (length <= 0 || segment.position + 4 + length > buffer.capacity()) break;
+                if (buffer.get(segment.position + 4) == PENDING) {
+                    pending.add(new Entry(segment, segment.position));
+                    segment.pending++;
+                }
+                segment.position += 4 + length;
+            }
+            segments.put(indexed.getKey(), segment);
+            // appends go to a new segment, the recovered ones are only kept until their entries are receipted
+            if (segment.pending == 0) delete(segment);
+        }
+    }
+
+    private Segment open(long index, boolean create) throws IOException {
+        Path file = directory.resolve(String.format("%019d%s", index, SUFFIX));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (create) raf.setLength(segmentSize);
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            return new Segment(index, file, buffer);
+        }
+    }
+
+    /**
+     * The mapping itself is only released when the buffer is collected, which is fine on the platforms
+     * that allow deleting a mapped file.
+     */
+    private void delete(Segment segment) {
+        segments.remove(segment.index);
+        if (segment == current) current = null;
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static byte[] encode(StompHeaders headers) {
+        int size = 4;
+        List<byte[]> strings = new ArrayList<>();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (String value : header.getValue()) {
+                strings.add(header.getKey().getBytes(StandardCharsets.UTF_8));
+                strings.add(value.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        for (byte[] string : strings) size += 4 + string.length;
+        ByteBuffer encoded = ByteBuffer.allocate(size);
+        encoded.putInt(strings.size() / 2);
+        for (byte[] string : strings) encoded.putInt(string.length).put(string);
+        return encoded.array();
+    }
+
+    private static StompHeaders decode(byte[] encoded) {
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        StompHeaders headers = new StompHeaders();
+        for (int count = buffer.getInt(); count > 0; count--) {
+            headers.add(string(buffer), string(buffer));
+        }
+        return headers;
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void put(MappedByteBuffer buffer, int offset, byte[] bytes) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.put(bytes);
+    }
+
+    private static void get(MappedByteBuffer buffer, int offset, byte[] bytes) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+    }
+
+    static class Entry {
+        private final Segment segment;
+        private final int offset;
+
+        Entry(Segment segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Entry{segment=%d, offset=%d}", segment.index, offset);
+        }
+    }
+
+    private static class Segment {
+        final long index;
+        final Path file;
+        final MappedByteBuffer buffer;
+        int position;
+        int pending;
+
+        Segment(long index, Path file, MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
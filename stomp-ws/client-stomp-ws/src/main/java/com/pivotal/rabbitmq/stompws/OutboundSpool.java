@@ -0,0 +1,89 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.nio.file.Path;
+
+/**
+ * Settings of the outbound spool of sender sessions. Every frame is appended to a memory-mapped journal
+ * before it is written, and stays there until its receipt comes back. Sends are accepted while the session
+ * is down and the journal is replayed, in order, once it is reconnected. Frames left in the journal by a
+ * previous run of a client with the same name are replayed too.
+ * <p>
+ * The journal is split into segments of {@link #getSegmentSize()} bytes, which are deleted as soon as all
+ * their frames are receipted. Sends fail once the journal would exceed {@link #getMaxSize()} bytes.
+ * Frames are delivered at least once: those written before a connection is lost are written again after
+ * it is restored, even if the broker got them.
+ */
+public class OutboundSpool {
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSize;
+
+    OutboundSpool(Path directory, int segmentSize, long maxSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param directory where journals are kept, one per sender session in a sub-directory named after
+     *                  the client and the session
+     */
+    public static Builder builder(Path directory) {
+        return new Builder(directory);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    int getMaxSegments() {
+        return (int) Math.min(Integer.MAX_VALUE, maxSize / segmentSize);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OutboundSpool{directory=%s, segmentSize=%d, maxSize=%d}", directory, segmentSize,
+                maxSize);
+    }
+
+    public static class Builder {
+        final Path directory;
+        int segmentSize = 8 * 1024 * 1024;
+        long maxSize = 256L * 1024 * 1024;
+
+        Builder(Path directory) {
+            if (directory == null) throw new IllegalArgumentException("directory is required");
+            this.directory = directory;
+        }
+
+        /**
+         * Size of each journal file. Larger frames cannot be spooled. Default is 8MiB.
+         */
+        public Builder withSegmentSize(int segmentSize) {
+            if (segmentSize < 1024) throw new IllegalArgumentException("segmentSize must be at least 1024");
+            this.segmentSize = segmentSize;
+            return this;
+        }
+        /**
+         * Largest size of the journal of each sender session, in whole segments. Default is 256MiB.
+         */
+        public Builder withMaxSize(long maxSize) {
+            if (maxSize < 1) throw new IllegalArgumentException("maxSize must be greater than 0");
+            this.maxSize = maxSize;
+            return this;
+        }
+        public OutboundSpool build() {
+            if (maxSize < segmentSize) throw new IllegalArgumentException("maxSize must be at least segmentSize");
+            return new OutboundSpool(directory, segmentSize, maxSize);
+        }
+    }
+}
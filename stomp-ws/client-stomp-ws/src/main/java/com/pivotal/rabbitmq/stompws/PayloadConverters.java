@@ -0,0 +1,86 @@
+package com.pivotal.rabbitmq.stompws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.ByteArrayMessageConverter;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Message converters for {@link WebSocketConnectionProvider.Builder#withMessageConverter(MessageConverter)}.
+ * Besides {@code String}, they let subscriptions receive {@code byte[]}, {@link java.nio.ByteBuffer},
+ * {@link LazyPayload} and, with {@link #withJson(ObjectMapper)}, any type Jackson can bind to.
+ * <p>
+ * {@code byte[]} and {@link java.nio.ByteBuffer} are read from frames of any content type, so that a binary
+ * subscriber gets the raw body of text and JSON messages too.
+ */
+public final class PayloadConverters {
+
+    private PayloadConverters() {
+    }
+
+    /**
+     * String, byte[], ByteBuffer and LazyPayload payloads.
+     */
+    public static MessageConverter defaults() {
+        return of();
+    }
+
+    /**
+     * Same as {@link #defaults()} plus JSON for any other type.
+     */
+    public static MessageConverter withJson(ObjectMapper objectMapper) {
+        return of(new JsonMessageConverter(objectMapper));
+    }
+
+    private static MessageConverter of(MessageConverter... extra) {
+        List<MessageConverter> converters = new ArrayList<>();
+        converters.add(new StringMessageConverter());
+        converters.add(new AnyContentTypeByteArrayConverter());
+        converters.add(new ByteBufferMessageConverter());
+        converters.addAll(Arrays.asList(extra));
+        CompositeMessageConverter composite = new CompositeMessageConverter(converters);
+        return new LazyPayloadConverter(composite);
+    }
+
+    /**
+     * Reads byte[] payloads whatever the content type, and only writes them as application/octet-stream.
+     */
+    static class AnyContentTypeByteArrayConverter extends ByteArrayMessageConverter {
+        @Override
+        protected boolean canConvertFrom(Message<?> message, Class<?> targetClass) {
+            return supports(targetClass) && message.getPayload() instanceof byte[];
+        }
+    }
+
+    /**
+     * Defers decoding to {@link LazyPayload}, delegating everything else.
+     */
+    static class LazyPayloadConverter implements MessageConverter {
+        private final MessageConverter delegate;
+
+        LazyPayloadConverter(MessageConverter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object fromMessage(Message<?> message, Class<?> targetClass) {
+            if (targetClass == LazyPayload.class && message.getPayload() instanceof byte[]) {
+                return new LazyPayload((Message<byte[]>) message, delegate);
+            }
+            return delegate.fromMessage(message, targetClass);
+        }
+
+        @Override
+        public Message<?> toMessage(Object payload, MessageHeaders headers) {
+            return delegate.toMessage(payload, headers);
+        }
+    }
+}
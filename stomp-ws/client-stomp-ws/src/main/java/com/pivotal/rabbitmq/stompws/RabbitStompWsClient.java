@@ -2,6 +2,7 @@ package com.pivotal.rabbitmq.stompws;
 
 import org.springframework.messaging.simp.stomp.StompHeaders;
 
+import java.time.Duration;
 import java.util.concurrent.CompletionStage;
 import java.util.function.BiConsumer;
 
@@ -9,11 +10,119 @@ public interface RabbitStompWsClient {
     CompletionStage<?> whenReady();
     <T> CompletionStage<?> send(StompHeaders headers, T payload);
     <T> CompletionStage<?> send(String destination, T payload);
+    /**
+     * Sends through the lane of the priority, see {@link SendLanes}. Without lanes, same as
+     * {@link #send(String, Object)}, which is all it does by default.
+     */
+    default <T> CompletionStage<?> send(String destination, T payload, SendPriority priority) {
+        return send(destination, payload);
+    }
+    /**
+     * Handle to send to a destination over and over, with the routing and headers worked out once. By default,
+     * the handle merely delegates to {@link #send(String, Object)}.
+     */
+    default Destination destination(String destination) {
+        RabbitStompWsClient client = this;
+        return new Destination() {
+            @Override
+            public String getName() {
+                return destination;
+            }
+
+            @Override
+            public <T> CompletionStage<?> send(T payload) {
+                return client.send(destination, payload);
+            }
+
+            @Override
+            public <T> void send(T payload, SendCallback callback) {
+                client.send(destination, payload).whenComplete((ok, failure) -> callback.settled(failure));
+            }
+
+            @Override
+            public <T> void sendAndForget(T payload) {
+                client.send(destination, payload);
+            }
+        };
+    }
+    /**
+     * Sends a request and waits for its reply, sent by the responder to the request's reply-to header with
+     * the same correlation-id, see {@link #reply(StompHeaders, Object)}.
+     *
+     * @return completed with the reply, or failed with a {@link java.util.concurrent.TimeoutException} if
+     * there is none within the timeout, be it because the request or its reply was lost
+     * @throws UnsupportedOperationException by default, for clients which cannot wait for replies
+     */
+    default <T> CompletionStage<T> request(String destination, Object payload, Class<T> replyType, Duration timeout) {
+        throw new UnsupportedOperationException("Requests are not supported by " + getClass().getName());
+    }
+    /**
+     * Replies to a request received by a subscription.
+     *
+     * @param request headers of the request
+     */
+    default <T> CompletionStage<?> reply(StompHeaders request, T payload) {
+        String replyTo = request.getFirst(RequestReply.replyToHeader);
+        if (replyTo == null) throw new IllegalArgumentException("The request has no reply-to header");
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination(replyTo);
+        String correlationId = request.getFirst(RequestReply.correlationIdHeader);
+        if (correlationId != null) headers.set(RequestReply.correlationIdHeader, correlationId);
+        return send(headers, payload);
+    }
     <T> CompletionStage<Subscription> subscribe(String destination, Class<T> type, BiConsumer<StompHeaders,T> consumer);
+    /**
+     * Subscribes with an ack mode, a prefetch and the like. Not supported by default: an
+     * {@link UnsupportedOperationException} is thrown.
+     */
+    default <T> CompletionStage<Subscription> subscribe(String destination, Class<T> type, SubscriptionOptions options,
+                                                        BiConsumer<StompHeaders,T> consumer) {
+        throw new UnsupportedOperationException("Subscription options are not supported by " + getClass().getName());
+    }
 
     void stop();
 
+    /**
+     * Sends to a single destination. A handle is meant to be kept and shared by the threads sending to
+     * its destination.
+     */
+    interface Destination {
+        String getName();
+
+        /**
+         * Same as {@link RabbitStompWsClient#send(String, Object)}.
+         */
+        <T> CompletionStage<?> send(T payload);
+
+        /**
+         * Sends without a future, the callback is told once the message is receipted or lost. The same
+         * callback is meant to be passed to every send.
+         */
+        <T> void send(T payload, SendCallback callback);
+
+        /**
+         * Sends without waiting for nor requesting a receipt, unless a confirm window or an outbound spool
+         * needs one. Failures are not reported.
+         */
+        <T> void sendAndForget(T payload);
+    }
+
+    interface SendCallback {
+        /**
+         * @param failure null if the message was receipted
+         */
+        void settled(Throwable failure);
+    }
+
     interface Subscription {
         void cancel();
+
+        /**
+         * @return a snapshot of how the messages of the subscription are dispatched to its consumer
+         * @throws UnsupportedOperationException by default, for subscriptions which keep no such metrics
+         */
+        default DispatchMetrics dispatchMetrics() {
+            throw new UnsupportedOperationException("No dispatch metrics for " + getClass().getName());
+        }
     }
 }
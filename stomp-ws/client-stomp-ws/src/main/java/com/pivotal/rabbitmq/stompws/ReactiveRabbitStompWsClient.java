@@ -0,0 +1,110 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.reactivestreams.Publisher;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reactive Streams API on top of a {@link DefaultRabbitStompWsClient}.
+ * <p>
+ * Sending is bounded by the number of messages waiting for their confirmation. Receiving is bounded by the
+ * subscription's prefetch: a message is only ACKed once it is emitted downstream, hence the broker does not
+ * deliver more than prefetch messages the subscriber has not requested yet.
+ */
+public class ReactiveRabbitStompWsClient {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    private final DefaultRabbitStompWsClient client;
+
+    public ReactiveRabbitStompWsClient(DefaultRabbitStompWsClient client) {
+        this.client = client;
+    }
+
+    public Mono<Void> whenReady() {
+        return Mono.fromCompletionStage(client::whenReady).then();
+    }
+
+    /**
+     * Same as {@link #send(Publisher, int)} with {@link #DEFAULT_MAX_IN_FLIGHT}.
+     */
+    public <T> Flux<StompMessage<T>> send(Publisher<StompMessage<T>> messages) {
+        return send(messages, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Sends the messages as they are requested, no more than {@code maxInFlight} of them waiting for their
+     * confirmation at any time.
+     *
+     * @return the messages in the order they were sent, each one emitted once it is confirmed. It fails with
+     * the first message which could not be delivered.
+     */
+    public <T> Flux<StompMessage<T>> send(Publisher<StompMessage<T>> messages, int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be greater than 0");
+        return Flux.from(messages).flatMapSequential(message ->
+                Mono.fromCompletionStage(() -> client.send(message.getHeaders(), message.getPayload()))
+                        .thenReturn(message), maxInFlight, 1);
+    }
+
+    public <T> Flux<StompMessage<T>> subscribe(String destination, Class<T> type) {
+        return subscribe(destination, type, SubscriptionOptions.builder()
+                .withAckMode(AckMode.CLIENT_INDIVIDUAL)
+                .withPrefetch(DEFAULT_MAX_IN_FLIGHT)
+                .build());
+    }
+
+    /**
+     * Subscribes once the returned Flux is subscribed to and unsubscribes when it is cancelled. Messages
+     * received but not emitted yet are not ACKed, the broker redelivers them.
+     *
+     * @param options must use a client ack mode and a prefetch, else there would be no backpressure
+     */
+    public <T> Flux<StompMessage<T>> subscribe(String destination, Class<T> type, SubscriptionOptions options) {
+        if (options.getAckMode() == AckMode.AUTO || options.getPrefetch() < 1) {
+            throw new IllegalArgumentException("Backpressure requires a client ack mode and a prefetch");
+        }
+        return Flux.<Delivery<T>>create(sink -> {
+            StompHeaders headers = new StompHeaders();
+            headers.setDestination(destination);
+            AtomicReference<RabbitStompWsClient.Subscription> subscription = new AtomicReference<>();
+            AtomicBoolean disposed = new AtomicBoolean();
+            sink.onDispose(() -> {
+                disposed.set(true);
+                RabbitStompWsClient.Subscription s = subscription.getAndSet(null);
+                if (s != null) s.cancel();
+            });
+            client.subscribe(headers, type, options,
+                    (h, payload, acknowledgement) -> sink.next(new Delivery<>(h, payload, acknowledgement)))
+                    .whenComplete((s, throwable) -> {
+                        if (throwable != null) {
+                            sink.error(throwable);
+                            return;
+                        }
+                        subscription.set(s);
+                        // cancelled before the subscription was established
+                        if (disposed.get() && subscription.compareAndSet(s, null)) s.cancel();
+                    });
+        }, FluxSink.OverflowStrategy.BUFFER)
+                .doOnNext(delivery -> delivery.acknowledgement.ack())
+                .map(delivery -> delivery.message);
+    }
+
+    public void stop() {
+        client.stop();
+    }
+
+    static class Delivery<T> {
+        final StompMessage<T> message;
+        final DefaultRabbitStompWsClient.Acknowledgement acknowledgement;
+
+        Delivery(StompHeaders headers, T payload, DefaultRabbitStompWsClient.Acknowledgement acknowledgement) {
+            this.message = new StompMessage<>(headers, payload);
+            this.acknowledgement = acknowledgement;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Hands the replies received by sender sessions over to {@link RequestReply}. Only messages which start
+ * with a MESSAGE frame are decoded, sender sessions otherwise receive little more than RECEIPTs and
+ * heartbeats. A message without replies passes on untouched. Otherwise the other frames pass on one by one,
+ * followed by the bytes of a trailing incomplete frame, if any, for Spring to buffer.
+ */
+class ReplyWebSocketClient implements WebSocketClient {
+
+    private static final byte[] message = "MESSAGE".getBytes(StandardCharsets.US_ASCII);
+
+    private final WebSocketClient delegate;
+    private final RequestReply requests;
+    private final StompDecoder decoder = new StompDecoder();
+    private final StompEncoder encoder = new StompEncoder();
+
+    ReplyWebSocketClient(WebSocketClient delegate, RequestReply requests) {
+        this.delegate = delegate;
+        this.requests = requests;
+    }
+
+    @Override
+    public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler webSocketHandler, String uriTemplate,
+                                                         Object... uriVariables) {
+        return delegate.doHandshake(new ReplyHandler(webSocketHandler), uriTemplate, uriVariables);
+    }
+
+    @Override
+    public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler webSocketHandler,
+                                                         WebSocketHttpHeaders headers, URI uri) {
+        return delegate.doHandshake(new ReplyHandler(webSocketHandler), headers, uri);
+    }
+
+    class ReplyHandler extends WebSocketHandlerDecorator {
+
+        ReplyHandler(WebSocketHandler delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void handleMessage(WebSocketSession session, WebSocketMessage<?> webSocketMessage) throws Exception {
+            if (!startsWithMessage(webSocketMessage)) {
+                super.handleMessage(session, webSocketMessage);
+                return;
+            }
+            ByteBuffer payload = payloadOf(webSocketMessage);
+            List<Message<byte[]>> frames = decoder.decode(payload);
+            if (frames.isEmpty()) {
+                super.handleMessage(session, webSocketMessage);
+                return;
+            }
+            boolean replies = false;
+            for (int i = 0; i < frames.size(); i++) {
+                if (!requests.replied(frames.get(i))) continue;
+                replies = true;
+                frames.set(i, null);
+            }
+            if (!replies) {
+                super.handleMessage(session, webSocketMessage);
+                return;
+            }
+            for (Message<byte[]> frame : frames) {
+                if (frame != null) super.handleMessage(session, new BinaryMessage(encoder.encode(frame)));
+            }
+            // the decoder stops at the start of an incomplete frame, the rest of it comes in the next message
+            if (payload.hasRemaining()) super.handleMessage(session, new BinaryMessage(payload.slice()));
+        }
+    }
+
+    private static ByteBuffer payloadOf(WebSocketMessage<?> webSocketMessage) {
+        return webSocketMessage instanceof TextMessage
+                ? ByteBuffer.wrap(((TextMessage) webSocketMessage).asBytes())
+                : ((ByteBuffer) webSocketMessage.getPayload()).duplicate();
+    }
+
+    private static boolean startsWithMessage(WebSocketMessage<?> webSocketMessage) {
+        if (webSocketMessage instanceof TextMessage) {
+            String payload = ((TextMessage) webSocketMessage).getPayload();
+            return payload.startsWith("MESSAGE\n") || payload.startsWith("MESSAGE\r\n");
+        }
+        if (!(webSocketMessage instanceof BinaryMessage)) return false;
+        ByteBuffer payload = ((BinaryMessage) webSocketMessage).getPayload();
+        if (payload.remaining() <= message.length) return false;
+        int position = payload.position();
+        for (int i = 0; i < message.length; i++) {
+            if (payload.get(position + i) != message[i]) return false;
+        }
+        byte next = payload.get(position + message.length);
+        return next == '\n' || next == '\r';
+    }
+}
@@ -0,0 +1,154 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Correlates the requests of a client with their replies. Requests ask for their reply on
+ * {@link #replyTo}, a temporary queue RabbitMQ creates for the session which sends them, and replies come
+ * back on that session tagged with a subscription of the same name, which {@link ReplyWebSocketClient}
+ * picks off before Spring, which knows of no such subscription, would drop them. Hence a single reply queue
+ * per sender session, whatever the number of requests in flight.
+ * <p>
+ * Requests waiting for their reply are kept by correlation id in a concurrent map and timed out by a
+ * {@link HashedWheelTimer}, no task is scheduled per request. Requests are sent without a receipt: a request
+ * which does not make it to the broker fails with its timeout.
+ */
+class RequestReply {
+
+    private static final Logger log = LoggerFactory.getLogger(RequestReply.class);
+
+    static final String replyTo = "/temp-queue/replies";
+    static final String replyToHeader = "reply-to";
+    static final String correlationIdHeader = "correlation-id";
+
+    private static final Duration tick = Duration.ofMillis(10);
+    private static final int buckets = 512;
+
+    private final String prefix;
+    private final AtomicLong correlationIds = new AtomicLong();
+    private final Map<String, Pending<?>> pending = new ConcurrentHashMap<>();
+    private final MessageConverter messageConverter;
+    private final HashedWheelTimer timer;
+    private final Runnable onTimeout;
+
+    RequestReply(String name, MessageConverter messageConverter, TaskScheduler taskScheduler, Runnable onTimeout) {
+        // unique across clients and runs, replies to a previous session may still be around
+        this.prefix = String.format("%s-%s-", name, UUID.randomUUID().toString().substring(0, 8));
+        this.messageConverter = messageConverter;
+        this.timer = taskScheduler != null ? new HashedWheelTimer(taskScheduler, tick, buckets) : null;
+        this.onTimeout = onTimeout;
+    }
+
+    /**
+     * Sends the request, with the reply-to and correlation-id headers set, and waits for its reply.
+     *
+     * @return completed with the reply's payload, on the thread which reads the sender session, or failed
+     * with a {@link TimeoutException}
+     */
+    <T> CompletionStage<T> request(SenderSessionPool.Sender sender, StompHeaders headers, Object payload,
+                                   Class<T> type, Duration timeout, ClientMetrics.DestinationMeters meters) {
+        Pending<T> request = new Pending<>(type);
+        if (timer == null) {
+            request.completeExceptionally(new IllegalStateException("A TaskScheduler is required to send requests"));
+            return request;
+        }
+        String correlationId = prefix + correlationIds.incrementAndGet();
+        headers.set(replyToHeader, replyTo);
+        headers.set(correlationIdHeader, correlationId);
+        pending.put(correlationId, request);
+        request.timeout = timer.schedule(() -> expire(correlationId, timeout), timeout);
+        if (sender.spool() != null) {
+            sender.send(headers, payload).whenComplete((ok, failure) -> {
+                if (failure != null) fail(correlationId, failure);
+            });
+        } else {
+            sender.send(headers, payload, meters, null);
+        }
+        return request;
+    }
+
+    int pending() {
+        return pending.size();
+    }
+
+    /**
+     * @return whether the frame is a reply, which is then consumed
+     */
+    boolean replied(Message<byte[]> frame) {
+        StompHeaderAccessor headers = MessageHeaderAccessor.getAccessor(frame, StompHeaderAccessor.class);
+        if (headers == null || !replyTo.equals(headers.getSubscriptionId())) return false;
+        String correlationId = headers.getFirstNativeHeader(correlationIdHeader);
+        Pending<?> request = correlationId != null ? pending.remove(correlationId) : null;
+        if (request == null) {
+            log.debug("Dropping reply {} which no request is waiting for", correlationId);
+            return true;
+        }
+        request.timeout.cancel();
+        request.complete(frame, messageConverter);
+        return true;
+    }
+
+    /**
+     * Fails the requests still waiting for their reply.
+     */
+    void stop() {
+        if (timer != null) timer.stop();
+        pending.keySet().forEach(correlationId -> fail(correlationId, new IllegalStateException("Client stopped")));
+    }
+
+    private void expire(String correlationId, Duration timeout) {
+        Pending<?> request = pending.remove(correlationId);
+        if (request == null) return;
+        onTimeout.run();
+        request.completeExceptionally(new TimeoutException(String.format("No reply to %s within %d ms",
+                correlationId, timeout.toMillis())));
+    }
+
+    private void fail(String correlationId, Throwable failure) {
+        Pending<?> request = pending.remove(correlationId);
+        if (request == null) return;
+        request.timeout.cancel();
+        request.completeExceptionally(failure);
+    }
+
+    /**
+     * Request waiting for its reply.
+     */
+    static class Pending<T> extends CompletableFuture<T> {
+        final Class<T> type;
+        volatile HashedWheelTimer.Timeout timeout;
+
+        Pending(Class<T> type) {
+            this.type = type;
+        }
+
+        void complete(Message<byte[]> frame, MessageConverter messageConverter) {
+            try {
+                Object payload = messageConverter.fromMessage(frame, type);
+                if (payload == null) {
+                    throw new MessageConversionException(String.format("Cannot convert reply to %s", type.getName()));
+                }
+                complete(type.cast(payload));
+            } catch (RuntimeException e) {
+                completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Settings of the send lanes of sender sessions. Each {@link SendPriority} has a lane, a queue of up to
+ * {@link #getCapacity(SendPriority)} sends, and a sender session writes the sends of its lanes in weighted
+ * round robin: out of every sum-of-weights frames, a lane with sends waiting gets {@link #getWeight(SendPriority)}
+ * of them. An urgent message thus waits for a few frames at most, whatever the size of the batch ahead of it,
+ * and a bulk lane still gets its share. Sends beyond the capacity of their lane fail right away.
+ * <p>
+ * Sends take the priority they are given, or else the priority of their destination.
+ */
+public class SendLanes {
+
+    private final Map<SendPriority, Integer> weights;
+    private final Map<SendPriority, Integer> capacities;
+    private final Function<String, SendPriority> destinationPriority;
+
+    SendLanes(Map<SendPriority, Integer> weights, Map<SendPriority, Integer> capacities,
+              Function<String, SendPriority> destinationPriority) {
+        this.weights = weights;
+        this.capacities = capacities;
+        this.destinationPriority = destinationPriority;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getWeight(SendPriority priority) {
+        return weights.get(priority);
+    }
+
+    public int getCapacity(SendPriority priority) {
+        return capacities.get(priority);
+    }
+
+    /**
+     * @return the priority of the sends to the destination which are not given one
+     */
+    public SendPriority priorityOf(String destination) {
+        SendPriority priority = destination == null ? null : destinationPriority.apply(destination);
+        return priority != null ? priority : SendPriority.NORMAL;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SendLanes{weights=%s, capacities=%s}", weights, capacities);
+    }
+
+    public static class Builder {
+        final Map<SendPriority, Integer> weights = new EnumMap<>(SendPriority.class);
+        final Map<SendPriority, Integer> capacities = new EnumMap<>(SendPriority.class);
+        Function<String, SendPriority> destinationPriority = destination -> SendPriority.NORMAL;
+
+        Builder() {
+            withLane(SendPriority.HIGH, 8, 1_000);
+            withLane(SendPriority.NORMAL, 4, 10_000);
+            withLane(SendPriority.BULK, 1, 10_000);
+        }
+
+        /**
+         * Default weights are 8, 4 and 1 and default capacities 1,000, 10,000 and 10,000, from high to bulk.
+         */
+        public Builder withLane(SendPriority priority, int weight, int capacity) {
+            if (weight < 1) throw new IllegalArgumentException("weight must be greater than 0");
+            if (capacity < 1) throw new IllegalArgumentException("capacity must be greater than 0");
+            weights.put(priority, weight);
+            capacities.put(priority, capacity);
+            return this;
+        }
+        /**
+         * Priority of each destination, for the sends which are not given one. A null priority is
+         * {@link SendPriority#NORMAL}, which is also the default for every destination.
+         */
+        public Builder withDestinationPriority(Function<String, SendPriority> destinationPriority) {
+            this.destinationPriority = destinationPriority;
+            return this;
+        }
+        public SendLanes build() {
+            return new SendLanes(new EnumMap<>(weights), new EnumMap<>(capacities), destinationPriority);
+        }
+    }
+}
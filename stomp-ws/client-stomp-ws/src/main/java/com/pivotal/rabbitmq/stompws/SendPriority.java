@@ -0,0 +1,19 @@
+package com.pivotal.rabbitmq.stompws;
+
+/**
+ * Priority class of a send, which picks the lane it waits in before it is written, see {@link SendLanes}.
+ */
+public enum SendPriority {
+    /**
+     * Small and urgent messages, e.g. control traffic, which should not wait behind bulk publishes.
+     */
+    HIGH,
+    /**
+     * The default.
+     */
+    NORMAL,
+    /**
+     * Large batches, whose latency matters less than their throughput.
+     */
+    BULK
+}
@@ -0,0 +1,26 @@
+package com.pivotal.rabbitmq.stompws;
+
+/**
+ * How {@link SenderSessionPool} picks the sender session for a destination.
+ * Regardless of the strategy, all the messages sent to the same destination go through the same session
+ * so that their order is preserved.
+ * <p>
+ * {@link #ROUND_ROBIN} and {@link #LEAST_OUTSTANDING_RECEIPTS} remember the session of every destination, up to
+ * 10,000 destinations per client. They suit a fixed set of destinations. Destinations beyond the first 10,000,
+ * e.g. per-request reply queues, are routed by {@link #DESTINATION_HASH}.
+ */
+public enum SenderRouting {
+    /**
+     * The destination's hash code picks the session. It needs no bookkeeping but a few busy destinations
+     * may end up in the same session.
+     */
+    DESTINATION_HASH,
+    /**
+     * Destinations are assigned to sessions in round-robin order the first time they are used.
+     */
+    ROUND_ROBIN,
+    /**
+     * Destinations are assigned to the session with the fewest outstanding receipts the first time they are used.
+     */
+    LEAST_OUTSTANDING_RECEIPTS
+}
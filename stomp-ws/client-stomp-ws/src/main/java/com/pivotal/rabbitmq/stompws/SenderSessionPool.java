@@ -0,0 +1,345 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Pool of sender sessions used by a {@link RabbitStompWsClient}. Each destination is bound to a single
+ * session, chosen according to the {@link SenderRouting}, so that per-destination ordering is preserved
+ * while the overall publish rate is spread across several WebSockets.
+ */
+class SenderSessionPool {
+
+    static final Exception undelivered = new Exception("Undelivered");
+
+    private final List<Sender> senders;
+    private final SenderRouting routing;
+    private final Map<String, Sender> assignments = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    /**
+     * Destinations assigned a session by {@link SenderRouting#ROUND_ROBIN} or
+     * {@link SenderRouting#LEAST_OUTSTANDING_RECEIPTS}, further destinations are routed by their hash.
+     */
+    int maxAssignments = 10_000;
+    /**
+     * Index of the sender a destination should go through, e.g. the one pinned to the node of its queue,
+     * or null to route it according to the {@link SenderRouting}.
+     */
+    Function<String, Integer> locality = destination -> null;
+
+    SenderSessionPool(List<? extends Supplier<CompletionStage<StompSession>>> sessions, SenderRouting routing) {
+        this(sessions, routing, session -> null);
+    }
+
+    SenderSessionPool(List<? extends Supplier<CompletionStage<StompSession>>> sessions, SenderRouting routing,
+                      Function<Integer, WindowedSender> windows) {
+        this(sessions, routing, windows, ClientMetrics.NONE);
+    }
+
+    SenderSessionPool(List<? extends Supplier<CompletionStage<StompSession>>> sessions, SenderRouting routing,
+                      Function<Integer, WindowedSender> windows, ClientMetrics metrics) {
+        this(sessions, routing, windows, (i, delivery) -> null, metrics);
+    }
+
+    SenderSessionPool(List<? extends Supplier<CompletionStage<StompSession>>> sessions, SenderRouting routing,
+                      Function<Integer, WindowedSender> windows,
+                      BiFunction<Integer, SpooledSender.Delivery, SpooledSender> spools, ClientMetrics metrics) {
+        if (sessions.isEmpty()) throw new IllegalArgumentException("At least one sender session is required");
+        List<Sender> senders = new ArrayList<>(sessions.size());
+        for (int i = 0; i < sessions.size(); i++) {
+            Sender sender = new Sender(sessions.get(i), windows.apply(i), metrics);
+            sender.spool = spools.apply(i, sender::deliver);
+            senders.add(sender);
+        }
+        this.senders = Collections.unmodifiableList(senders);
+        this.routing = routing;
+        metrics.inFlight(this, SenderSessionPool::outstanding);
+    }
+
+    int outstanding() {
+        int outstanding = 0;
+        for (Sender sender : senders) outstanding += sender.outstanding();
+        return outstanding;
+    }
+
+    List<Sender> senders() {
+        return senders;
+    }
+
+    /**
+     * Releases the spools, if any, and closes the sessions. Frames not receipted yet stay in their journal.
+     */
+    void stop() {
+        for (Sender sender : senders) {
+            if (sender.spool != null) sender.spool.stop();
+            if (sender.session instanceof SessionSupplier) ((SessionSupplier) sender.session).close();
+        }
+    }
+
+    CompletionStage<?> whenReady() {
+        CompletableFuture<?>[] ready = senders.stream()
+                .map(sender -> sender.session.get().toCompletableFuture())
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(ready);
+    }
+
+    Sender select(String destination) {
+        if (senders.size() == 1 || destination == null) return senders.get(0);
+        Integer local = locality.apply(destination);
+        if (local != null) return senders.get(local);
+        if (routing == SenderRouting.DESTINATION_HASH) return byHash(destination);
+        Sender assigned = assignments.get(destination);
+        if (assigned != null) return assigned;
+        // assignments are never dropped, a destination may have sends in flight on its session
+        if (assignments.size() >= maxAssignments) return byHash(destination);
+        return assignments.computeIfAbsent(destination,
+                d -> routing == SenderRouting.ROUND_ROBIN ? nextRoundRobin() : leastOutstanding());
+    }
+
+    private Sender byHash(String destination) {
+        return senders.get(Math.floorMod(destination.hashCode(), senders.size()));
+    }
+
+    private Sender nextRoundRobin() {
+        return senders.get(Math.floorMod(next.getAndIncrement(), senders.size()));
+    }
+
+    private Sender leastOutstanding() {
+        Sender selected = senders.get(0);
+        for (Sender sender : senders) {
+            if (sender.outstanding() < selected.outstanding()) selected = sender;
+        }
+        return selected;
+    }
+
+    /**
+     * Told once whether a frame was receipted, with a null failure if it was.
+     */
+    interface Settlement {
+        void settle(Throwable failure);
+
+        default Runnable onReceipt() {
+            return () -> settle(null);
+        }
+
+        default Runnable onReceiptLost() {
+            return () -> settle(undelivered);
+        }
+
+        static Settlement of(CompletableFuture<Boolean> sent) {
+            return failure -> {
+                if (failure == null) sent.complete(true);
+                else sent.completeExceptionally(failure);
+            };
+        }
+    }
+
+    /**
+     * Settlement shared by many frames, whose receipt tasks are created once.
+     */
+    static class ReusableSettlement implements Settlement {
+        private final Settlement delegate;
+        private final Runnable onReceipt = () -> settle(null);
+        private final Runnable onReceiptLost = () -> settle(undelivered);
+
+        ReusableSettlement(Settlement delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void settle(Throwable failure) {
+            delegate.settle(failure);
+        }
+
+        @Override
+        public Runnable onReceipt() {
+            return onReceipt;
+        }
+
+        @Override
+        public Runnable onReceiptLost() {
+            return onReceiptLost;
+        }
+    }
+
+    static class Sender {
+        private final Supplier<CompletionStage<StompSession>> session;
+        private final WindowedSender window;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong receipts = new AtomicLong();
+        private final ClientMetrics metrics;
+        private SpooledSender spool;
+        /**
+         * Admits the sends with a future, or null if they are written as soon as they are made.
+         */
+        CongestionController congestion;
+        /**
+         * Queues the sends with a future by priority, or null if they are written in the order they are made.
+         */
+        LaneScheduler lanes;
+        SendLanes laneSettings;
+
+        Sender(Supplier<CompletionStage<StompSession>> session, WindowedSender window, ClientMetrics metrics) {
+            this.session = session;
+            this.window = window;
+            this.metrics = metrics;
+        }
+
+        int outstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * @return the confirm window of this sender or null if every frame requests its own receipt
+         */
+        WindowedSender window() {
+            return window;
+        }
+
+        /**
+         * @return the congestion controller of this sender or null if sends are not held back
+         */
+        CongestionController congestion() {
+            return congestion;
+        }
+
+        /**
+         * @return whether every send needs a future, which is the case when sends may wait or be replayed
+         * before they are written
+         */
+        boolean sendsWithFuture() {
+            return spool != null || congestion != null || lanes != null;
+        }
+
+        /**
+         * @return the outbound spool of this sender or null if sends fail while it is disconnected
+         */
+        SpooledSender spool() {
+            return spool;
+        }
+
+        <T> CompletionStage<?> send(StompHeaders headers, T payload) {
+            return send(headers, payload, null);
+        }
+
+        /**
+         * @param priority lane of the send, or null for the lane of its destination. Ignored without lanes
+         */
+        <T> CompletionStage<?> send(StompHeaders headers, T payload, SendPriority priority) {
+            CompletableFuture<Boolean> sent = new CompletableFuture<>();
+            ClientMetrics.DestinationMeters meters = metrics.destination(headers.getDestination());
+            long start = System.nanoTime();
+            outstanding.incrementAndGet();
+            meters.sent();
+            sent.whenComplete((ok, throwable) -> {
+                outstanding.decrementAndGet();
+                meters.settled(start, throwable);
+            });
+            if (lanes != null) {
+                lanes.send(priority != null ? priority : laneSettings.priorityOf(headers.getDestination()), sent,
+                        () -> admit(headers, payload, sent));
+                return sent;
+            }
+            admit(headers, payload, sent);
+            return sent;
+        }
+
+        private void admit(StompHeaders headers, Object payload, CompletableFuture<Boolean> sent) {
+            if (congestion != null) congestion.send(sent, () -> dispatch(headers, payload, sent));
+            else dispatch(headers, payload, sent);
+        }
+
+        private void dispatch(StompHeaders headers, Object payload, CompletableFuture<Boolean> sent) {
+            if (spool != null) spool.send(headers, payload, sent);
+            else write(headers, payload, Settlement.of(sent));
+        }
+
+        /**
+         * Sends a frame without a future, for {@link DestinationHandle}. A reusable settlement, see
+         * {@link #settlement}, is told of its receipt. Without one, the frame requests no receipt, unless
+         * the confirm window requests one for it. Not supported with a spool, which needs a future per frame.
+         */
+        void send(StompHeaders headers, Object payload, ClientMetrics.DestinationMeters meters,
+                  Settlement settlement) {
+            meters.sent();
+            if (settlement != null) outstanding.incrementAndGet();
+            write(headers, payload, settlement);
+        }
+
+        /**
+         * @return a settlement for many frames, which keeps the count of outstanding receipts and tells the
+         * callback
+         */
+        Settlement settlement(ClientMetrics.DestinationMeters meters, RabbitStompWsClient.SendCallback callback) {
+            return new ReusableSettlement(failure -> {
+                outstanding.decrementAndGet();
+                meters.settled(failure);
+                callback.settled(failure);
+            });
+        }
+
+        private void write(StompHeaders headers, Object payload, Settlement settlement) {
+            CompletableFuture<StompSession> current = session.get().toCompletableFuture();
+            if (current.isDone() && !current.isCompletedExceptionally()) {
+                deliver(current.join(), headers, payload, settlement);
+                return;
+            }
+            current.whenComplete((stompSession, throwable) -> {
+                if (throwable != null) {
+                    if (settlement != null) settlement.settle(throwable);
+                    return;
+                }
+                // most likely on the thread which reads the session, which must not wait for its own receipts
+                deliver(stompSession, headers, payload, settlement, false);
+            });
+        }
+
+        private void deliver(StompSession stompSession, StompHeaders headers, Object payload,
+                             CompletableFuture<Boolean> sent) {
+            deliver(stompSession, headers, payload, Settlement.of(sent), true);
+        }
+
+        private void deliver(StompSession stompSession, StompHeaders headers, Object payload,
+                             Settlement settlement) {
+            deliver(stompSession, headers, payload, settlement, true);
+        }
+
+        /**
+         * Frames which are settled request a receipt, set on a copy of their headers unless the window does it:
+         * callers may send several frames with the same headers.
+         *
+         * @param mayBlock whether the calling thread may wait for room in the window, see {@link WindowedSender}
+         */
+        private void deliver(StompSession stompSession, StompHeaders headers, Object payload,
+                             Settlement settlement, boolean mayBlock) {
+            if (window != null) { window.send(stompSession, headers, payload, settlement, mayBlock); return;}
+            try {
+                if (settlement == null) { stompSession.send(headers, payload); return;}
+                if (headers.getReceipt() == null) {
+                    StompHeaders receipted = new StompHeaders();
+                    receipted.putAll(headers);
+                    receipted.setReceipt(Long.toString(receipts.getAndIncrement()));
+                    headers = receipted;
+                }
+                StompSession.Receiptable receipt = stompSession.send(headers, payload);
+                receipt.addReceiptLostTask(settlement.onReceiptLost());
+                receipt.addReceiptTask(settlement.onReceipt());
+            }catch(Throwable e) {
+                if (settlement != null) settlement.settle(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time, in the order they are submitted, on a {@link TaskScheduler} shared with other
+ * executors: the guarantees of a single thread executor without a thread of its own. Each task sees the
+ * effects of the tasks before it. Once shut down, tasks already submitted still run and new ones are rejected.
+ */
+class SerialExecutor implements Executor {
+
+    private static final Logger log = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private final TaskScheduler taskScheduler;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    SerialExecutor(TaskScheduler taskScheduler) {
+        if (taskScheduler == null) throw new IllegalArgumentException("A TaskScheduler is required");
+        this.taskScheduler = taskScheduler;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (shutdown) throw new RejectedExecutionException("Executor shut down");
+        tasks.add(task);
+        // whoever queues the first task schedules the run, which goes on until the queue is empty
+        if (queued.getAndIncrement() == 0) {
+            try {
+                taskScheduler.schedule(this::run, new Date());
+            } catch (RejectedExecutionException e) {
+                tasks.clear();
+                queued.set(0);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Submits the task once the delay has elapsed, unless the executor is shut down by then.
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return taskScheduler.schedule(() -> {
+            try {
+                execute(task);
+            } catch (RejectedExecutionException e) {
+                log.debug("Dropping task scheduled before shutdown");
+            }
+        }, new Date(System.currentTimeMillis() + delayMillis));
+    }
+
+    void shutdown() {
+        shutdown = true;
+    }
+
+    boolean isShutdown() {
+        return shutdown;
+    }
+
+    private void run() {
+        do {
+            try {
+                tasks.poll().run();
+            } catch (RuntimeException e) {
+                log.error("Task failed", e);
+            }
+        } while (queued.decrementAndGet() > 0);
+    }
+}
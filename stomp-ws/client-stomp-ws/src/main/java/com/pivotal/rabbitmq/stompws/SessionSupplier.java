@@ -0,0 +1,26 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.messaging.simp.stomp.StompSession;
+
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * Supplies the current {@link StompSession}, connecting if there is none, and notifies listeners whenever
+ * a session is established or lost so that they can react straight away rather than poll.
+ */
+interface SessionSupplier extends Supplier<CompletionStage<StompSession>> {
+
+    void addListener(Listener listener);
+
+    /**
+     * Disconnects the current session, if any, and stops connecting. Listeners are no longer notified.
+     */
+    default void close() {
+    }
+
+    interface Listener {
+        void connected(StompSession session);
+        void lost(Throwable cause);
+    }
+}
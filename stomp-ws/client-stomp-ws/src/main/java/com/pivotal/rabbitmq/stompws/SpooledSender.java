@@ -0,0 +1,267 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.MimeType;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Sends the frames of a sender session through an {@link OutboundJournal}. A send is settled once its frame
+ * is receipted, however many connections it takes: frames are written straight away while the session is
+ * connected, and kept in the journal otherwise. When the session is lost, it is reconnected following the
+ * {@link Backoff} and every frame not receipted yet is written again, in order, before any new one.
+ * <p>
+ * Frames are encoded when they are spooled, and replayed as an {@link Encoded} payload which the
+ * {@link EncodedPayloadConverter} passes through as is.
+ */
+class SpooledSender implements SessionSupplier.Listener {
+
+    /**
+     * Writes a frame on a session and settles the future with its receipt.
+     */
+    interface Delivery {
+        void deliver(StompSession session, StompHeaders headers, Object payload, CompletableFuture<Boolean> sent);
+    }
+
+    private final Logger log;
+    private final OutboundJournal journal;
+    private final SessionSupplier sessions;
+    private final Delivery delivery;
+    private final MessageConverter converter;
+    private final TaskScheduler taskScheduler;
+    private final Backoff backoff;
+    private final Map<OutboundJournal.Entry, CompletableFuture<Boolean>> settles = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private volatile StompSession current;
+    /**
+     * The session most recently reported connected and the number of sessions reported connected or lost so
+     * far, both guarded by the write lock. A replay only goes ahead if no session was reported since.
+     */
+    private StompSession latest;
+    private long generation;
+    private volatile boolean stopped;
+    private boolean connecting;
+    private int attempts;
+    private ScheduledFuture<?> reconnect;
+
+    SpooledSender(String name, OutboundJournal journal, SessionSupplier sessions, Delivery delivery,
+                  MessageConverter converter, TaskScheduler taskScheduler, Backoff backoff) {
+        this.log = LoggerFactory.getLogger(SpooledSender.class.getName() + "." + name);
+        this.journal = journal;
+        this.sessions = sessions;
+        this.delivery = delivery;
+        this.converter = converter;
+        this.taskScheduler = taskScheduler;
+        this.backoff = backoff;
+        sessions.addListener(this);
+        int recovered = journal.size();
+        if (recovered > 0) {
+            log.info("Recovered {} frames from the journal", recovered);
+            connect();
+        }
+    }
+
+    int spooled() {
+        return journal.size();
+    }
+
+    void send(StompHeaders headers, Object payload, CompletableFuture<Boolean> sent) {
+        synchronized (writeLock) {
+            OutboundJournal.Entry entry;
+            Encoded encoded;
+            try {
+                encoded = encode(headers, payload);
+                entry = journal.append(encoded.headers, encoded.body);
+            } catch (RuntimeException e) {
+                sent.completeExceptionally(e);
+                return;
+            }
+            settles.put(entry, sent);
+            StompSession session = current;
+            if (session != null) write(session, entry, encoded);
+            else connect();
+        }
+    }
+
+    void stop() {
+        stopped = true;
+        synchronized (this) {
+            if (reconnect != null) reconnect.cancel(false);
+        }
+        synchronized (writeLock) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Schedules the replay of the journal on the session. The session may be reported both by the supplier
+     * and by {@link #connect()}, it is replayed once.
+     */
+    @Override
+    public void connected(StompSession session) {
+        synchronized (this) {
+            connecting = false;
+            attempts = 0;
+        }
+        long replayGeneration;
+        synchronized (writeLock) {
+            if (session == latest || !session.isConnected()) return;
+            latest = session;
+            replayGeneration = ++generation;
+        }
+        // off the connection's thread, a full confirm window would otherwise hold back the receipts
+        taskScheduler.schedule(() -> replay(session, replayGeneration), new Date());
+    }
+
+    @Override
+    public void lost(Throwable cause) {
+        synchronized (writeLock) {
+            current = null;
+            latest = null;
+            generation++;
+        }
+        synchronized (this) {
+            connecting = false;
+        }
+        if (journal.size() > 0) scheduleReconnect();
+    }
+
+    private void replay(StompSession session, long replayGeneration) {
+        synchronized (writeLock) {
+            // the session was lost, or another one reported, since the replay was scheduled
+            if (stopped || replayGeneration != generation || !session.isConnected()) return;
+            current = session;
+            int replayed = 0;
+            for (OutboundJournal.Entry entry : journal.pending()) {
+                write(session, entry, new Encoded(journal.headers(entry), journal.body(entry)));
+                replayed++;
+            }
+            if (replayed > 0) log.info("Replayed {} frames", replayed);
+        }
+    }
+
+    private void write(StompSession session, OutboundJournal.Entry entry, Encoded encoded) {
+        CompletableFuture<Boolean> attempt = new CompletableFuture<>();
+        attempt.whenComplete((ok, throwable) -> {
+            if (throwable == null) {
+                journal.acknowledge(entry);
+                CompletableFuture<Boolean> sent = settles.remove(entry);
+                if (sent != null) sent.complete(true);
+            } else if (!stopped && session == current && session.isConnected()) {
+                // the receipt timed out on a live session, the frame goes again, out of order
+                log.warn("Frame not receipted, writing it again", throwable);
+                taskScheduler.schedule(() -> retry(session, entry), new Date());
+            }
+            // otherwise the frame is written again once the session is restored
+        });
+        delivery.deliver(session, encoded.headers, encoded, attempt);
+    }
+
+    private void retry(StompSession session, OutboundJournal.Entry entry) {
+        synchronized (writeLock) {
+            if (stopped || session != current || !journal.isPending(entry)) return;
+            write(session, entry, new Encoded(journal.headers(entry), journal.body(entry)));
+        }
+    }
+
+    private synchronized void connect() {
+        if (stopped || connecting || (reconnect != null && !reconnect.isDone())) return;
+        connecting = true;
+        reconnect = null;
+        sessions.get().whenComplete((session, throwable) -> {
+            // a session connected earlier is not notified again
+            if (throwable == null) {
+                connected(session);
+                return;
+            }
+            synchronized (this) {
+                connecting = false;
+            }
+            scheduleReconnect();
+        });
+    }
+
+    private synchronized void scheduleReconnect() {
+        if (stopped || connecting || (reconnect != null && !reconnect.isDone())) return;
+        long delay = backoff.delayMillis(attempts++);
+        log.info("Reconnecting in {} ms (attempt {}), {} frames spooled", delay, attempts, journal.size());
+        reconnect = taskScheduler.schedule(() -> {
+            synchronized (this) {
+                reconnect = null;
+            }
+            connect();
+        }, new Date(System.currentTimeMillis() + delay));
+    }
+
+    private Encoded encode(StompHeaders headers, Object payload) {
+        if (payload instanceof Encoded) return (Encoded) payload;
+        MessageHeaderAccessor accessor = new MessageHeaderAccessor();
+        if (headers.getContentType() != null) accessor.setContentType(headers.getContentType());
+        accessor.setLeaveMutable(true);
+        Message<?> message = converter.toMessage(payload, accessor.getMessageHeaders());
+        if (message == null || !(message.getPayload() instanceof byte[])) {
+            throw new MessageConversionException("Unable to convert payload with type='"
+                    + payload.getClass().getName() + "'");
+        }
+        StompHeaders encoded = new StompHeaders();
+        encoded.putAll(headers);
+        MimeType contentType = accessor.getContentType();
+        if (contentType != null) encoded.setContentType(contentType);
+        return new Encoded(encoded, (byte[]) message.getPayload());
+    }
+
+    /**
+     * Payload already encoded by the client's converter.
+     */
+    static class Encoded {
+        final StompHeaders headers;
+        final byte[] body;
+
+        Encoded(StompHeaders headers, byte[] body) {
+            this.headers = headers;
+            this.body = body;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Encoded{%d bytes}", body.length);
+        }
+    }
+
+    /**
+     * Passes {@link Encoded} payloads through, delegating everything else. A byte[] would not do, the
+     * converters would refuse it with any content type but application/octet-stream.
+     */
+    static class EncodedPayloadConverter implements MessageConverter {
+        private final MessageConverter delegate;
+
+        EncodedPayloadConverter(MessageConverter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object fromMessage(Message<?> message, Class<?> targetClass) {
+            return delegate.fromMessage(message, targetClass);
+        }
+
+        @Override
+        public Message<?> toMessage(Object payload, MessageHeaders headers) {
+            if (payload instanceof Encoded) return MessageBuilder.createMessage(((Encoded) payload).body, headers);
+            return delegate.toMessage(payload, headers);
+        }
+    }
+}
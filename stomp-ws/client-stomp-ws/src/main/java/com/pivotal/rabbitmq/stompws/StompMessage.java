@@ -0,0 +1,36 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.messaging.simp.stomp.StompHeaders;
+
+/**
+ * Headers and payload of a message sent or received through the {@link ReactiveRabbitStompWsClient}.
+ */
+public final class StompMessage<T> {
+
+    private final StompHeaders headers;
+    private final T payload;
+
+    public StompMessage(StompHeaders headers, T payload) {
+        this.headers = headers;
+        this.payload = payload;
+    }
+
+    public static <T> StompMessage<T> to(String destination, T payload) {
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination(destination);
+        return new StompMessage<>(headers, payload);
+    }
+
+    public StompHeaders getHeaders() {
+        return headers;
+    }
+
+    public T getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "StompMessage{" + headers + ", " + payload + "}";
+    }
+}
@@ -0,0 +1,100 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+
+/**
+ * Settings of a subscription to a RabbitMQ stream, e.g. {@code /amq/queue/events}. The subscription tracks
+ * the offset of the last message it acknowledged and stores it in the {@link OffsetStore} every
+ * {@link #getCheckpointInterval()}, and once more when it is cancelled or the client stopped. Whenever it
+ * subscribes, after a reconnection or a restart, it resumes right after the last offset it knows of, from
+ * memory or else from the store. Only a consumer without any offset starts from {@link #getStart()}.
+ * <p>
+ * Messages are delivered at least once: those delivered but not acknowledged yet when the session is lost,
+ * and those acknowledged after the last checkpoint when the client crashes, are delivered again.
+ */
+public class StreamConsumption {
+
+    private final String name;
+    private final StreamOffset start;
+    private final OffsetStore offsetStore;
+    private final Duration checkpointInterval;
+
+    StreamConsumption(String name, StreamOffset start, OffsetStore offsetStore, Duration checkpointInterval) {
+        this.name = name;
+        this.start = start;
+        this.offsetStore = offsetStore;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @param name of the consumer in the offset store, which has to be unique among the consumers of the store
+     */
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public StreamOffset getStart() {
+        return start;
+    }
+
+    public OffsetStore getOffsetStore() {
+        return offsetStore;
+    }
+
+    public Duration getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StreamConsumption{name=%s, start=%s, offsetStore=%s, checkpointInterval=%s}", name,
+                start, offsetStore, checkpointInterval);
+    }
+
+    public static class Builder {
+        final String name;
+        StreamOffset start = StreamOffset.next();
+        OffsetStore offsetStore;
+        Duration checkpointInterval = Duration.ofSeconds(1);
+
+        Builder(String name) {
+            if (name == null || name.isEmpty()) throw new IllegalArgumentException("A name is required");
+            this.name = name;
+        }
+
+        /**
+         * Where to start without a stored offset. Default is {@link StreamOffset#next()}.
+         */
+        public Builder withStart(StreamOffset start) {
+            this.start = start;
+            return this;
+        }
+        /**
+         * Default is a {@link FileOffsetStore} in the {@code stream-offsets} directory of the working directory.
+         */
+        public Builder withOffsetStore(OffsetStore offsetStore) {
+            this.offsetStore = offsetStore;
+            return this;
+        }
+        /**
+         * How often the last acknowledged offset is stored, if it changed. Default is 1s.
+         */
+        public Builder withCheckpointInterval(Duration checkpointInterval) {
+            if (checkpointInterval.isNegative() || checkpointInterval.isZero()) {
+                throw new IllegalArgumentException("checkpointInterval must be positive");
+            }
+            this.checkpointInterval = checkpointInterval;
+            return this;
+        }
+        public StreamConsumption build() {
+            return new StreamConsumption(name, start,
+                    offsetStore != null ? offsetStore : new FileOffsetStore(Paths.get("stream-offsets")),
+                    checkpointInterval);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.time.Instant;
+
+/**
+ * Where a subscription to a RabbitMQ stream starts reading, sent as the {@code x-stream-offset} header of
+ * the SUBSCRIBE frame.
+ */
+public class StreamOffset {
+
+    private static final StreamOffset first = new StreamOffset("first");
+    private static final StreamOffset last = new StreamOffset("last");
+    private static final StreamOffset next = new StreamOffset("next");
+
+    private final String header;
+
+    private StreamOffset(String header) {
+        this.header = header;
+    }
+
+    /**
+     * The first message still in the stream.
+     */
+    public static StreamOffset first() {
+        return first;
+    }
+
+    /**
+     * The last chunk of messages written to the stream.
+     */
+    public static StreamOffset last() {
+        return last;
+    }
+
+    /**
+     * The messages written from now on.
+     */
+    public static StreamOffset next() {
+        return next;
+    }
+
+    public static StreamOffset offset(long offset) {
+        if (offset < 0) throw new IllegalArgumentException("offset must not be negative");
+        return new StreamOffset("offset=" + offset);
+    }
+
+    /**
+     * The messages written from that time on, to the second.
+     */
+    public static StreamOffset timestamp(Instant timestamp) {
+        return new StreamOffset("timestamp=" + timestamp.getEpochSecond());
+    }
+
+    public String header() {
+        return header;
+    }
+
+    @Override
+    public String toString() {
+        return header;
+    }
+}
@@ -0,0 +1,97 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.slf4j.Logger;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.util.OptionalLong;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offset of a subscription to a stream, see {@link StreamConsumption}. Acknowledged offsets are recorded in
+ * memory, hence the ack path does not touch the store, and checkpointed on the TaskScheduler.
+ */
+class StreamTracker {
+
+    static final String offsetHeader = "x-stream-offset";
+
+    private final Logger log;
+    private final StreamConsumption consumption;
+    private final AtomicLong acknowledged = new AtomicLong(-1);
+    private final ScheduledFuture<?> checkpoints;
+    private long stored = -1;
+    private boolean stopped;
+
+    StreamTracker(Logger log, StreamConsumption consumption, TaskScheduler taskScheduler) {
+        if (taskScheduler == null) throw new IllegalArgumentException("A TaskScheduler is required to checkpoint offsets");
+        this.log = log;
+        this.consumption = consumption;
+        this.checkpoints = taskScheduler.scheduleAtFixedRate(this::checkpoint, consumption.getCheckpointInterval());
+    }
+
+    long acknowledgedOffset() {
+        return acknowledged.get();
+    }
+
+    /**
+     * @return the offset header to subscribe with: right after the last acknowledged or stored offset, or
+     * the start of the consumption if there is none
+     */
+    String resumeFrom() {
+        long last = acknowledged.get();
+        if (last < 0) {
+            OptionalLong stored = load();
+            if (stored.isPresent()) {
+                acknowledged.accumulateAndGet(stored.getAsLong(), Math::max);
+                last = acknowledged.get();
+            }
+        }
+        String offset = last < 0 ? consumption.getStart().header() : StreamOffset.offset(last + 1).header();
+        log.info("Consumer {} resumes from {}", consumption.getName(), offset);
+        return offset;
+    }
+
+    void acknowledged(StompHeaders headers) {
+        String offset = headers.getFirst(offsetHeader);
+        if (offset == null) return;
+        try {
+            long value = Long.parseLong(offset);
+            acknowledged.accumulateAndGet(value, Math::max);
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid {} header {}", offsetHeader, offset);
+        }
+    }
+
+    synchronized void checkpoint() {
+        long offset = acknowledged.get();
+        if (offset <= stored) return;
+        try {
+            consumption.getOffsetStore().store(consumption.getName(), offset);
+            stored = offset;
+        } catch (RuntimeException e) {
+            log.warn("Failed to checkpoint offset {} of {}", offset, consumption.getName(), e);
+        }
+    }
+
+    /**
+     * Stops the periodic checkpoints, after a last one.
+     */
+    synchronized void stop() {
+        if (stopped) return;
+        stopped = true;
+        checkpoints.cancel(false);
+        checkpoint();
+    }
+
+    private synchronized OptionalLong load() {
+        try {
+            OptionalLong offset = consumption.getOffsetStore().load(consumption.getName());
+            if (offset.isPresent()) stored = Math.max(stored, offset.getAsLong());
+            return offset;
+        } catch (RuntimeException e) {
+            log.warn("Failed to load the offset of {}", consumption.getName(), e);
+            return OptionalLong.empty();
+        }
+    }
+}
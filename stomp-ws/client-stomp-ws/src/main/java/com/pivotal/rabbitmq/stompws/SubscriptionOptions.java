@@ -0,0 +1,151 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.time.Duration;
+
+/**
+ * How a subscription acknowledges the messages it receives.
+ * <p>
+ * With {@link AckMode#CLIENT} or {@link AckMode#CLIENT_INDIVIDUAL}, a message is acknowledged once the consumer
+ * returns, and NACKed if it throws. ACKs are batched: they are sent every {@link #getAckEvery()} messages
+ * or once {@link #getAckLinger()} has elapsed, whichever comes first. In {@code client} mode a single
+ * cumulative ACK is sent per batch. A prefetch count bounds the messages the broker sends ahead of the ACKs
+ * so that a slow consumer pushes back on the broker rather than buffering in the client.
+ */
+public class SubscriptionOptions {
+
+    private final AckMode ackMode;
+    private final int prefetch;
+    private final int ackEvery;
+    private final Duration ackLinger;
+    private final DispatchPolicy dispatchPolicy;
+    private final boolean shared;
+    private final StreamConsumption stream;
+
+    SubscriptionOptions(AckMode ackMode, int prefetch, int ackEvery, Duration ackLinger, DispatchPolicy dispatchPolicy,
+                        boolean shared, StreamConsumption stream) {
+        this.ackMode = ackMode;
+        this.prefetch = prefetch;
+        this.ackEvery = ackEvery;
+        this.ackLinger = ackLinger;
+        this.dispatchPolicy = dispatchPolicy;
+        this.shared = shared;
+        this.stream = stream;
+    }
+
+    public static SubscriptionOptions autoAck() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public AckMode getAckMode() {
+        return ackMode;
+    }
+
+    /**
+     * @return maximum number of unacknowledged messages, 0 means no limit
+     */
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public int getAckEvery() {
+        return ackEvery;
+    }
+
+    public Duration getAckLinger() {
+        return ackLinger;
+    }
+
+    public DispatchPolicy getDispatchPolicy() {
+        return dispatchPolicy;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * @return the consumption of the stream the subscription is to, or null if it is not to a stream
+     */
+    public StreamConsumption getStream() {
+        return stream;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SubscriptionOptions{ackMode=%s, prefetch=%d, ackEvery=%d, ackLinger=%s, dispatchPolicy=%s, " +
+                        "shared=%s, stream=%s}", ackMode, prefetch, ackEvery, ackLinger, dispatchPolicy, shared, stream);
+    }
+
+    public static class Builder {
+        AckMode ackMode = AckMode.AUTO;
+        int prefetch;
+        int ackEvery;
+        Duration ackLinger = Duration.ofMillis(100);
+        DispatchPolicy dispatchPolicy = DispatchPolicy.inline();
+        boolean shared;
+        StreamConsumption stream;
+
+        public Builder withAckMode(AckMode ackMode) {
+            this.ackMode = ackMode;
+            return this;
+        }
+        public Builder withPrefetch(int prefetch) {
+            if (prefetch < 0) throw new IllegalArgumentException("prefetch must not be negative");
+            this.prefetch = prefetch;
+            return this;
+        }
+        public Builder withAckEvery(int ackEvery) {
+            if (ackEvery < 1) throw new IllegalArgumentException("ackEvery must be greater than 0");
+            this.ackEvery = ackEvery;
+            return this;
+        }
+        public Builder withAckLinger(Duration ackLinger) {
+            if (ackLinger.isNegative() || ackLinger.isZero()) throw new IllegalArgumentException("ackLinger must be positive");
+            this.ackLinger = ackLinger;
+            return this;
+        }
+        public Builder withDispatchPolicy(DispatchPolicy dispatchPolicy) {
+            this.dispatchPolicy = dispatchPolicy;
+            return this;
+        }
+        /**
+         * Whether the subscription may share a broker subscription with the other subscriptions of the client
+         * to the same destination, or to a topic pattern which covers its own. It only applies to auto-ack
+         * subscriptions to {@code /topic/} destinations, which every subscription receives all the messages of.
+         * Default is false.
+         */
+        public Builder withShared(boolean shared) {
+            this.shared = shared;
+            return this;
+        }
+        /**
+         * Consume a RabbitMQ stream, from the offset the subscription last acknowledged. It takes a client
+         * ack mode, a prefetch and an ordered dispatch policy, so that acknowledged offsets only move forward.
+         */
+        public Builder withStream(StreamConsumption stream) {
+            this.stream = stream;
+            return this;
+        }
+        public SubscriptionOptions build() {
+            // a cumulative ACK or NACK would settle messages which are yet to be consumed
+            if (ackMode == AckMode.CLIENT && (!dispatchPolicy.isOrdered()
+                    || dispatchPolicy.getOverflow() != DispatchPolicy.Overflow.BLOCK)) {
+                throw new IllegalArgumentException("client ack mode requires an ordered dispatch policy which blocks " +
+                        "on overflow, use client-individual ack mode instead");
+            }
+            if (stream != null && (ackMode == AckMode.AUTO || prefetch == 0 || !dispatchPolicy.isOrdered())) {
+                throw new IllegalArgumentException("stream consumption requires a client ack mode, a prefetch and " +
+                        "an ordered dispatch policy");
+            }
+            int ackEvery = this.ackEvery;
+            if (ackEvery == 0) ackEvery = prefetch > 0 ? Math.max(1, prefetch / 4) : 1;
+            // never wait for more messages than the broker is allowed to send
+            if (prefetch > 0) ackEvery = Math.min(ackEvery, prefetch);
+            return new SubscriptionOptions(ackMode, prefetch, ackEvery, ackLinger, dispatchPolicy, shared, stream);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Values keyed by AMQP topic patterns, words separated by dots where {@code *} stands for exactly one word
+ * and {@code #} for zero or more, looked up by routing key. Lookups may run concurrently with updates, they
+ * see a value once it is added and stop seeing it once it is removed.
+ */
+class TopicTrie<V> {
+
+    private final Node<V> root = new Node<>();
+
+    void add(String pattern, V value) {
+        Node<V> node = root;
+        for (String word : words(pattern)) node = node.children.computeIfAbsent(word, w -> new Node<>());
+        node.values.add(value);
+    }
+
+    /**
+     * @return whether the value was there
+     */
+    boolean remove(String pattern, V value) {
+        Node<V> node = root;
+        for (String word : words(pattern)) {
+            node = node.children.get(word);
+            if (node == null) return false;
+        }
+        return node.values.remove(value);
+    }
+
+    boolean isEmpty() {
+        return root.isEmpty();
+    }
+
+    /**
+     * Visits every value whose pattern matches the routing key, once per pattern it was added with.
+     */
+    void match(String routingKey, Consumer<V> visitor) {
+        List<Node<V>> matched = new ArrayList<>(2);
+        collect(root, words(routingKey), 0, matched);
+        for (Node<V> node : matched) node.values.forEach(visitor);
+    }
+
+    /**
+     * A pattern with several # may match the same routing key in several ways, its node is collected once.
+     */
+    private static <V> void collect(Node<V> node, String[] words, int index, List<Node<V>> matched) {
+        if (index == words.length && !node.values.isEmpty() && !matched.contains(node)) matched.add(node);
+        Node<V> hash = node.children.get("#");
+        if (hash != null) {
+            for (int i = index; i <= words.length; i++) collect(hash, words, i, matched);
+        }
+        if (index == words.length) return;
+        Node<V> word = node.children.get(words[index]);
+        if (word != null) collect(word, words, index + 1, matched);
+        Node<V> star = node.children.get("*");
+        if (star != null) collect(star, words, index + 1, matched);
+    }
+
+    /**
+     * @return whether the routing key matches the pattern
+     */
+    static boolean matches(String pattern, String routingKey) {
+        return covers(words(pattern), 0, words(routingKey), 0);
+    }
+
+    /**
+     * @return whether every routing key the second pattern matches is matched by the first one as well
+     */
+    static boolean covers(String pattern, String other) {
+        return covers(words(pattern), 0, words(other), 0);
+    }
+
+    private static boolean covers(String[] p, int i, String[] q, int j) {
+        if (i == p.length) return j == q.length;
+        if (p[i].equals("#")) return covers(p, i + 1, q, j) || (j < q.length && covers(p, i, q, j + 1));
+        if (j == q.length || q[j].equals("#")) return false;
+        if (!p[i].equals("*") && !p[i].equals(q[j])) return false;
+        return covers(p, i + 1, q, j + 1);
+    }
+
+    private static String[] words(String pattern) {
+        return pattern.isEmpty() ? new String[0] : pattern.split("\\.", -1);
+    }
+
+    private static class Node<V> {
+        final Map<String, Node<V>> children = new ConcurrentHashMap<>();
+        final List<V> values = new CopyOnWriteArrayList<>();
+
+        boolean isEmpty() {
+            if (!values.isEmpty()) return false;
+            for (Node<V> child : children.values()) {
+                if (!child.isEmpty()) return false;
+            }
+            return true;
+        }
+    }
+}
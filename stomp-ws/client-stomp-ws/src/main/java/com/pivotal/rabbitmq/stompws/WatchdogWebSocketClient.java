@@ -0,0 +1,162 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Declares dead the sessions which have not received anything for the {@link Heartbeat#getReadIdleTimeout()}.
+ * The STOMP client is told of a transport error straight away, so that the session is reconnected, while the
+ * connection is closed on the side: on a half-open connection, closing may take as long as the send timeout.
+ * <p>
+ * The timeout follows the heartbeats agreed in the CONNECTED frame: a session is not watched once connected
+ * if the broker does not heartbeat, and the timeout is stretched to three intervals if the broker heartbeats
+ * less often than the timeout. Until CONNECTED, the handshake itself is held to the timeout.
+ */
+class WatchdogWebSocketClient implements WebSocketClient {
+
+    private static final Logger log = LoggerFactory.getLogger(WatchdogWebSocketClient.class);
+
+    private final WebSocketClient delegate;
+    private final Heartbeat heartbeat;
+    private final TaskScheduler taskScheduler;
+    private final Runnable onTimeout;
+
+    WatchdogWebSocketClient(WebSocketClient delegate, Heartbeat heartbeat, TaskScheduler taskScheduler,
+                            Runnable onTimeout) {
+        if (taskScheduler == null) throw new IllegalArgumentException("A TaskScheduler is required to watch sessions");
+        this.delegate = delegate;
+        this.heartbeat = heartbeat;
+        this.taskScheduler = taskScheduler;
+        this.onTimeout = onTimeout;
+    }
+
+    @Override
+    public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler webSocketHandler, String uriTemplate,
+                                                         Object... uriVariables) {
+        return delegate.doHandshake(new WatchdogHandler(webSocketHandler), uriTemplate, uriVariables);
+    }
+
+    @Override
+    public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler webSocketHandler,
+                                                         WebSocketHttpHeaders headers, URI uri) {
+        return delegate.doHandshake(new WatchdogHandler(webSocketHandler), headers, uri);
+    }
+
+    /**
+     * Records the time of the last message received on its connection, one handler per connection.
+     */
+    class WatchdogHandler extends WebSocketHandlerDecorator {
+        private volatile long lastRead;
+        private volatile long timeoutNanos = heartbeat.getReadIdleTimeout().toNanos();
+        private volatile boolean negotiated;
+        private volatile boolean expired;
+        private ScheduledFuture<?> check;
+
+        WatchdogHandler(WebSocketHandler delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+            lastRead = System.nanoTime();
+            synchronized (this) {
+                check = taskScheduler.scheduleAtFixedRate(() -> check(session),
+                        new Date(System.currentTimeMillis() + heartbeat.getCheckInterval().toMillis()),
+                        heartbeat.getCheckInterval().toMillis());
+            }
+            super.afterConnectionEstablished(session);
+        }
+
+        @Override
+        public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+            lastRead = System.nanoTime();
+            if (!negotiated) negotiate(session, message);
+            super.handleMessage(session, message);
+        }
+
+        @Override
+        public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+            cancel();
+            super.afterConnectionClosed(session, closeStatus);
+        }
+
+        private void check(WebSocketSession session) {
+            long idle = System.nanoTime() - lastRead;
+            if (expired || idle < timeoutNanos) return;
+            expired = true;
+            cancel();
+            log.warn("Nothing received for {} ms on session {}, declaring it dead", idle / 1_000_000, session.getId());
+            try {
+                super.handleTransportError(session, new TimeoutException(String.format(
+                        "Nothing received for %d ms", idle / 1_000_000)));
+            } catch (Exception e) {
+                log.debug("Failed to handle read idle timeout", e);
+            }
+            onTimeout.run();
+            taskScheduler.schedule(() -> {
+                try {
+                    session.close(CloseStatus.SESSION_NOT_RELIABLE);
+                } catch (Exception e) {
+                    log.debug("Failed to close dead session {}", session.getId(), e);
+                }
+            }, new Date());
+        }
+
+        private void negotiate(WebSocketSession session, WebSocketMessage<?> message) {
+            long interval = brokerHeartbeat(message);
+            if (interval < 0) return;
+            negotiated = true;
+            if (interval == 0) {
+                log.warn("Broker does not send heartbeats, session {} is not watched", session.getId());
+                cancel();
+            } else if (interval >= heartbeat.getReadIdleTimeout().toMillis()) {
+                log.warn("Broker heartbeats every {} ms, session {} is declared dead after {} ms", interval,
+                        session.getId(), 3 * interval);
+                timeoutNanos = 3 * interval * 1_000_000;
+            }
+        }
+
+        private synchronized void cancel() {
+            if (check != null) check.cancel(false);
+        }
+    }
+
+    /**
+     * @return how often the broker agreed to heartbeat, according to a CONNECTED frame, or -1 if the message
+     * is not a CONNECTED frame
+     */
+    long brokerHeartbeat(WebSocketMessage<?> message) {
+        ByteBuffer payload = message.getPayload() instanceof ByteBuffer
+                ? ((ByteBuffer) message.getPayload()).duplicate()
+                : StandardCharsets.UTF_8.encode(message.getPayload().toString());
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        String frame = new String(bytes, StandardCharsets.UTF_8);
+        if (!frame.startsWith("CONNECTED\n") && !frame.startsWith("CONNECTED\r\n")) return -1;
+        long receiveInterval = heartbeat.getReceiveInterval().toMillis();
+        for (String header : frame.split("\r?\n")) {
+            if (header.isEmpty()) break;
+            if (!header.startsWith("heart-beat:")) continue;
+            String[] intervals = header.substring("heart-beat:".length()).split(",");
+            long sendInterval = Long.parseLong(intervals[0].trim());
+            return sendInterval == 0 ? 0 : Math.max(sendInterval, receiveInterval);
+        }
+        return 0;
+    }
+}
@@ -1,51 +1,164 @@
 package com.pivotal.rabbitmq.stompws;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.context.Lifecycle;
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.simp.stomp.*;
 import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.web.socket.WebSocketHttpHeaders;
 import org.springframework.web.socket.client.WebSocketClient;
-import org.springframework.web.socket.client.standard.StandardWebSocketClient;
 import org.springframework.web.socket.messaging.WebSocketStompClient;
 
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
-import java.util.function.Supplier;
+import java.util.function.Function;
 
 public class WebSocketConnectionProvider {
 
     private TaskScheduler taskScheduler;
-    private String url;
+    private EndpointSelector endpoints;
+    private Function<String, String> queueLocator;
     private WebSocketHttpHeaders handshakeHeaders;
     private StompHeaders connectHeader;
+    private int senderSessions;
+    private int subscriberSessions;
+    private SenderRouting senderRouting;
+    private ConfirmWindow confirmWindow;
+    private WriteCoalescing writeCoalescing;
+    private OutboundSpool outboundSpool;
+    private CongestionControl congestionControl;
+    private SendLanes sendLanes;
+    private Heartbeat heartbeat;
+    private Backoff reconnectBackoff;
+    private MessageConverter messageConverter;
+    private WebSocketTransport transport;
+    private WebSocketClient webSocketClient;
+    private boolean ownsWebSocketClient;
+    private ThreadPoolTaskScheduler managementScheduler;
+    private MeterRegistry meterRegistry;
 
-    WebSocketConnectionProvider(String hostname, int port,
+    WebSocketConnectionProvider(EndpointSelector endpoints,
+                                       Function<String, String> queueLocator,
                                        WebSocketHttpHeaders handshakeHeaders,
                                        StompHeaders connectHeader,
-                                       TaskScheduler taskScheduler) {
-        this.handshakeHeaders = handshakeHeaders;
+                                       TaskScheduler taskScheduler,
+                                       int senderSessions,
+                                       int subscriberSessions,
+                                       SenderRouting senderRouting,
+                                       ConfirmWindow confirmWindow,
+                                       WriteCoalescing writeCoalescing,
+                                       OutboundSpool outboundSpool,
+                                       CongestionControl congestionControl,
+                                       SendLanes sendLanes,
+                                       Heartbeat heartbeat,
+                                       Backoff reconnectBackoff,
+                                       MessageConverter messageConverter,
+                                       WebSocketTransport transport,
+                                       WebSocketClient webSocketClient,
+                                       MeterRegistry meterRegistry) {
+        this.handshakeHeaders = transport.handshakeHeaders(handshakeHeaders);
         this.connectHeader = connectHeader;
-        this.url = String.format("ws://%s:%d/ws", hostname, port);
+        this.endpoints = endpoints;
+        this.queueLocator = queueLocator;
         this.taskScheduler = taskScheduler;
+        this.senderSessions = senderSessions;
+        this.subscriberSessions = subscriberSessions;
+        this.senderRouting = senderRouting;
+        this.confirmWindow = confirmWindow;
+        this.writeCoalescing = writeCoalescing;
+        this.outboundSpool = outboundSpool;
+        this.congestionControl = congestionControl;
+        this.sendLanes = sendLanes;
+        this.heartbeat = heartbeat;
+        this.reconnectBackoff = reconnectBackoff;
+        // spooled frames are replayed already encoded
+        this.messageConverter = outboundSpool == null ? messageConverter
+                : new SpooledSender.EncodedPayloadConverter(messageConverter);
+        this.transport = transport;
+        this.ownsWebSocketClient = webSocketClient == null;
+        this.webSocketClient = webSocketClient != null ? webSocketClient : transport.newWebSocketClient();
+        this.meterRegistry = meterRegistry;
     }
     public static Builder builder() {
         return new Builder();
     }
     public static class Builder {
-        String hostname = "localhost";
-        int port = 15674;
+        List<BrokerNode> nodes = Collections.singletonList(BrokerNode.of("localhost", 15674));
+        NodeSelection nodeSelection = NodeSelection.ROUND_ROBIN;
+        Duration failoverQuarantine = Duration.ofSeconds(5);
+        Function<String, String> queueLocator;
         StompHeaders stompHeaders;
         WebSocketHttpHeaders webSocketHttpHeaders;
         private TaskScheduler taskScheduler;
+        int senderSessions = 1;
+        int subscriberSessions = 1;
+        SenderRouting senderRouting = SenderRouting.DESTINATION_HASH;
+        ConfirmWindow confirmWindow;
+        WriteCoalescing writeCoalescing;
+        OutboundSpool outboundSpool;
+        CongestionControl congestionControl;
+        SendLanes sendLanes;
+        Heartbeat heartbeat;
+        Backoff reconnectBackoff = Backoff.defaultBackoff();
+        MessageConverter messageConverter;
+        WebSocketTransport transport = WebSocketTransport.standard().build();
+        WebSocketClient webSocketClient;
+        MeterRegistry meterRegistry;
 
         public Builder connectTo(String hostname, int port) {
-            this.hostname = hostname;
-            this.port = port;
+            return connectTo(Collections.singletonList(BrokerNode.of(hostname, port)));
+        }
+        /**
+         * Nodes of a cluster. Sessions are spread across them and fail over to another one when theirs fails.
+         */
+        public Builder connectTo(List<BrokerNode> nodes) {
+            if (nodes.isEmpty()) throw new IllegalArgumentException("At least one node is required");
+            this.nodes = new ArrayList<>(nodes);
+            return this;
+        }
+        /**
+         * How sessions pick a node among those they {@link #connectTo(List)}. Default is
+         * {@link NodeSelection#ROUND_ROBIN}.
+         */
+        public Builder withNodeSelection(NodeSelection nodeSelection) {
+            this.nodeSelection = nodeSelection;
+            return this;
+        }
+        /**
+         * How long a node which failed is skipped, provided another one is available. Default is 5s.
+         */
+        public Builder withFailoverQuarantine(Duration failoverQuarantine) {
+            if (failoverQuarantine.isNegative()) throw new IllegalArgumentException("failoverQuarantine must not be negative");
+            this.failoverQuarantine = failoverQuarantine;
+            return this;
+        }
+        /**
+         * Name of the node which hosts a destination's queue, or null if unknown. Messages to the destination
+         * go through a sender session pinned to that node, if any, saving the hop between nodes. It takes at
+         * least as many sender sessions as nodes. By default, destinations are routed by
+         * {@link SenderRouting} only.
+         */
+        public Builder withQueueLocator(Function<String, String> queueLocator) {
+            this.queueLocator = queueLocator;
             return this;
         }
         public Builder withStompHeader(StompHeaders stompHeader) {
@@ -57,76 +170,439 @@ public class WebSocketConnectionProvider {
             this.webSocketHttpHeaders = webSocketHttpHeaders;
             return this;
         }
+        /**
+         * Scheduler shared by all the sessions of the provider's clients: receipts, heartbeat checks, confirm
+         * window linger, request timeouts, spool replays and the (re)subscriptions all run on it. It needs more
+         * than one thread, or a single slow task delays them all; Spring Boot's auto-configured scheduler has one
+         * unless {@code spring.task.scheduling.pool.size} is set.
+         */
         public Builder withTaskScheduler(TaskScheduler taskScheduler) {
             this.taskScheduler = taskScheduler;
             return this;
         }
+        /**
+         * Number of sender sessions, i.e. WebSockets, each client uses to send messages. Default is 1.
+         */
+        public Builder withSenderSessions(int senderSessions) {
+            if (senderSessions < 1) throw new IllegalArgumentException("senderSessions must be greater than 0");
+            this.senderSessions = senderSessions;
+            return this;
+        }
+        /**
+         * Number of subscriber sessions each client spreads its subscriptions across, by destination hash.
+         * Each session is reconnected and resubscribed on its own. Default is 1.
+         */
+        public Builder withSubscriberSessions(int subscriberSessions) {
+            if (subscriberSessions < 1) throw new IllegalArgumentException("subscriberSessions must be greater than 0");
+            this.subscriberSessions = subscriberSessions;
+            return this;
+        }
+        /**
+         * How destinations are spread across sender sessions. Default is {@link SenderRouting#DESTINATION_HASH}.
+         */
+        public Builder withSenderRouting(SenderRouting senderRouting) {
+            this.senderRouting = senderRouting;
+            return this;
+        }
+        /**
+         * Request a receipt every few frames rather than one per frame, and bound the number of frames
+         * waiting for a receipt. By default, every frame requests its own receipt and there is no bound.
+         */
+        public Builder withConfirmWindow(ConfirmWindow confirmWindow) {
+            this.confirmWindow = confirmWindow;
+            return this;
+        }
+        /**
+         * Pack several SEND frames into each WebSocket message written by sender sessions. By default, every
+         * frame is written as its own message.
+         */
+        public Builder withWriteCoalescing(WriteCoalescing writeCoalescing) {
+            this.writeCoalescing = writeCoalescing;
+            return this;
+        }
+        /**
+         * Keep the frames of sender sessions in a journal on disk until they are receipted, so that sends are
+         * accepted while disconnected and replayed once reconnected, even after a restart. By default, sends
+         * fail while the session is down.
+         */
+        public Builder withOutboundSpool(OutboundSpool outboundSpool) {
+            this.outboundSpool = outboundSpool;
+            return this;
+        }
+        /**
+         * Hold sends back when receipts slow down, e.g. when the broker raises a memory or disk alarm, and
+         * optionally cap the send rate. By default, sends are written as soon as they are made.
+         */
+        public Builder withCongestionControl(CongestionControl congestionControl) {
+            this.congestionControl = congestionControl;
+            return this;
+        }
+        /**
+         * Queue sends by priority, so that urgent messages go ahead of bulk publishes to the same sender session.
+         * By default, sends are written in the order they are made.
+         */
+        public Builder withSendLanes(SendLanes sendLanes) {
+            this.sendLanes = sendLanes;
+            return this;
+        }
+        /**
+         * Heartbeats to ask the broker for, and declare sessions dead as soon as they stop, instead of waiting
+         * for the connection to fail. By default, heartbeats are 10s both ways once a TaskScheduler is set,
+         * and a session is declared dead after 30s.
+         */
+        public Builder withHeartbeat(Heartbeat heartbeat) {
+            this.heartbeat = heartbeat;
+            return this;
+        }
+        /**
+         * Delays between attempts to restore the subscriber session, and spooled sender sessions. Default is 100ms doubling up to 5s.
+         */
+        public Builder withReconnectBackoff(Backoff reconnectBackoff) {
+            this.reconnectBackoff = reconnectBackoff;
+            return this;
+        }
+        /**
+         * Encodes sent payloads and decodes received ones. Default is {@link PayloadConverters#defaults()},
+         * which handles String, byte[], ByteBuffer and LazyPayload payloads.
+         */
+        public Builder withMessageConverter(MessageConverter messageConverter) {
+            this.messageConverter = messageConverter;
+            return this;
+        }
+        /**
+         * WebSocket client the sessions go through, and its settings. Default is
+         * {@link WebSocketTransport#standard()} with default settings.
+         */
+        public Builder withTransport(WebSocketTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+        /**
+         * WebSocket client shared by the clients, instead of one built from the {@link WebSocketTransport}.
+         * The caller starts and stops it.
+         */
+        public Builder withWebSocketClient(WebSocketClient webSocketClient) {
+            this.webSocketClient = webSocketClient;
+            return this;
+        }
+        /**
+         * Registry for the clients' meters, tagged with the client's name. By default, nothing is measured.
+         */
+        public Builder withMeterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
         public WebSocketConnectionProvider build() {
-            return new WebSocketConnectionProvider(hostname, port,
+            if (confirmWindow != null && taskScheduler == null) {
+                throw new IllegalStateException("A TaskScheduler is required to use a ConfirmWindow");
+            }
+            if (writeCoalescing != null && taskScheduler == null) {
+                throw new IllegalStateException("A TaskScheduler is required to use WriteCoalescing");
+            }
+            if (outboundSpool != null && taskScheduler == null) {
+                throw new IllegalStateException("A TaskScheduler is required to use an OutboundSpool");
+            }
+            if (congestionControl != null && congestionControl.getMaxRate() > 0 && taskScheduler == null) {
+                throw new IllegalStateException("A TaskScheduler is required to cap the send rate");
+            }
+            if (heartbeat != null && taskScheduler == null) {
+                throw new IllegalStateException("A TaskScheduler is required to use a Heartbeat");
+            }
+            return new WebSocketConnectionProvider(new EndpointSelector(nodes, nodeSelection, failoverQuarantine),
+                    queueLocator,
                     Optional.ofNullable(webSocketHttpHeaders).orElse(new WebSocketHttpHeaders()),
                     Optional.ofNullable(stompHeaders).orElse(new StompHeaders()),
-                    taskScheduler);
+                    taskScheduler, senderSessions, subscriberSessions, senderRouting, confirmWindow, writeCoalescing, outboundSpool,
+                    congestionControl, sendLanes, heartbeat, reconnectBackoff,
+                    Optional.ofNullable(messageConverter).orElseGet(PayloadConverters::defaults), transport,
+                    webSocketClient, meterRegistry);
         }
     }
 
     public DefaultRabbitStompWsClient newClient(String name) {
-        WebSocketClient webSocketClient = new StandardWebSocketClient();
+        ClientMetrics metrics = meterRegistry != null ? new ClientMetrics(name, meterRegistry) : ClientMetrics.NONE;
+        WebSocketClient webSocketClient = heartbeat == null ? startedWebSocketClient()
+                : new WatchdogWebSocketClient(startedWebSocketClient(), heartbeat, taskScheduler,
+                        metrics::readIdleTimeout);
+        WebSocketStompClient stompClient = newStompClient(webSocketClient);
+        // replies to requests come back on the sender sessions which sent them
+        RequestReply requests = new RequestReply(name, messageConverter, taskScheduler, metrics::requestTimeout);
+        WebSocketClient senderWebSocketClient = new ReplyWebSocketClient(webSocketClient, requests);
+        // only sender sessions coalesce, subscriber sessions hardly send anything but ACKs
+        WebSocketStompClient senderStompClient = newStompClient(writeCoalescing == null ? senderWebSocketClient
+                : new CoalescingWebSocketClient(senderWebSocketClient, writeCoalescing, taskScheduler));
+
+        DefaultRabbitStompWsClient client = new DefaultRabbitStompWsClient(name,
+                newSenderSessionPoolFor(name, senderStompClient, metrics),
+                newSubscriberSessionsFor(name, stompClient, metrics), taskScheduler, managementScheduler(),
+                reconnectBackoff, metrics);
+        client.requests = requests;
+        return client;
+    }
+
+    private WebSocketStompClient newStompClient(WebSocketClient webSocketClient) {
         WebSocketStompClient stompClient = new WebSocketStompClient(webSocketClient);
-        stompClient.setMessageConverter(new StringMessageConverter());
+        stompClient.setInboundMessageSizeLimit(transport.getMaxMessageSize());
+        stompClient.setMessageConverter(messageConverter);
         stompClient.setTaskScheduler(taskScheduler);
+        if (heartbeat != null) stompClient.setDefaultHeartbeat(heartbeat.toStompHeartbeat());
+        return stompClient;
+    }
 
-        return new DefaultRabbitStompWsClient(name, newSessionSupplierFor(name, "sender", stompClient),
-                newSessionSupplierFor(name, "subscriber", stompClient));
+    public ReactiveRabbitStompWsClient newReactiveClient(String name) {
+        return new ReactiveRabbitStompWsClient(newClient(name));
     }
 
-    private StompSessionSupplier newSessionSupplierFor(String name, String type, WebSocketStompClient stompClient) {
-        return new StompSessionSupplier(String.format("%s:%s", name, type), stompClient, handshakeHeaders, connectHeader,
-                url);
+    /**
+     * Stops the WebSocket client built from the {@link WebSocketTransport}, and the scheduler of the
+     * subscription managers if the provider has no TaskScheduler, once its clients are stopped.
+     */
+    public synchronized void stop() {
+        if (ownsWebSocketClient && webSocketClient instanceof Lifecycle
+                && ((Lifecycle) webSocketClient).isRunning()) {
+            ((Lifecycle) webSocketClient).stop();
+        }
+        if (managementScheduler != null) {
+            managementScheduler.shutdown();
+            managementScheduler = null;
+        }
+    }
+
+    /**
+     * Subscription managers of all the clients run on the TaskScheduler or, without one, on a single thread
+     * of the provider. They only ever run short tasks: (re)subscribing and scheduling reconnections.
+     */
+    private synchronized TaskScheduler managementScheduler() {
+        if (taskScheduler != null) return taskScheduler;
+        if (managementScheduler == null) {
+            managementScheduler = new ThreadPoolTaskScheduler();
+            managementScheduler.setThreadNamePrefix("stomp-subscriptions-");
+            managementScheduler.setDaemon(true);
+            managementScheduler.initialize();
+        }
+        return managementScheduler;
+    }
+
+    private synchronized WebSocketClient startedWebSocketClient() {
+        if (ownsWebSocketClient && webSocketClient instanceof Lifecycle
+                && !((Lifecycle) webSocketClient).isRunning()) {
+            ((Lifecycle) webSocketClient).start();
+        }
+        return webSocketClient;
+    }
+
+    private List<StompSessionSupplier> newSubscriberSessionsFor(String name, WebSocketStompClient stompClient,
+                                                                ClientMetrics metrics) {
+        List<StompSessionSupplier> sessions = new ArrayList<>(subscriberSessions);
+        for (int i = 0; i < subscriberSessions; i++) {
+            sessions.add(newSessionSupplierFor(name, subscriberSessions == 1 ? "subscriber" : "subscriber-" + i,
+                    stompClient, false, metrics));
+        }
+        return sessions;
+    }
+
+    private SenderSessionPool newSenderSessionPoolFor(String name, WebSocketStompClient stompClient,
+                                                      ClientMetrics metrics) {
+        List<StompSessionSupplier> sessions = new ArrayList<>(senderSessions);
+        List<String> names = new ArrayList<>(senderSessions);
+        for (int i = 0; i < senderSessions; i++) {
+            names.add(senderSessions == 1 ? "sender" : "sender-" + i);
+            // senders request receipts themselves, only for the frames which need one
+            sessions.add(newSessionSupplierFor(name, names.get(i), stompClient, false, metrics));
+        }
+        SenderSessionPool pool = new SenderSessionPool(sessions, senderRouting, confirmWindow == null ? i -> null
+                : i -> new WindowedSender(names.get(i), confirmWindow, taskScheduler),
+                outboundSpool == null ? (i, delivery) -> null
+                : (i, delivery) -> new SpooledSender(String.format("%s:%s", name, names.get(i)),
+                        openJournal(name, names.get(i)), sessions.get(i), delivery, messageConverter,
+                        taskScheduler, reconnectBackoff), metrics);
+        if (queueLocator != null) pool.locality = locality(sessions);
+        for (int i = 0; i < senderSessions; i++) {
+            SenderSessionPool.Sender sender = pool.senders().get(i);
+            if (congestionControl != null) {
+                sender.congestion = new CongestionController(congestionControl, taskScheduler);
+                metrics.congestion(names.get(i), sender.congestion);
+            }
+            if (sendLanes != null) {
+                LaneScheduler lanes = new LaneScheduler(sendLanes, metrics);
+                sender.lanes = lanes;
+                sender.laneSettings = sendLanes;
+                // sends queued by the controller would lose their priority, they wait in their lane instead
+                CongestionController congestion = sender.congestion;
+                if (congestion != null) {
+                    lanes.ready = () -> congestion.getQueued() == 0;
+                    congestion.drained = lanes::drain;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return index of a sender session pinned to the node of a destination's queue, or null
+     */
+    private Function<String, Integer> locality(List<StompSessionSupplier> sessions) {
+        Map<String, List<Integer>> byNode = new HashMap<>();
+        for (int i = 0; i < sessions.size(); i++) {
+            byNode.computeIfAbsent(sessions.get(i).pinned.getName(), n -> new ArrayList<>()).add(i);
+        }
+        return destination -> {
+            String node = queueLocator.apply(destination);
+            List<Integer> local = node != null ? byNode.get(node) : null;
+            return local != null ? local.get(Math.floorMod(destination.hashCode(), local.size())) : null;
+        };
+    }
+
+    private OutboundJournal openJournal(String name, String sender) {
+        try {
+            return new OutboundJournal(outboundSpool.getDirectory().resolve(name).resolve(sender),
+                    outboundSpool.getSegmentSize(), outboundSpool.getMaxSegments());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open the outbound journal of " + name + ":" + sender, e);
+        }
     }
-    class StompSessionSupplier implements Supplier<CompletionStage<StompSession>> {
+
+    private StompSessionSupplier newSessionSupplierFor(String name, String type, WebSocketStompClient stompClient,
+                                                       boolean autoReceipt, ClientMetrics metrics) {
+        StompSessionSupplier supplier = new StompSessionSupplier(String.format("%s:%s", name, type), stompClient,
+                handshakeHeaders, connectHeader, endpoints, autoReceipt);
+        supplier.meters = metrics.session(type);
+        return supplier;
+    }
+    class StompSessionSupplier implements SessionSupplier {
         Logger log;
 
         WebSocketStompClient stompClient;
-        String url;
+        EndpointSelector endpoints;
+        BrokerNode pinned;
+        volatile BrokerNode node;
         StompSessionHandler sessionHandler;
         AtomicReference<CompletionStage<StompSession>> currentSession = new AtomicReference<>();
         WebSocketHttpHeaders handshakeHeaders;
         StompHeaders connectHeader;
+        boolean autoReceipt;
+        List<Listener> listeners = new CopyOnWriteArrayList<>();
+        ClientMetrics.SessionMeters meters = ClientMetrics.NONE.session(null);
+        // a session may fail more than once, e.g. read idle timeout and then closed
+        Set<StompSession> failed = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+        volatile long lostAt;
+        volatile boolean closed;
 
         public StompSessionSupplier(String name, WebSocketStompClient stompClient,
                                     WebSocketHttpHeaders handshakeHeaders,
-                                    StompHeaders connectHeader, String url) {
+                                    StompHeaders connectHeader, String url, boolean autoReceipt) {
+            this(name, stompClient, handshakeHeaders, connectHeader,
+                    EndpointSelector.single(BrokerNode.of(URI.create(url).getHost(), URI.create(url).getPort())),
+                    autoReceipt);
+        }
+
+        StompSessionSupplier(String name, WebSocketStompClient stompClient, WebSocketHttpHeaders handshakeHeaders,
+                             StompHeaders connectHeader, EndpointSelector endpoints, boolean autoReceipt) {
             this.stompClient = stompClient;
+            this.autoReceipt = autoReceipt;
             this.handshakeHeaders = handshakeHeaders;
             this.connectHeader = connectHeader;
-            this.url = url;
+            this.endpoints = endpoints;
+            this.pinned = endpoints.pin();
             this.log = LoggerFactory.getLogger(StompSessionSupplier.class.getName() + "." + name);
-            sessionHandler = new DefaultStompSessionHandler(log, throwable -> currentSession.set(null));
+            sessionHandler = new DefaultStompSessionHandler(log, (session, throwable) -> {
+                if (!failed.add(session)) return;
+                lostAt = System.nanoTime();
+                // the next connection goes to another node, if any
+                endpoints.failed(node);
+                currentSession.updateAndGet(cur -> cur != null && holds(cur, session) ? null : cur);
+                listeners.forEach(listener -> listener.lost(throwable));
+            }, session -> listeners.forEach(listener -> listener.connected(session)));
+        }
+
+        /**
+         * @return false if the stage completed with another session, which the failed one must not clear
+         */
+        private boolean holds(CompletionStage<StompSession> stage, StompSession session) {
+            CompletableFuture<StompSession> future = stage.toCompletableFuture();
+            return !future.isDone() || future.isCompletedExceptionally() || future.join() == session;
+        }
+
+        @Override
+        public void addListener(Listener listener) {
+            listeners.add(listener);
         }
 
         @Override
         public CompletionStage<StompSession> get() {
+            CompletionStage<StompSession> current = currentSession.get();
+            if (current != null) return current;
             return currentSession.updateAndGet(cur -> {
                 if (cur != null) return cur;
-                log.info("Stomp connecting ...");
+                if (closed) {
+                    CompletableFuture<StompSession> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(new IllegalStateException("Session closed"));
+                    return failed;
+                }
+                BrokerNode selected = endpoints.select(pinned);
+                node = selected;
+                log.info("Stomp connecting to {} ...", selected.url());
+                long start = System.nanoTime();
                 ListenableFuture<StompSession> listener = stompClient
-                        .connect(url, handshakeHeaders, connectHeader, sessionHandler);
-                listener.addCallback(stompSession -> stompSession.setAutoReceipt(true),
-                        throwable -> log.error("Failed to connect", throwable));
+                        .connect(selected.url(), handshakeHeaders, connectHeader, sessionHandler);
+                listener.addCallback(stompSession -> {
+                    stompSession.setAutoReceipt(autoReceipt);
+                    endpoints.connected(selected, System.nanoTime() - start);
+                    meters.connected(start);
+                    if (lostAt != 0) meters.recovered(lostAt);
+                    lostAt = 0;
+                }, throwable -> {
+                    endpoints.failed(selected);
+                    meters.failed();
+                    log.error("Failed to connect", throwable);
+                });
                 return listener.completable();
 
             });
         }
+
+        /**
+         * Disconnects the current session, or the one being connected once it is.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            listeners.clear();
+            CompletionStage<StompSession> current = currentSession.getAndSet(null);
+            if (current == null) return;
+            current.thenAccept(session -> {
+                if (!session.isConnected()) return;
+                try {
+                    session.disconnect();
+                } catch (RuntimeException e) {
+                    log.debug("Failed to disconnect", e);
+                }
+            });
+        }
     }
 
     public static class DefaultStompSessionHandler extends StompSessionHandlerAdapter {
 
         private Logger log;
-        private Consumer<Throwable> onError;
+        private BiConsumer<StompSession, Throwable> onError;
+        private Consumer<StompSession> onConnected;
 
         public DefaultStompSessionHandler(Logger log, Consumer<Throwable> onError) {
+            this(log, onError, session -> {});
+        }
+
+        public DefaultStompSessionHandler(Logger log, Consumer<Throwable> onError, Consumer<StompSession> onConnected) {
+            this(log, (session, throwable) -> onError.accept(throwable), onConnected);
+        }
+
+        /**
+         * @param onError told which session failed, as a session may fail more than once
+         */
+        public DefaultStompSessionHandler(Logger log, BiConsumer<StompSession, Throwable> onError,
+                                          Consumer<StompSession> onConnected) {
             this.log = log;
             this.onError = onError;
+            this.onConnected = onConnected;
         }
 
         @Override
@@ -138,13 +614,14 @@ public class WebSocketConnectionProvider {
         @Override
         public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
             log.info("Stomp connected");
+            onConnected.accept(session);
 
         }
 
         @Override
         public void handleTransportError(StompSession session, Throwable exception) {
             log.error("Stomp connection failure", exception);
-            onError.accept(exception);
+            onError.accept(session, exception);
         }
 
     }
@@ -0,0 +1,170 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.jetty.JettyWebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+
+import javax.websocket.ContainerProvider;
+import javax.websocket.WebSocketContainer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * WebSocket client the sessions go through, and its settings. Both kinds of transport are shared by all
+ * the clients of a {@link WebSocketConnectionProvider}.
+ */
+public class WebSocketTransport {
+
+    public enum Kind {
+        /**
+         * JSR-356 client of the container on the classpath, i.e. Tomcat's. It blocks a thread on every send
+         * and allocates a heap buffer for every message received.
+         */
+        STANDARD,
+        /**
+         * Jetty's native client. Its selectors do non-blocking I/O with pooled direct buffers, and it
+         * reuses a small thread pool for all its connections.
+         */
+        JETTY
+    }
+
+    private final Kind kind;
+    private final int maxMessageSize;
+    private final int inputBufferSize;
+    private final Duration sendTimeout;
+    private final boolean compression;
+
+    WebSocketTransport(Kind kind, int maxMessageSize, int inputBufferSize, Duration sendTimeout,
+                       boolean compression) {
+        this.kind = kind;
+        this.maxMessageSize = maxMessageSize;
+        this.inputBufferSize = inputBufferSize;
+        this.sendTimeout = sendTimeout;
+        this.compression = compression;
+    }
+
+    public static Builder standard() {
+        return new Builder(Kind.STANDARD);
+    }
+
+    public static Builder jetty() {
+        return new Builder(Kind.JETTY);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    public int getInputBufferSize() {
+        return inputBufferSize;
+    }
+
+    public Duration getSendTimeout() {
+        return sendTimeout;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WebSocketTransport{kind=%s, maxMessageSize=%d, inputBufferSize=%d, sendTimeout=%s, " +
+                "compression=%s}", kind, maxMessageSize, inputBufferSize, sendTimeout, compression);
+    }
+
+    /**
+     * Creates the client. A {@link JettyWebSocketClient} must be started before use and stopped afterwards.
+     */
+    WebSocketClient newWebSocketClient() {
+        if (kind == Kind.JETTY) {
+            org.eclipse.jetty.websocket.client.WebSocketClient client =
+                    new org.eclipse.jetty.websocket.client.WebSocketClient();
+            client.getPolicy().setMaxTextMessageSize(maxMessageSize);
+            client.getPolicy().setMaxBinaryMessageSize(maxMessageSize);
+            client.getPolicy().setMaxTextMessageBufferSize(maxMessageSize);
+            client.getPolicy().setMaxBinaryMessageBufferSize(maxMessageSize);
+            client.getPolicy().setInputBufferSize(inputBufferSize);
+            client.getPolicy().setAsyncWriteTimeout(sendTimeout.toMillis());
+            // the client idles as long as the sessions do, heartbeats are up to STOMP
+            client.setMaxIdleTimeout(0);
+            return new JettyWebSocketClient(client);
+        }
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        // whole messages are buffered, larger ones would close the session
+        container.setDefaultMaxTextMessageBufferSize(maxMessageSize);
+        container.setDefaultMaxBinaryMessageBufferSize(maxMessageSize);
+        container.setAsyncSendTimeout(sendTimeout.toMillis());
+        return new StandardWebSocketClient(container);
+    }
+
+    /**
+     * Handshake headers requesting the transport's extensions.
+     */
+    WebSocketHttpHeaders handshakeHeaders(WebSocketHttpHeaders headers) {
+        if (!compression) return headers;
+        WebSocketHttpHeaders withExtensions = new WebSocketHttpHeaders();
+        withExtensions.putAll(headers);
+        List<WebSocketExtension> extensions = new ArrayList<>(headers.getSecWebSocketExtensions());
+        extensions.add(new WebSocketExtension("permessage-deflate"));
+        withExtensions.setSecWebSocketExtensions(extensions);
+        return withExtensions;
+    }
+
+    public static class Builder {
+        final Kind kind;
+        int maxMessageSize = 64 * 1024;
+        int inputBufferSize = 4 * 1024;
+        Duration sendTimeout = Duration.ofSeconds(30);
+        boolean compression;
+
+        Builder(Kind kind) {
+            this.kind = kind;
+        }
+
+        /**
+         * Largest WebSocket message, i.e. STOMP frame, either way. Default is 64KiB like the STOMP client's.
+         */
+        public Builder withMaxMessageSize(int maxMessageSize) {
+            if (maxMessageSize < 1) throw new IllegalArgumentException("maxMessageSize must be greater than 0");
+            this.maxMessageSize = maxMessageSize;
+            return this;
+        }
+        /**
+         * Size of the buffers the socket is read into, only with {@link Kind#JETTY}. Default is 4KiB.
+         */
+        public Builder withInputBufferSize(int inputBufferSize) {
+            if (inputBufferSize < 1) throw new IllegalArgumentException("inputBufferSize must be greater than 0");
+            this.inputBufferSize = inputBufferSize;
+            return this;
+        }
+        /**
+         * How long a send may wait for the socket to be writable. Default is 30s.
+         */
+        public Builder withSendTimeout(Duration sendTimeout) {
+            if (sendTimeout.isNegative() || sendTimeout.isZero()) {
+                throw new IllegalArgumentException("sendTimeout must be positive");
+            }
+            this.sendTimeout = sendTimeout;
+            return this;
+        }
+        /**
+         * Request the permessage-deflate extension. The session goes on uncompressed if the server does not
+         * agree to it. Default is false.
+         */
+        public Builder withCompression(boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+        public WebSocketTransport build() {
+            return new WebSocketTransport(kind, maxMessageSize, inputBufferSize, sendTimeout, compression);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Sends frames to a sender session according to a {@link ConfirmWindow}.
+ * <p>
+ * The most recent frame is held back until either another frame comes in, in which case the held frame is
+ * written without a receipt, or it becomes the {@link ConfirmWindow#getReceiptEvery()}th frame, the window
+ * is full or the linger time elapses, in which case it is written with a receipt header. This way the tail
+ * of a burst always carries a receipt and every frame is eventually settled. A receipt settles all the frames
+ * written since the previous one; a lost receipt fails them.
+ * <p>
+ * The window is accounted for under the monitor of the sender, but frames are written outside of it, in order,
+ * by whichever thread finds them queued: no sender waits behind the socket I/O of another.
+ */
+class WindowedSender {
+
+    static final RejectedExecutionException deferredFull = new RejectedExecutionException("Too many sends deferred");
+
+    private final ConfirmWindow window;
+    private final TaskScheduler taskScheduler;
+    private final String receiptPrefix;
+    private long receiptIndex;
+
+    private int inFlight;
+    private final Deque<Frame<?>> deferred = new ArrayDeque<>();
+    private Frame<?> held;
+    private List<Frame<?>> unreceipted = new ArrayList<>();
+    private int framesSinceReceipt;
+    private ScheduledFuture<?> lingerTask;
+    private final Deque<Runnable> outbox = new ArrayDeque<>();
+    private boolean writing;
+
+    WindowedSender(String name, ConfirmWindow window, TaskScheduler taskScheduler) {
+        if (taskScheduler == null) throw new IllegalArgumentException("A TaskScheduler is required to track receipts");
+        this.window = window;
+        this.taskScheduler = taskScheduler;
+        this.receiptPrefix = name + "-";
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    synchronized int deferred() {
+        return deferred.size();
+    }
+
+    <T> void send(StompSession session, StompHeaders headers, T payload, CompletableFuture<Boolean> sent) {
+        send(session, headers, payload, SenderSessionPool.Settlement.of(sent), true);
+    }
+
+    /**
+     * @param sent     told once the frame is settled, or null if nobody waits for it. The frame counts towards
+     *                 the window either way
+     * @param mayBlock whether the calling thread may wait for room with the {@link ConfirmWindow.Overflow#BLOCK}
+     *                 policy. The thread which reads the session, hence its receipts, must not: its sends are
+     *                 deferred instead, and blocked sends wait for them to be written first
+     */
+    <T> void send(StompSession session, StompHeaders headers, T payload, SenderSessionPool.Settlement sent,
+                  boolean mayBlock) {
+        Frame<T> frame = new Frame<>(session, headers, payload, sent);
+        synchronized (this) {
+            if (window.getOverflow() == ConfirmWindow.Overflow.BLOCK && mayBlock) {
+                try {
+                    while (inFlight >= window.getMaxInFlight() || !deferred.isEmpty()) wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (sent != null) sent.settle(e);
+                    return;
+                }
+                enter(frame);
+            } else {
+                if (window.getOverflow() == ConfirmWindow.Overflow.DEFER
+                        && deferred.size() >= window.getMaxDeferred()) {
+                    if (sent != null) sent.settle(deferredFull);
+                    return;
+                }
+                deferred.add(frame);
+                drain();
+            }
+        }
+        writeOut();
+    }
+
+    private void drain() {
+        while (!deferred.isEmpty() && inFlight < window.getMaxInFlight()) enter(deferred.poll());
+    }
+
+    private void enter(Frame<?> frame) {
+        inFlight++;
+        // a receipt only covers the frames sent on its own session
+        if (held != null && held.session != frame.session) flush();
+        if (held != null) {
+            Frame<?> previous = held;
+            unreceipted.add(previous);
+            outbox.add(() -> write(previous));
+        }
+        held = frame;
+        if (++framesSinceReceipt >= window.getReceiptEvery() || inFlight >= window.getMaxInFlight()) {
+            flush();
+        } else if (lingerTask == null) {
+            lingerTask = taskScheduler.schedule(this::linger,
+                    new Date(System.currentTimeMillis() + window.getLinger().toMillis()));
+        }
+    }
+
+    private void linger() {
+        synchronized (this) {
+            lingerTask = null;
+            if (held != null) flush();
+            drain();
+        }
+        writeOut();
+    }
+
+    private void flush() {
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        Frame<?> frame = held;
+        held = null;
+        framesSinceReceipt = 0;
+        List<Frame<?>> settles = unreceipted;
+        unreceipted = new ArrayList<>();
+        settles.add(frame);
+
+        StompHeaders headers = new StompHeaders();
+        headers.putAll(frame.headers);
+        headers.setReceipt(receiptPrefix + receiptIndex++);
+        outbox.add(() -> writeReceipted(frame, headers, settles));
+    }
+
+    /**
+     * Writes the queued frames, unless another thread already does.
+     */
+    private void writeOut() {
+        synchronized (this) {
+            if (writing) return;
+            writing = true;
+        }
+        while (true) {
+            Runnable write;
+            synchronized (this) {
+                write = outbox.poll();
+                if (write == null) {
+                    writing = false;
+                    return;
+                }
+            }
+            write.run();
+        }
+    }
+
+    private void write(Frame<?> frame) {
+        try {
+            frame.session.send(frame.headers, frame.payload);
+        } catch (Throwable e) {
+            // settled along with the frames of its receipt
+            frame.failure = e;
+        }
+    }
+
+    private void writeReceipted(Frame<?> frame, StompHeaders headers, List<Frame<?>> settles) {
+        try {
+            StompSession.Receiptable receipt = frame.session.send(headers, frame.payload);
+            receipt.addReceiptLostTask(() -> settle(settles, SenderSessionPool.undelivered));
+            receipt.addReceiptTask(() -> settle(settles, null));
+        } catch (Throwable e) {
+            settle(settles, e);
+        }
+    }
+
+    private void settle(List<Frame<?>> settles, Throwable error) {
+        for (Frame<?> frame : settles) {
+            if (frame.sent != null) frame.sent.settle(frame.failure != null ? frame.failure : error);
+        }
+        synchronized (this) {
+            inFlight -= settles.size();
+            notifyAll();
+            drain();
+        }
+        writeOut();
+    }
+
+    private static class Frame<T> {
+        final StompSession session;
+        final StompHeaders headers;
+        final T payload;
+        final SenderSessionPool.Settlement sent;
+        volatile Throwable failure;
+
+        Frame(StompSession session, StompHeaders headers, T payload, SenderSessionPool.Settlement sent) {
+            this.session = session;
+            this.headers = headers;
+            this.payload = payload;
+            this.sent = sent;
+        }
+    }
+}
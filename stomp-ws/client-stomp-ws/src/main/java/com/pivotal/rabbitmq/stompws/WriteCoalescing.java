@@ -0,0 +1,65 @@
+package com.pivotal.rabbitmq.stompws;
+
+import java.time.Duration;
+
+/**
+ * Settings of write coalescing on sender sessions. Rather than writing every SEND frame as its own WebSocket
+ * message, frames are packed into one message until it holds {@link #getMaxBytes()} bytes or the first frame
+ * has waited {@link #getLinger()}, whichever comes first. Any other frame is written straight away, after
+ * the frames packed so far, so that the order is preserved.
+ * <p>
+ * STOMP allows several frames in a row on the same stream, and web-stomp parses them all out of each message.
+ */
+public class WriteCoalescing {
+
+    private final int maxBytes;
+    private final Duration linger;
+
+    WriteCoalescing(int maxBytes, Duration linger) {
+        this.maxBytes = maxBytes;
+        this.linger = linger;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public Duration getLinger() {
+        return linger;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WriteCoalescing{maxBytes=%d, linger=%s}", maxBytes, linger);
+    }
+
+    public static class Builder {
+        int maxBytes = 16 * 1024;
+        Duration linger = Duration.ofMillis(1);
+
+        /**
+         * Size at which packed frames are written. Larger frames are written on their own. It must not exceed
+         * the largest message the broker accepts. Default is 16KiB.
+         */
+        public Builder withMaxBytes(int maxBytes) {
+            if (maxBytes < 1) throw new IllegalArgumentException("maxBytes must be greater than 0");
+            this.maxBytes = maxBytes;
+            return this;
+        }
+        /**
+         * Longest a frame waits for others to be packed with. Default is 1ms.
+         */
+        public Builder withLinger(Duration linger) {
+            if (linger.isNegative() || linger.isZero()) throw new IllegalArgumentException("linger must be positive");
+            this.linger = linger;
+            return this;
+        }
+        public WriteCoalescing build() {
+            return new WriteCoalescing(maxBytes, linger);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.pivotal.rabbitmq.example;
+
+import com.pivotal.rabbitmq.stompws.LoopbackWebSocketClient;
+import com.pivotal.rabbitmq.stompws.StubStompBroker;
+import com.pivotal.rabbitmq.stompws.WebSocketConnectionProvider;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PerfTestTests {
+
+	@Test
+	void reportsRatesAndLatenciesAgainstTheStubBroker() throws Exception {
+		ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.initialize();
+		PerfTestProperties properties = new PerfTestProperties();
+		properties.setRate(1000);
+		properties.setTime(Duration.ofMillis(1500));
+		properties.setReportInterval(Duration.ofMillis(500));
+		WebSocketConnectionProvider provider = WebSocketConnectionProvider.builder()
+				.withWebSocketClient(new LoopbackWebSocketClient(new StubStompBroker()))
+				.withTaskScheduler(taskScheduler)
+				.build();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		PerfTest perfTest = new PerfTest(properties, provider, new PrintStream(output, true));
+		perfTest.run();
+		taskScheduler.shutdown();
+
+		String report = output.toString();
+		assertTrue(perfTest.getReceived() > 500, "received " + perfTest.getReceived());
+		assertTrue(report.contains("id: " + perfTest.getId() + ", time: "), report);
+		assertTrue(report.contains("min/median/75th/95th/99th consumer latency: "), report);
+		assertTrue(report.contains("sending rate avg: "), report);
+	}
+}
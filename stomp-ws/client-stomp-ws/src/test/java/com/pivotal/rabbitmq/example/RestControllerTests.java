@@ -0,0 +1,92 @@
+package com.pivotal.rabbitmq.example;
+
+import com.pivotal.rabbitmq.stompws.RabbitStompWsClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RestControllerTests {
+
+	List<CompletableFuture<Object>> sends = new CopyOnWriteArrayList<>();
+	RestController controller;
+
+	@BeforeEach
+	void setUp() {
+		RabbitStompWsClient rabbit = mock(RabbitStompWsClient.class);
+		when(rabbit.send(anyString(), any())).thenAnswer(invocation -> {
+			CompletableFuture<Object> send = new CompletableFuture<>();
+			sends.add(send);
+			return send;
+		});
+		RestProperties properties = new RestProperties();
+		properties.setMaxOutstanding(2);
+		properties.setSendTimeout(Duration.ofSeconds(5));
+		controller = new RestController();
+		controller.rabbit = rabbit;
+		controller.properties = properties;
+		controller.init();
+	}
+
+	@Test
+	void batchIsStreamedWithinTheOutstandingLimit() {
+		DeferredResult<List<String>> result = controller.sendMessages("/queue/test", Arrays.asList("a", "b", "c", "d", "e"));
+
+		assertEquals(2, sends.size());
+		sends.get(0).complete(null);
+		assertEquals(3, sends.size());
+		sends.get(1).completeExceptionally(new Exception("Connection lost"));
+		sends.get(2).complete(null);
+		assertEquals(5, sends.size());
+		assertFalse(result.hasResult());
+		sends.get(3).complete(null);
+		sends.get(4).complete(null);
+
+		assertEquals(Arrays.asList("ok", "failed", "ok", "ok", "ok"), result.getResult());
+		assertEquals(0, controller.outstanding.outstanding());
+	}
+
+	@Test
+	void sendWaitsForAPermitWithoutBlocking() {
+		DeferredResult<List<String>> batch = controller.sendMessages("/queue/test", Arrays.asList("a", "b"));
+		DeferredResult<String> single = controller.sendMessage("/queue/test", "c");
+
+		assertEquals(2, sends.size());
+		assertEquals(1, controller.outstanding.waiting());
+		sends.get(0).complete(null);
+		sends.get(1).complete(null);
+		assertEquals(Arrays.asList("ok", "ok"), batch.getResult());
+		sends.get(2).complete(null);
+
+		assertEquals("ok", single.getResult());
+		assertEquals(0, controller.outstanding.outstanding());
+	}
+
+	@Test
+	void waitersFailingStraightAwayDoNotRecurse() {
+		List<DeferredResult<String>> results = new ArrayList<>();
+		for (int i = 0; i < 100_000; i++) results.add(controller.sendMessage("/queue/test", "m" + i));
+		assertEquals(2, sends.size());
+
+		CompletableFuture<Object> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new Exception("Sender down"));
+		when(controller.rabbit.send(anyString(), any())).thenAnswer(invocation -> failed);
+		sends.get(0).complete(null);
+
+		assertEquals("ok", results.get(0).getResult());
+		assertEquals("failed", results.get(results.size() - 1).getResult());
+		assertEquals(0, controller.outstanding.waiting());
+	}
+}
@@ -0,0 +1,62 @@
+package com.pivotal.rabbitmq.stompws;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ClientMetricsTests {
+
+	SimpleMeterRegistry registry;
+	ThreadPoolTaskScheduler taskScheduler;
+	DefaultRabbitStompWsClient client;
+
+	@BeforeEach
+	void setUp() {
+		registry = new SimpleMeterRegistry();
+		taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.initialize();
+		client = WebSocketConnectionProvider.builder()
+				.withWebSocketClient(new LoopbackWebSocketClient(new StubStompBroker()))
+				.withTaskScheduler(taskScheduler)
+				.withMeterRegistry(registry)
+				.build()
+				.newClient("metered");
+	}
+
+	@AfterEach
+	void tearDown() {
+		client.stop();
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	void measuresSentAndDeliveredMessagesPerDestination() throws Exception {
+		client.subscribe("/queue/q", String.class, (headers, payload) -> {})
+				.toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		for (int i = 0; i < 3; i++) client.send("/queue/q", "m" + i).toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		assertEquals(3, registry.get("stomp.client.sent").tags("client", "metered", "destination", "/queue/q")
+				.counter().count());
+		assertEquals(3, registry.get("stomp.client.receipt.latency").tag("destination", "/queue/q").timer().count());
+		assertEquals(3, registry.get("stomp.client.delivered").tag("destination", "/queue/q").counter().count());
+		assertEquals(3, registry.get("stomp.client.handler.latency").tag("destination", "/queue/q").timer().count());
+		assertEquals(0, registry.get("stomp.client.in.flight").gauge().value());
+		assertEquals(1, registry.get("stomp.client.connections").tags("session", "subscriber", "outcome", "success")
+				.counter().count());
+	}
+
+	@Test
+	void cachesTheMetersOfADestination() {
+		ClientMetrics metrics = new ClientMetrics("metered", registry);
+
+		assertSame(metrics.destination("/queue/q"), metrics.destination("/queue/q"));
+	}
+}
@@ -0,0 +1,114 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class CoalescingWebSocketClientTests {
+
+	static final TextMessage send = new TextMessage("SEND\ndestination:/queue/test\n\nhello\0");
+	static final TextMessage ack = new TextMessage("ACK\nid:1\n\n\0");
+
+	ThreadPoolTaskScheduler taskScheduler;
+
+	@BeforeEach
+	void setUp() {
+		taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.initialize();
+	}
+
+	@AfterEach
+	void tearDown() {
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	void packsSendFramesUntilTheLingerElapses() throws Exception {
+		WebSocketSession session = mock(WebSocketSession.class);
+		WebSocketSession coalescing = coalescingSession(session, 16 * 1024, Duration.ofMillis(50));
+
+		for (int i = 0; i < 3; i++) coalescing.sendMessage(send);
+
+		verify(session, never()).sendMessage(any());
+		ArgumentCaptor<WebSocketMessage<?>> written = ArgumentCaptor.forClass(WebSocketMessage.class);
+		verify(session, timeout(1000)).sendMessage(written.capture());
+		assertEquals(3 * send.getPayloadLength(), written.getValue().getPayloadLength());
+		assertTrue(written.getValue() instanceof BinaryMessage);
+	}
+
+	@Test
+	void writesAsSoonAsMaxBytesArePacked() throws Exception {
+		WebSocketSession session = mock(WebSocketSession.class);
+		WebSocketSession coalescing = coalescingSession(session, 2 * send.getPayloadLength(), Duration.ofSeconds(10));
+
+		for (int i = 0; i < 4; i++) coalescing.sendMessage(send);
+
+		verify(session, times(2)).sendMessage(any());
+	}
+
+	@Test
+	void otherFramesAreWrittenAfterThePackedOnes() throws Exception {
+		WebSocketSession session = mock(WebSocketSession.class);
+		WebSocketSession coalescing = coalescingSession(session, 16 * 1024, Duration.ofSeconds(10));
+
+		coalescing.sendMessage(send);
+		coalescing.sendMessage(ack);
+
+		InOrder inOrder = inOrder(session);
+		inOrder.verify(session).sendMessage(send);
+		inOrder.verify(session).sendMessage(ack);
+	}
+
+	@Test
+	void brokerReceivesEveryCoalescedFrame() throws Exception {
+		StubStompBroker broker = new StubStompBroker();
+		DefaultRabbitStompWsClient client = WebSocketConnectionProvider.builder()
+				.withWebSocketClient(new LoopbackWebSocketClient(broker))
+				.withTaskScheduler(taskScheduler)
+				.withConfirmWindow(ConfirmWindow.builder().withMaxInFlight(100).withReceiptEvery(10).build())
+				.withWriteCoalescing(WriteCoalescing.builder().withMaxBytes(1024).build())
+				.build()
+				.newClient("test");
+		List<String> received = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(1000);
+		client.subscribe("/queue/test", String.class, (headers, payload) -> {
+			received.add(payload);
+			done.countDown();
+		}).toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		List<CompletableFuture<?>> sends = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) sends.add(client.send("/queue/test", String.valueOf(i)).toCompletableFuture());
+
+		CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 1000; i++) assertEquals(String.valueOf(i), received.get(i));
+		assertEquals(1000, broker.getSent());
+		client.stop();
+	}
+
+	private WebSocketSession coalescingSession(WebSocketSession session, int maxBytes, Duration linger) {
+		WriteCoalescing coalescing = WriteCoalescing.builder().withMaxBytes(maxBytes).withLinger(linger).build();
+		return new CoalescingWebSocketClient(mock(WebSocketClient.class), coalescing, taskScheduler)
+				.new CoalescingSession(session);
+	}
+}
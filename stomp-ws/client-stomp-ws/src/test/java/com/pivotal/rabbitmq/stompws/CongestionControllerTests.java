@@ -0,0 +1,146 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class CongestionControllerTests {
+
+	AtomicLong clock;
+	TaskScheduler taskScheduler;
+	List<Runnable> refills;
+	List<Integer> written;
+	int submitted;
+
+	@BeforeEach
+	void setUp() {
+		clock = new AtomicLong();
+		refills = new ArrayList<>();
+		written = new ArrayList<>();
+		taskScheduler = mock(TaskScheduler.class);
+		doAnswer(invocation -> {
+			refills.add(invocation.getArgument(0));
+			return mock(ScheduledFuture.class);
+		}).when(taskScheduler).schedule(any(Runnable.class), any(Date.class));
+	}
+
+	@Test
+	void holdsBackSendsBeyondTheLimitAndAdmitsThemInOrderAsReceiptsComeIn() {
+		CongestionController controller = controller(CongestionControl.builder().withInitialLimit(2).withLimits(1, 10));
+
+		List<CompletableFuture<Boolean>> sent = send(controller, 4);
+
+		assertEquals(2, written.size());
+		assertEquals(2, controller.getInFlight());
+		assertEquals(2, controller.getQueued());
+
+		sent.get(0).complete(true);
+
+		assertEquals(3, written.size());
+		assertEquals(2, (int) written.get(2));
+	}
+
+	@Test
+	void growsTheLimitWhileRoundTripsStayShort() {
+		CongestionController controller = controller(CongestionControl.builder().withInitialLimit(4).withLimits(1, 100));
+
+		for (int round = 0; round < 10; round++) {
+			List<CompletableFuture<Boolean>> sent = send(controller, controller.getLimit());
+			clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+			sent.forEach(future -> future.complete(true));
+		}
+
+		assertTrue(controller.getLimit() > 4);
+		assertEquals(0, controller.getDecreases());
+	}
+
+	@Test
+	void doesNotGrowTheLimitOfASenderWhichDoesNotUseIt() {
+		CongestionController controller = controller(CongestionControl.builder().withInitialLimit(64).withLimits(1, 100));
+
+		for (int i = 0; i < 100; i++) {
+			CompletableFuture<Boolean> sent = send(controller, 1).get(0);
+			clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+			sent.complete(true);
+		}
+
+		assertEquals(64, controller.getLimit());
+	}
+
+	@Test
+	void shrinksTheLimitOncePerRoundTripWhenRoundTripsGetLonger() {
+		CongestionController controller = controller(CongestionControl.builder().withInitialLimit(64).withLimits(8, 100));
+		List<CompletableFuture<Boolean>> fast = send(controller, 1);
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+		fast.get(0).complete(true);
+
+		List<CompletableFuture<Boolean>> slow = send(controller, 10);
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+		slow.forEach(future -> future.complete(true));
+
+		assertEquals(32, controller.getLimit());
+		assertEquals(1, controller.getDecreases());
+	}
+
+	@Test
+	void shrinksTheLimitWhenReceiptsAreLost() {
+		CongestionController controller = controller(CongestionControl.builder().withInitialLimit(64).withLimits(8, 100));
+
+		send(controller, 1).get(0).completeExceptionally(SenderSessionPool.undelivered);
+
+		assertEquals(32, controller.getLimit());
+	}
+
+	@Test
+	void failsSendsRightAwayOnceTheQueueIsFull() {
+		CongestionController controller = controller(CongestionControl.builder().withInitialLimit(1).withLimits(1, 1)
+				.withMaxQueued(1));
+
+		List<CompletableFuture<Boolean>> sent = send(controller, 3);
+
+		assertFalse(sent.get(1).isDone());
+		assertTrue(sent.get(2).isCompletedExceptionally());
+	}
+
+	@Test
+	void capsTheRateWithATokenBucket() {
+		CongestionController controller = controller(CongestionControl.builder().withMaxRate(100).withBurst(2));
+
+		send(controller, 5);
+
+		assertEquals(2, written.size());
+		assertEquals(1, refills.size());
+
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(20));
+		refills.remove(0).run();
+
+		assertEquals(4, written.size());
+	}
+
+	CongestionController controller(CongestionControl.Builder settings) {
+		return new CongestionController(settings.build(), taskScheduler, clock::get);
+	}
+
+	List<CompletableFuture<Boolean>> send(CongestionController controller, int count) {
+		List<CompletableFuture<Boolean>> sent = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			CompletableFuture<Boolean> future = new CompletableFuture<>();
+			int index = submitted++;
+			controller.send(future, () -> written.add(index));
+			sent.add(future);
+		}
+		return sent;
+	}
+}
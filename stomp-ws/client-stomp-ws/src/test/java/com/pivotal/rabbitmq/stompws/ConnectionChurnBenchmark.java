@@ -0,0 +1,89 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates, connects, subscribes and stops clients in a loop, and reports how many clients are opened and closed
+ * per second, and how much heap and how many threads each open client takes. By default, clients go to an
+ * in-process {@link StubStompBroker}, set stomp.host to go to a RabbitMQ broker with the web-stomp plugin:
+ * <pre>
+ * mvn test -Dtest=ConnectionChurnBenchmark -Dstomp.benchmark=true -Dstomp.clients=1000
+ * mvn test -Dtest=ConnectionChurnBenchmark -Dstomp.benchmark=true -Dstomp.host=localhost -Dstomp.port=15674
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "stomp.benchmark", matches = "true")
+class ConnectionChurnBenchmark {
+
+	static final int clients = Integer.getInteger("stomp.clients", 500);
+	static final int rounds = Integer.getInteger("stomp.rounds", 5);
+
+	@Test
+	void openAndCloseClients() throws Exception {
+		ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.setPoolSize(2);
+		taskScheduler.initialize();
+		WebSocketConnectionProvider provider = newProvider(taskScheduler);
+		try {
+			System.out.println("round\topen/s\tclose/s\tbytes/client\tthreads/client");
+			for (int round = 1; round <= rounds; round++) {
+				long baselineHeap = usedHeap();
+				int baselineThreads = Thread.activeCount();
+
+				List<RabbitStompWsClient> open = new ArrayList<>(clients);
+				long start = System.nanoTime();
+				for (int i = 0; i < clients; i++) {
+					RabbitStompWsClient client = provider.newClient("churn-" + i);
+					client.subscribe("/queue/churn-" + i, String.class, (headers, payload) -> { })
+							.toCompletableFuture().get(10, TimeUnit.SECONDS);
+					open.add(client);
+				}
+				long opened = System.nanoTime() - start;
+				long bytesPerClient = (usedHeap() - baselineHeap) / clients;
+				double threadsPerClient = (double) (Thread.activeCount() - baselineThreads) / clients;
+
+				start = System.nanoTime();
+				open.forEach(RabbitStompWsClient::stop);
+				long closed = System.nanoTime() - start;
+
+				System.out.printf("%d\t%d\t%d\t%d\t%.3f%n", round, rate(opened), rate(closed), bytesPerClient,
+						threadsPerClient);
+			}
+		} finally {
+			provider.stop();
+			taskScheduler.shutdown();
+		}
+	}
+
+	WebSocketConnectionProvider newProvider(ThreadPoolTaskScheduler taskScheduler) {
+		WebSocketConnectionProvider.Builder builder = WebSocketConnectionProvider.builder()
+				.withTaskScheduler(taskScheduler);
+		String host = System.getProperty("stomp.host");
+		if (host == null) return builder.withWebSocketClient(new LoopbackWebSocketClient(new StubStompBroker())).build();
+		StompHeaders credentials = new StompHeaders();
+		credentials.setLogin(System.getProperty("stomp.username", "guest"));
+		credentials.setPasscode(System.getProperty("stomp.password", "guest"));
+		return builder.connectTo(host, Integer.getInteger("stomp.port", 15674))
+				.withStompHeader(credentials)
+				.build();
+	}
+
+	long rate(long nanos) {
+		return clients * TimeUnit.SECONDS.toNanos(1) / Math.max(nanos, 1);
+	}
+
+	static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
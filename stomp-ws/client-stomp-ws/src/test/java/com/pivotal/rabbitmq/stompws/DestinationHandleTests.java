@@ -0,0 +1,101 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class DestinationHandleTests {
+
+	StompSession session = mock(StompSession.class);
+	StompSession.Receiptable receiptable = mock(StompSession.Receiptable.class);
+	SenderSessionPool pool = new SenderSessionPool(
+			Collections.singletonList(() -> CompletableFuture.completedFuture(session)),
+			SenderRouting.DESTINATION_HASH);
+	DestinationHandle handle = new DestinationHandle("/queue/q", pool.select("/queue/q"),
+			ClientMetrics.NONE.destination("/queue/q"));
+
+	@Test
+	void sendsAndForgetsTheSameHeadersWithoutReceipt() {
+		when(session.send(any(StompHeaders.class), any())).thenReturn(receiptable);
+
+		handle.sendAndForget("1");
+		handle.sendAndForget("2");
+
+		ArgumentCaptor<StompHeaders> headers = ArgumentCaptor.forClass(StompHeaders.class);
+		verify(session, times(2)).send(headers.capture(), any());
+		assertSame(headers.getAllValues().get(0), headers.getAllValues().get(1));
+		assertEquals("/queue/q", headers.getValue().getDestination());
+		assertNull(headers.getValue().getReceipt());
+		verifyNoInteractions(receiptable);
+		assertEquals(0, pool.outstanding());
+	}
+
+	@Test
+	void reusesTheReceiptTasksOfACallback() {
+		when(session.send(any(StompHeaders.class), any())).thenReturn(receiptable);
+		List<Throwable> settled = new CopyOnWriteArrayList<>();
+		RabbitStompWsClient.SendCallback callback = failure -> settled.add(failure == null ? none : failure);
+
+		handle.send("1", callback);
+		handle.send("2", callback);
+		assertEquals(2, pool.outstanding());
+
+		ArgumentCaptor<StompHeaders> headers = ArgumentCaptor.forClass(StompHeaders.class);
+		verify(session, times(2)).send(headers.capture(), any());
+		assertNotEquals(headers.getAllValues().get(0).getReceipt(), headers.getAllValues().get(1).getReceipt());
+		ArgumentCaptor<Runnable> receipts = ArgumentCaptor.forClass(Runnable.class);
+		ArgumentCaptor<Runnable> lost = ArgumentCaptor.forClass(Runnable.class);
+		verify(receiptable, times(2)).addReceiptTask(receipts.capture());
+		verify(receiptable, times(2)).addReceiptLostTask(lost.capture());
+		assertSame(receipts.getAllValues().get(0), receipts.getAllValues().get(1));
+
+		receipts.getValue().run();
+		lost.getValue().run();
+		assertEquals(2, settled.size());
+		assertSame(none, settled.get(0));
+		assertSame(SenderSessionPool.undelivered, settled.get(1));
+		assertEquals(0, pool.outstanding());
+	}
+
+	@Test
+	void sendsThroughTheConfirmWindow() throws Exception {
+		ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.initialize();
+		StubStompBroker broker = new StubStompBroker();
+		DefaultRabbitStompWsClient client = WebSocketConnectionProvider.builder()
+				.withWebSocketClient(new LoopbackWebSocketClient(broker))
+				.withTaskScheduler(taskScheduler)
+				.withConfirmWindow(ConfirmWindow.builder()
+						.withReceiptEvery(10)
+						.withLinger(Duration.ofMillis(5))
+						.build())
+				.build()
+				.newClient("test");
+		RabbitStompWsClient.Destination destination = client.destination("/queue/q");
+		CompletableFuture<Throwable> last = new CompletableFuture<>();
+
+		for (int i = 0; i < 5; i++) destination.sendAndForget("forget-" + i);
+		destination.send("callback", last::complete);
+		destination.send("future").toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		assertNull(last.get(1, TimeUnit.SECONDS));
+		assertEquals(7, broker.getSent());
+		client.stop();
+		taskScheduler.shutdown();
+	}
+
+	static final Throwable none = new Throwable();
+}
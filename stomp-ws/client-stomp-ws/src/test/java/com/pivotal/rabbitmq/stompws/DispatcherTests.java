@@ -0,0 +1,144 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DispatcherTests {
+
+	Logger log = LoggerFactory.getLogger(DispatcherTests.class);
+
+	@Test
+	void dedicatedThreadConsumesInOrderOffTheCallingThread() throws InterruptedException {
+		DispatchMetrics metrics = new DispatchMetrics();
+		Dispatcher dispatcher = Dispatcher.of("test", DispatchPolicy.dedicatedThread(100, DispatchPolicy.Overflow.BLOCK),
+				metrics, log);
+		List<Integer> consumed = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch done = new CountDownLatch(50);
+		Thread caller = Thread.currentThread();
+
+		for (int i = 0; i < 50; i++) {
+			int message = i;
+			dispatcher.dispatch(() -> {
+				assertNotSame(caller, Thread.currentThread());
+				consumed.add(message);
+				done.countDown();
+			}, () -> fail("Nothing should be dropped"));
+		}
+
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+		for (int i = 0; i < 50; i++) assertEquals(i, consumed.get(i));
+		dispatcher.stop();
+	}
+
+	@Test
+	void dropsTheNewestOrTheOldestMessageOnOverflow() throws InterruptedException {
+		for (DispatchPolicy.Overflow overflow : new DispatchPolicy.Overflow[]{
+				DispatchPolicy.Overflow.DROP_NEWEST, DispatchPolicy.Overflow.DROP_OLDEST}) {
+			DispatchMetrics metrics = new DispatchMetrics();
+			Dispatcher dispatcher = Dispatcher.of("test", DispatchPolicy.dedicatedThread(2, overflow), metrics, log);
+			CountDownLatch blocked = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			List<Integer> dropped = Collections.synchronizedList(new ArrayList<>());
+
+			dispatcher.dispatch(() -> {
+				blocked.countDown();
+				await(release);
+			}, () -> {});
+			assertTrue(blocked.await(1, TimeUnit.SECONDS));
+			for (int i = 1; i <= 3; i++) {
+				int message = i;
+				dispatcher.dispatch(() -> {}, () -> dropped.add(message));
+			}
+
+			assertEquals(2, metrics.getQueueDepth());
+			assertEquals(1, metrics.getDropped());
+			assertEquals(overflow == DispatchPolicy.Overflow.DROP_NEWEST ? 3 : 1, dropped.get(0));
+			release.countDown();
+			dispatcher.stop();
+		}
+	}
+
+	@Test
+	void sharedExecutorKeepsEachSubscriptionInOrder() throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Dispatcher> dispatchers = new ArrayList<>();
+		List<List<Integer>> consumed = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(4 * 200);
+		for (int d = 0; d < 4; d++) {
+			dispatchers.add(Dispatcher.of("test-" + d,
+					DispatchPolicy.sharedExecutor(executor, 1000, DispatchPolicy.Overflow.BLOCK), new DispatchMetrics(), log));
+			consumed.add(Collections.synchronizedList(new ArrayList<>()));
+		}
+
+		for (int i = 0; i < 200; i++) {
+			for (int d = 0; d < 4; d++) {
+				int message = i;
+				List<Integer> received = consumed.get(d);
+				dispatchers.get(d).dispatch(() -> {
+					received.add(message);
+					done.countDown();
+				}, () -> fail("Nothing should be dropped"));
+			}
+		}
+
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		for (List<Integer> received : consumed) {
+			for (int i = 0; i < 200; i++) assertEquals(i, received.get(i));
+		}
+		executor.shutdown();
+	}
+
+	@Test
+	void threadPerMessageBoundsConcurrency() throws InterruptedException {
+		DispatchMetrics metrics = new DispatchMetrics();
+		Dispatcher dispatcher = Dispatcher.of("test",
+				DispatchPolicy.threadPerMessage(Thread::new, 2, DispatchPolicy.Overflow.DROP_NEWEST), metrics, log);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(2);
+
+		for (int i = 0; i < 3; i++) {
+			dispatcher.dispatch(() -> {
+				await(release);
+				done.countDown();
+			}, () -> {});
+		}
+
+		assertEquals(1, metrics.getDropped());
+		release.countDown();
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void inlineConsumesOnTheCallingThreadAndPropagatesFailures() {
+		DispatchMetrics metrics = new DispatchMetrics();
+		Dispatcher dispatcher = Dispatcher.of("test", DispatchPolicy.inline(), metrics, log);
+		Thread caller = Thread.currentThread();
+
+		dispatcher.dispatch(() -> assertSame(caller, Thread.currentThread()), () -> {});
+		assertThrows(IllegalStateException.class, () -> dispatcher.dispatch(() -> {
+			throw new IllegalStateException();
+		}, () -> {}));
+
+		assertEquals(2, metrics.getConsumed());
+		assertEquals(1, metrics.getFailed());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EndpointSelectorTests {
+
+	static final BrokerNode a = BrokerNode.of("a", "localhost", 15674);
+	static final BrokerNode b = BrokerNode.of("b", "localhost", 15675);
+	static final BrokerNode c = BrokerNode.of("c", "localhost", 15676);
+
+	@Test
+	void pinsSessionsInRoundRobinAndSkipsFailedNodes() {
+		EndpointSelector endpoints = new EndpointSelector(Arrays.asList(a, b, c), NodeSelection.ROUND_ROBIN,
+				Duration.ofSeconds(10));
+		BrokerNode pinned = endpoints.pin();
+		assertEquals(a, pinned);
+		assertEquals(b, endpoints.pin());
+
+		endpoints.failed(a);
+		assertEquals(b, endpoints.select(pinned));
+
+		endpoints.connected(a, 1000);
+		assertEquals(a, endpoints.select(pinned));
+	}
+
+	@Test
+	void prefersTheLowestRoundTrip() {
+		EndpointSelector endpoints = new EndpointSelector(Arrays.asList(a, b, c), NodeSelection.LOWEST_LATENCY,
+				Duration.ofSeconds(10));
+		endpoints.connected(a, 3_000_000);
+		endpoints.connected(b, 1_000_000);
+		assertEquals(c, endpoints.select(a), "nodes not measured yet go first");
+
+		endpoints.connected(c, 2_000_000);
+		assertEquals(b, endpoints.select(a));
+
+		endpoints.failed(b);
+		assertEquals(c, endpoints.select(a));
+	}
+
+	@Test
+	void picksTheNodeWhichFailedFirstWhenAllAreQuarantined() {
+		EndpointSelector endpoints = new EndpointSelector(Arrays.asList(a, b), NodeSelection.ROUND_ROBIN,
+				Duration.ofSeconds(10));
+		endpoints.failed(b);
+		endpoints.failed(a);
+
+		assertEquals(b, endpoints.select(a));
+	}
+
+	@Test
+	void sendsGoToTheQueueNodeAndFailOverWhenItStops() throws Exception {
+		ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.initialize();
+		StubStompBroker brokerA = new StubStompBroker();
+		StubStompBroker brokerB = new StubStompBroker();
+		Map<Integer, WebSocketClient> cluster = new HashMap<>();
+		cluster.put(a.getPort(), new LoopbackWebSocketClient(brokerA));
+		cluster.put(b.getPort(), new LoopbackWebSocketClient(brokerB));
+		DefaultRabbitStompWsClient client = WebSocketConnectionProvider.builder()
+				.connectTo(Arrays.asList(a, b))
+				.withSenderSessions(2)
+				.withQueueLocator(destination -> destination.substring(destination.lastIndexOf('-') + 1))
+				.withWebSocketClient(new ClusterWebSocketClient(cluster))
+				.withTaskScheduler(taskScheduler)
+				.build()
+				.newClient("test");
+
+		client.send("/queue/on-a", "1").toCompletableFuture().get(1, TimeUnit.SECONDS);
+		client.send("/queue/on-b", "2").toCompletableFuture().get(1, TimeUnit.SECONDS);
+		assertEquals(1, brokerA.getSent());
+		assertEquals(1, brokerB.getSent());
+
+		brokerA.stop();
+		client.send("/queue/on-a", "3").toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		assertEquals(1, brokerA.getSent());
+		assertEquals(2, brokerB.getSent());
+		taskScheduler.shutdown();
+	}
+
+	/**
+	 * Connects to the loopback broker of the node the URL's port stands for.
+	 */
+	static class ClusterWebSocketClient implements WebSocketClient {
+		final Map<Integer, WebSocketClient> nodes;
+
+		ClusterWebSocketClient(Map<Integer, WebSocketClient> nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler webSocketHandler, String uriTemplate,
+																 Object... uriVariables) {
+			URI uri = UriComponentsBuilder.fromUriString(uriTemplate).buildAndExpand(uriVariables).encode().toUri();
+			return doHandshake(webSocketHandler, null, uri);
+		}
+
+		@Override
+		public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler webSocketHandler,
+																 WebSocketHttpHeaders headers, URI uri) {
+			return nodes.get(uri.getPort()).doHandshake(webSocketHandler, headers, uri);
+		}
+	}
+}
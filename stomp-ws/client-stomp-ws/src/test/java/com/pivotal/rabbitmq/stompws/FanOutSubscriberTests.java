@@ -0,0 +1,135 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FanOutSubscriberTests {
+
+	StubStompBroker broker;
+	ThreadPoolTaskScheduler taskScheduler;
+	DefaultRabbitStompWsClient client;
+
+	@BeforeEach
+	void setUp() {
+		broker = new StubStompBroker();
+		taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.initialize();
+		client = WebSocketConnectionProvider.builder()
+				.withWebSocketClient(new LoopbackWebSocketClient(broker))
+				.withTaskScheduler(taskScheduler)
+				.build()
+				.newClient("fan-out");
+	}
+
+	@AfterEach
+	void tearDown() {
+		client.stop();
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	void subscribesOncePerTopic() throws Exception {
+		List<String> received = new CopyOnWriteArrayList<>();
+		for (int i = 0; i < 3; i++) subscribe("/topic/a.b", received);
+
+		send("/topic/a.b", "m");
+
+		assertEquals(3, received.size());
+		assertEquals(1, broker.getDelivered());
+	}
+
+	@Test
+	void coveredPatternsGoThroughTheCoveringSubscription() throws Exception {
+		List<String> wildcard = new CopyOnWriteArrayList<>();
+		List<String> exact = new CopyOnWriteArrayList<>();
+		subscribe("/topic/a.*", wildcard);
+		subscribe("/topic/a.b", exact);
+
+		send("/topic/a.b", "ab");
+		send("/topic/a.c", "ac");
+
+		assertEquals(2, wildcard.size());
+		assertEquals(1, exact.size());
+		assertEquals("ab", exact.get(0));
+		assertEquals(2, broker.getDelivered());
+	}
+
+	@Test
+	void unsubscribesWithTheLastSubscription() throws Exception {
+		List<String> received = new CopyOnWriteArrayList<>();
+		RabbitStompWsClient.Subscription first = subscribe("/topic/a.*", received);
+		RabbitStompWsClient.Subscription second = subscribe("/topic/a.b", received);
+
+		first.cancel();
+		send("/topic/a.b", "1");
+		second.cancel();
+		send("/topic/a.b", "2");
+
+		assertEquals(1, received.size());
+		assertEquals(1, broker.getDelivered());
+	}
+
+	@Test
+	void leavesQueuesAndUnsharedSubscriptionsAlone() throws Exception {
+		List<String> received = new CopyOnWriteArrayList<>();
+		subscribe("/queue/q", received);
+		subscribe("/queue/q", received);
+		client.subscribe("/topic/t", String.class, SubscriptionOptions.builder().withShared(false).build(),
+				(headers, payload) -> received.add(payload)).toCompletableFuture().get(1, TimeUnit.SECONDS);
+		subscribe("/topic/t", received);
+
+		send("/queue/q", "q");
+		send("/topic/t", "t");
+
+		assertEquals(4, received.size());
+		assertEquals(4, broker.getDelivered());
+	}
+
+	@Test
+	void subscriptionsAreNotSharedByDefault() throws Exception {
+		List<String> received = new CopyOnWriteArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			client.subscribe("/topic/t", String.class, (headers, payload) -> received.add(payload))
+					.toCompletableFuture().get(1, TimeUnit.SECONDS);
+		}
+
+		send("/topic/t", "t");
+
+		assertEquals(2, received.size());
+		assertEquals(2, broker.getDelivered());
+	}
+
+	@Test
+	void membersGetReadOnlyHeaders() throws Exception {
+		List<StompHeaders> received = new CopyOnWriteArrayList<>();
+		SubscriptionOptions shared = SubscriptionOptions.builder().withShared(true).build();
+		for (int i = 0; i < 2; i++) {
+			client.subscribe("/topic/t", String.class, shared, (headers, payload) -> received.add(headers))
+					.toCompletableFuture().get(1, TimeUnit.SECONDS);
+		}
+
+		send("/topic/t", "t");
+
+		assertEquals(2, received.size());
+		assertThrows(UnsupportedOperationException.class, () -> received.get(0).set("changed", "true"));
+	}
+
+	private RabbitStompWsClient.Subscription subscribe(String destination, List<String> received) throws Exception {
+		return client.subscribe(destination, String.class, SubscriptionOptions.builder().withShared(true).build(),
+				(headers, payload) -> received.add(payload)).toCompletableFuture().get(1, TimeUnit.SECONDS);
+	}
+
+	private void send(String destination, String payload) throws Exception {
+		client.send(destination, payload).toCompletableFuture().get(1, TimeUnit.SECONDS);
+	}
+}
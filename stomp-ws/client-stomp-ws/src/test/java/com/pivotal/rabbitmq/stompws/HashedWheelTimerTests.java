@@ -0,0 +1,75 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashedWheelTimerTests {
+
+	ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+	HashedWheelTimer timer;
+
+	@AfterEach
+	void tearDown() {
+		timer.stop();
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	void expiresTimeoutsMoreThanATurnAwayOnTheirTurn() throws Exception {
+		taskScheduler.initialize();
+		timer = new HashedWheelTimer(taskScheduler, Duration.ofMillis(5), 4);
+		long start = System.nanoTime();
+		CompletableFuture<Long> soon = new CompletableFuture<>();
+		CompletableFuture<Long> later = new CompletableFuture<>();
+
+		timer.schedule(() -> soon.complete(System.nanoTime() - start), Duration.ofMillis(10));
+		timer.schedule(() -> later.complete(System.nanoTime() - start), Duration.ofMillis(100));
+
+		assertTrue(soon.get(1, TimeUnit.SECONDS) >= TimeUnit.MILLISECONDS.toNanos(10));
+		assertTrue(later.get(1, TimeUnit.SECONDS) >= TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	@Test
+	void neverExpiresTimeoutsBeforeTheirDeadline() throws Exception {
+		taskScheduler.initialize();
+		timer = new HashedWheelTimer(taskScheduler, Duration.ofMillis(10), 8);
+		List<CompletableFuture<Long>> early = new ArrayList<>();
+
+		for (int i = 0; i < 200; i++) {
+			long delay = TimeUnit.MILLISECONDS.toNanos(1 + i % 30);
+			long deadline = System.nanoTime() + delay;
+			CompletableFuture<Long> expired = new CompletableFuture<>();
+			timer.schedule(() -> expired.complete(deadline - System.nanoTime()), Duration.ofNanos(delay));
+			early.add(expired);
+		}
+
+		for (CompletableFuture<Long> expired : early) {
+			assertTrue(expired.get(1, TimeUnit.SECONDS) <= 0, "expired early");
+		}
+	}
+
+	@Test
+	void cancelledTimeoutsDoNotExpire() throws Exception {
+		taskScheduler.initialize();
+		timer = new HashedWheelTimer(taskScheduler, Duration.ofMillis(5), 4);
+		CompletableFuture<Void> cancelled = new CompletableFuture<>();
+		CompletableFuture<Void> expired = new CompletableFuture<>();
+
+		HashedWheelTimer.Timeout timeout = timer.schedule(() -> cancelled.complete(null), Duration.ofMillis(10));
+		assertTrue(timeout.cancel());
+		timer.schedule(() -> expired.complete(null), Duration.ofMillis(50));
+
+		expired.get(1, TimeUnit.SECONDS);
+		assertFalse(cancelled.isDone());
+		assertFalse(timeout.cancel());
+	}
+}
@@ -0,0 +1,90 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LaneSchedulerTests {
+
+	List<SendPriority> written = new ArrayList<>();
+	boolean ready;
+
+	@Test
+	void writesAsSoonAsSentWhenNothingWaits() {
+		LaneScheduler lanes = lanes(SendLanes.builder().build());
+		ready = true;
+
+		send(lanes, SendPriority.BULK);
+
+		assertEquals(Collections.singletonList(SendPriority.BULK), written);
+	}
+
+	@Test
+	void urgentSendsGoAheadOfTheBatchWaitingBeforeThem() {
+		LaneScheduler lanes = lanes(SendLanes.builder().build());
+		for (int i = 0; i < 10; i++) send(lanes, SendPriority.BULK);
+		send(lanes, SendPriority.HIGH);
+
+		ready = true;
+		lanes.drain();
+
+		assertEquals(11, written.size());
+		assertEquals(SendPriority.HIGH, written.get(0));
+	}
+
+	@Test
+	void sharesTheSessionByWeightWithoutStarvingTheBulkLane() {
+		LaneScheduler lanes = lanes(SendLanes.builder().build());
+		for (int i = 0; i < 10; i++) {
+			send(lanes, SendPriority.NORMAL);
+			send(lanes, SendPriority.BULK);
+		}
+
+		ready = true;
+		lanes.drain();
+
+		List<SendPriority> first = written.subList(0, 10);
+		assertEquals(8, Collections.frequency(first, SendPriority.NORMAL));
+		assertEquals(2, Collections.frequency(first, SendPriority.BULK));
+		assertEquals(20, written.size());
+	}
+
+	@Test
+	void failsSendsBeyondTheCapacityOfTheirLane() {
+		LaneScheduler lanes = lanes(SendLanes.builder().withLane(SendPriority.HIGH, 8, 2).build());
+
+		send(lanes, SendPriority.HIGH);
+		send(lanes, SendPriority.HIGH);
+		CompletableFuture<Boolean> rejected = send(lanes, SendPriority.HIGH);
+
+		assertTrue(rejected.isCompletedExceptionally());
+		assertEquals(2, lanes.queued(SendPriority.HIGH));
+	}
+
+	@Test
+	void givesDestinationsTheirPriority() {
+		SendLanes settings = SendLanes.builder()
+				.withDestinationPriority(destination -> destination.startsWith("/queue/control") ? SendPriority.HIGH : null)
+				.build();
+
+		assertEquals(SendPriority.HIGH, settings.priorityOf("/queue/control.commands"));
+		assertEquals(SendPriority.NORMAL, settings.priorityOf("/queue/orders"));
+	}
+
+	LaneScheduler lanes(SendLanes settings) {
+		LaneScheduler lanes = new LaneScheduler(settings, ClientMetrics.NONE);
+		lanes.ready = () -> ready;
+		return lanes;
+	}
+
+	CompletableFuture<Boolean> send(LaneScheduler lanes, SendPriority priority) {
+		CompletableFuture<Boolean> sent = new CompletableFuture<>();
+		lanes.send(priority, sent, () -> written.add(priority));
+		return sent;
+	}
+}
@@ -0,0 +1,107 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.util.Date;
+import java.util.concurrent.ScheduledFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class MessageAcknowledgerTests {
+
+	TaskScheduler taskScheduler;
+	StompSession session;
+
+	@BeforeEach
+	void setUp() {
+		taskScheduler = mock(TaskScheduler.class);
+		doReturn(mock(ScheduledFuture.class)).when(taskScheduler).schedule(any(Runnable.class), any(Date.class));
+		session = mock(StompSession.class);
+		when(session.isConnected()).thenReturn(true);
+	}
+
+	@Test
+	void clientModeSendsOneCumulativeAckPerBatch() {
+		MessageAcknowledger acknowledger = acknowledger(AckMode.CLIENT, 3);
+
+		for (int i = 1; i <= 3; i++) acknowledger.ack(session, message("ack-" + i, false));
+
+		ArgumentCaptor<StompHeaders> ack = ArgumentCaptor.forClass(StompHeaders.class);
+		verify(session, times(1)).acknowledge(ack.capture(), eq(true));
+		assertEquals("ack-3", ack.getValue().getId());
+		assertEquals(3, acknowledger.acknowledged());
+	}
+
+	@Test
+	void clientIndividualModeAcksEveryMessageOfTheBatch() {
+		MessageAcknowledger acknowledger = acknowledger(AckMode.CLIENT_INDIVIDUAL, 2);
+
+		acknowledger.ack(session, message("ack-1", false));
+		verify(session, never()).acknowledge(any(StompHeaders.class), anyBoolean());
+		acknowledger.ack(session, message("ack-2", false));
+
+		verify(session, times(2)).acknowledge(any(StompHeaders.class), eq(true));
+	}
+
+	@Test
+	void lingerFlushesAnIncompleteBatch() {
+		MessageAcknowledger acknowledger = acknowledger(AckMode.CLIENT, 10);
+
+		acknowledger.ack(session, message("ack-1", false));
+		ArgumentCaptor<Runnable> linger = ArgumentCaptor.forClass(Runnable.class);
+		verify(taskScheduler).schedule(linger.capture(), any(Date.class));
+		linger.getValue().run();
+
+		verify(session).acknowledge(any(StompHeaders.class), eq(true));
+	}
+
+	@Test
+	void nackAcknowledgesTheEarlierMessagesFirst() {
+		MessageAcknowledger acknowledger = acknowledger(AckMode.CLIENT, 10);
+
+		acknowledger.ack(session, message("ack-1", false));
+		acknowledger.nack(session, message("ack-2", false));
+
+		verify(session).acknowledge(any(StompHeaders.class), eq(true));
+		verify(session).acknowledge(any(StompHeaders.class), eq(false));
+		assertEquals(1, acknowledger.rejected());
+	}
+
+	@Test
+	void pendingAcksOfAClosedSessionAreDroppedAndRedeliveriesCounted() {
+		MessageAcknowledger acknowledger = acknowledger(AckMode.CLIENT, 10);
+		acknowledger.ack(session, message("ack-1", false));
+		when(session.isConnected()).thenReturn(false);
+
+		StompSession recovered = mock(StompSession.class);
+		acknowledger.received(recovered, message("ack-1", true));
+
+		verify(session, never()).acknowledge(any(StompHeaders.class), anyBoolean());
+		assertEquals(1, acknowledger.dropped());
+		assertEquals(1, acknowledger.redelivered());
+	}
+
+	private MessageAcknowledger acknowledger(AckMode ackMode, int ackEvery) {
+		SubscriptionOptions options = SubscriptionOptions.builder()
+				.withAckMode(ackMode)
+				.withPrefetch(100)
+				.withAckEvery(ackEvery)
+				.build();
+		return new MessageAcknowledger(LoggerFactory.getLogger(MessageAcknowledgerTests.class), options, taskScheduler);
+	}
+
+	private StompHeaders message(String ackId, boolean redelivered) {
+		StompHeaders headers = new StompHeaders();
+		headers.setAck(ackId);
+		if (redelivered) headers.set("redelivered", "true");
+		return headers;
+	}
+}
@@ -0,0 +1,92 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundJournalTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void recoversThePendingEntriesInOrder() throws IOException {
+		OutboundJournal journal = new OutboundJournal(directory, 4096, 4);
+		OutboundJournal.Entry first = journal.append(headers("/queue/a"), bytes("a"));
+		OutboundJournal.Entry second = journal.append(headers("/queue/b"), bytes("b"));
+		journal.append(headers("/queue/c"), bytes("c"));
+		journal.acknowledge(second);
+		journal.close();
+
+		OutboundJournal recovered = new OutboundJournal(directory, 4096, 4);
+		List<OutboundJournal.Entry> pending = recovered.pending();
+
+		assertEquals(2, pending.size());
+		assertEquals("/queue/a", recovered.headers(pending.get(0)).getDestination());
+		assertEquals("a", new String(recovered.body(pending.get(0)), StandardCharsets.UTF_8));
+		assertEquals("/queue/c", recovered.headers(pending.get(1)).getDestination());
+		assertEquals("c", new String(recovered.body(pending.get(1)), StandardCharsets.UTF_8));
+		assertFalse(recovered.isPending(first));
+		recovered.close();
+	}
+
+	@Test
+	void deletesSegmentsOnceAllTheirEntriesAreAcknowledged() throws IOException {
+		OutboundJournal journal = new OutboundJournal(directory, 1024, 8);
+		List<OutboundJournal.Entry> entries = new ArrayList<>();
+		for (int i = 0; i < 10; i++) entries.add(journal.append(headers("/queue/test"), new byte[300]));
+		assertEquals(5, journal.segments());
+
+		entries.forEach(journal::acknowledge);
+
+		assertEquals(0, journal.size());
+		assertEquals(1, journal.segments());
+		assertEquals(1, segmentFiles());
+		journal.close();
+	}
+
+	@Test
+	void refusesEntriesOnceFull() throws IOException {
+		OutboundJournal journal = new OutboundJournal(directory, 1024, 2);
+		journal.append(headers("/queue/test"), new byte[900]);
+		journal.append(headers("/queue/test"), new byte[900]);
+
+		assertThrows(IllegalStateException.class, () -> journal.append(headers("/queue/test"), new byte[900]));
+		assertThrows(IllegalArgumentException.class, () -> journal.append(headers("/queue/test"), new byte[1024]));
+		journal.close();
+	}
+
+	@Test
+	void isOwnedByASingleInstance() throws IOException {
+		OutboundJournal journal = new OutboundJournal(directory, 1024, 2);
+
+		assertThrows(Exception.class, () -> new OutboundJournal(directory, 1024, 2));
+		journal.close();
+	}
+
+	private long segmentFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.toString().endsWith(".journal")).count();
+		}
+	}
+
+	private static StompHeaders headers(String destination) {
+		StompHeaders headers = new StompHeaders();
+		headers.setDestination(destination);
+		return headers;
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,79 @@
+package com.pivotal.rabbitmq.stompws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PayloadConvertersTests {
+
+	MessageConverter converter = PayloadConverters.withJson(new ObjectMapper());
+
+	@Test
+	void stringsAreStillConverted() {
+		Message<?> message = converter.toMessage("hello", headers());
+
+		assertEquals("hello", converter.fromMessage(message, String.class));
+	}
+
+	@Test
+	void bytesAreNotCopied() {
+		byte[] payload = "hello".getBytes(StandardCharsets.UTF_8);
+		Message<?> message = converter.toMessage(ByteBuffer.wrap(payload), headers());
+
+		assertSame(payload, message.getPayload());
+		assertSame(payload, converter.fromMessage(message, byte[].class));
+		assertEquals(ByteBuffer.wrap(payload), converter.fromMessage(message, ByteBuffer.class));
+	}
+
+	@Test
+	void bytesAreReadFromTextFrames() {
+		Message<?> message = MessageBuilder.withPayload("hello".getBytes(StandardCharsets.UTF_8))
+				.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.parseMimeType("text/plain;charset=UTF-8")).build();
+
+		assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), (byte[]) converter.fromMessage(message, byte[].class));
+		assertEquals(ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)), converter.fromMessage(message, ByteBuffer.class));
+	}
+
+	@Test
+	void bytesAreReadFromJsonFrames() {
+		Message<?> message = converter.toMessage(Collections.singletonMap("id", 1), headers());
+
+		assertArrayEquals("{\"id\":1}".getBytes(StandardCharsets.UTF_8), (byte[]) converter.fromMessage(message, byte[].class));
+		assertEquals(ByteBuffer.wrap("{\"id\":1}".getBytes(StandardCharsets.UTF_8)),
+				PayloadConverters.defaults().fromMessage(message, ByteBuffer.class));
+	}
+
+	@Test
+	void jsonIsEncodedStraightToBytes() {
+		Message<?> message = converter.toMessage(Collections.singletonMap("id", 1), headers());
+
+		assertTrue(message.getPayload() instanceof byte[]);
+		assertEquals(MimeTypeUtils.APPLICATION_JSON, message.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+		assertEquals(Collections.singletonMap("id", 1), converter.fromMessage(message, java.util.Map.class));
+	}
+
+	@Test
+	void lazyPayloadIsOnlyDecodedOnDemand() {
+		Message<byte[]> message = MessageBuilder.withPayload("{\"id\":1}".getBytes(StandardCharsets.UTF_8))
+				.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON).build();
+
+		LazyPayload payload = (LazyPayload) converter.fromMessage(message, LazyPayload.class);
+
+		assertEquals(8, payload.size());
+		assertEquals(1, payload.as(java.util.Map.class).get("id"));
+	}
+
+	private MessageHeaders headers() {
+		return new MessageHeaders(Collections.emptyMap());
+	}
+}
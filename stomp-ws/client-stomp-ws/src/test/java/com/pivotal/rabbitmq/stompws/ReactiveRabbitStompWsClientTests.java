@@ -0,0 +1,91 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ReactiveRabbitStompWsClientTests {
+
+	DefaultRabbitStompWsClient client;
+	ReactiveRabbitStompWsClient reactiveClient;
+
+	@BeforeEach
+	void setUp() {
+		client = mock(DefaultRabbitStompWsClient.class);
+		reactiveClient = new ReactiveRabbitStompWsClient(client);
+	}
+
+	@Test
+	void sendBoundsTheMessagesWaitingForConfirmation() {
+		List<CompletableFuture<Object>> pending = new CopyOnWriteArrayList<>();
+		doAnswer(invocation -> {
+			CompletableFuture<Object> confirmation = new CompletableFuture<>();
+			pending.add(confirmation);
+			return confirmation;
+		}).when(client).send(any(StompHeaders.class), any());
+
+		StepVerifier.create(reactiveClient.send(Flux.range(0, 5).map(i -> StompMessage.to("/queue/q", i)), 2))
+				.then(() -> assertEquals(2, pending.size()))
+				.then(() -> pending.get(1).complete(null))
+				.expectNoEvent(Duration.ofMillis(10))
+				.then(() -> pending.get(0).complete(null))
+				.assertNext(message -> assertEquals(0, message.getPayload()))
+				.assertNext(message -> assertEquals(1, message.getPayload()))
+				.then(() -> assertEquals(4, pending.size()))
+				.then(() -> pending.forEach(confirmation -> confirmation.complete(null)))
+				.expectNextCount(2)
+				.then(() -> pending.get(4).complete(null))
+				.expectNextCount(1)
+				.expectComplete()
+				.verify(Duration.ofSeconds(1));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void subscribeOnlyAcksTheRequestedMessages() {
+		RabbitStompWsClient.Subscription subscription = mock(RabbitStompWsClient.Subscription.class);
+		ArgumentCaptor<DefaultRabbitStompWsClient.AcknowledgingConsumer<String>> consumer =
+				ArgumentCaptor.forClass(DefaultRabbitStompWsClient.AcknowledgingConsumer.class);
+		when(client.subscribe(any(StompHeaders.class), eq(String.class), any(SubscriptionOptions.class), consumer.capture()))
+				.thenReturn(CompletableFuture.completedFuture(subscription));
+		DefaultRabbitStompWsClient.Acknowledgement[] acknowledgements = new DefaultRabbitStompWsClient.Acknowledgement[3];
+
+		StepVerifier.create(reactiveClient.subscribe("/queue/q", String.class), 0)
+				.then(() -> {
+					for (int i = 0; i < 3; i++) {
+						acknowledgements[i] = mock(DefaultRabbitStompWsClient.Acknowledgement.class);
+						consumer.getValue().accept(new StompHeaders(), "m" + i, acknowledgements[i]);
+					}
+				})
+				.thenRequest(1)
+				.assertNext(message -> assertEquals("m0", message.getPayload()))
+				.then(() -> {
+					verify(acknowledgements[0]).ack();
+					verify(acknowledgements[1], never()).ack();
+				})
+				.thenCancel()
+				.verify(Duration.ofSeconds(1));
+
+		verify(subscription).cancel();
+	}
+
+	@Test
+	void subscribeRequiresAClientAckMode() {
+		assertThrows(IllegalArgumentException.class,
+				() -> reactiveClient.subscribe("/queue/q", String.class, SubscriptionOptions.autoAck()));
+	}
+}
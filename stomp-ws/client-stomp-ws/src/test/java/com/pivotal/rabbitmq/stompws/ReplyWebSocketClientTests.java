@@ -0,0 +1,82 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ReplyWebSocketClientTests {
+
+	StompEncoder encoder = new StompEncoder();
+	WebSocketHandler delegate = mock(WebSocketHandler.class);
+	WebSocketSession session = mock(WebSocketSession.class);
+	ReplyWebSocketClient.ReplyHandler handler = new ReplyWebSocketClient(mock(WebSocketClient.class),
+			new RequestReply("test", PayloadConverters.defaults(), null, () -> { })).new ReplyHandler(delegate);
+
+	@Test
+	void passesOnTheOtherFramesAndTheStartOfASplitFrame() throws Exception {
+		byte[] reply = frame(RequestReply.replyTo, "reply");
+		byte[] other = frame("sub-0", "other");
+		byte[] split = frame("sub-0", "split");
+		byte[] head = Arrays.copyOf(split, split.length / 2);
+
+		handler.handleMessage(session, new BinaryMessage(concat(reply, other, head)));
+
+		assertArrayEquals(concat(other, head), received());
+	}
+
+	@Test
+	void passesOnMessagesWithoutRepliesUntouched() throws Exception {
+		BinaryMessage message = new BinaryMessage(concat(frame("sub-0", "a"), frame("sub-0", "b")));
+
+		handler.handleMessage(session, message);
+
+		verify(delegate).handleMessage(session, message);
+	}
+
+	private byte[] frame(String subscription, String body) {
+		StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.MESSAGE);
+		headers.setSubscriptionId(subscription);
+		headers.setDestination("/queue/test");
+		headers.setMessageId(body);
+		Message<byte[]> message = MessageBuilder.createMessage(body.getBytes(StandardCharsets.UTF_8),
+				headers.getMessageHeaders());
+		return encoder.encode(message);
+	}
+
+	@SuppressWarnings("unchecked")
+	private byte[] received() throws Exception {
+		ArgumentCaptor<WebSocketMessage<?>> messages = ArgumentCaptor.forClass(WebSocketMessage.class);
+		verify(delegate, atLeastOnce()).handleMessage(eq(session), messages.capture());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (WebSocketMessage<?> message : messages.getAllValues()) {
+			ByteBuffer payload = ((ByteBuffer) message.getPayload()).duplicate();
+			byte[] chunk = new byte[payload.remaining()];
+			payload.get(chunk);
+			bytes.write(chunk);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] concat(byte[]... chunks) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (byte[] chunk : chunks) bytes.write(chunk, 0, chunk.length);
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,79 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestReplyTests {
+
+	StubStompBroker broker;
+	ThreadPoolTaskScheduler taskScheduler;
+	DefaultRabbitStompWsClient client;
+
+	@BeforeEach
+	void setUp() {
+		broker = new StubStompBroker();
+		taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.initialize();
+		client = WebSocketConnectionProvider.builder()
+				.withWebSocketClient(new LoopbackWebSocketClient(broker))
+				.withTaskScheduler(taskScheduler)
+				.withSenderSessions(2)
+				.build()
+				.newClient("rpc");
+	}
+
+	@AfterEach
+	void tearDown() {
+		client.stop();
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	void repliesComeBackToTheirRequest() throws Exception {
+		client.subscribe("/queue/rpc", String.class, (headers, payload) ->
+				client.reply(headers, payload.toUpperCase()))
+				.toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		List<CompletableFuture<String>> replies = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			replies.add(client.request("/queue/rpc", "request-" + i, String.class, Duration.ofSeconds(1))
+					.toCompletableFuture());
+		}
+
+		for (int i = 0; i < 100; i++) assertEquals("REQUEST-" + i, replies.get(i).get(1, TimeUnit.SECONDS));
+		assertEquals(0, client.requests.pending());
+	}
+
+	@Test
+	void requestsWithoutReplyTimeOut() {
+		CompletableFuture<String> reply = client.request("/queue/nobody", "request", String.class,
+				Duration.ofMillis(50)).toCompletableFuture();
+
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> reply.get(1, TimeUnit.SECONDS));
+		assertTrue(failure.getCause() instanceof TimeoutException);
+		assertEquals(0, client.requests.pending());
+	}
+
+	@Test
+	void stoppingFailsTheRequestsWaitingForTheirReply() {
+		CompletableFuture<String> reply = client.request("/queue/nobody", "request", String.class,
+				Duration.ofSeconds(10)).toCompletableFuture();
+
+		client.stop();
+
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> reply.get(1, TimeUnit.SECONDS));
+		assertTrue(failure.getCause() instanceof IllegalStateException);
+	}
+}
@@ -0,0 +1,100 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the receipt latency of each lane while a bulk publisher keeps a sender session busy and a control
+ * publisher sends a message every millisecond, with and without send lanes. It runs against a
+ * {@link StubStompServer}, so that frames go through a real socket:
+ * <pre>
+ * mvn test -Dtest=SendLanesBenchmark -Dstomp.benchmark=true -Dstomp.payload=4096
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "stomp.benchmark", matches = "true")
+class SendLanesBenchmark {
+
+	static final int bulkPublishers = Integer.getInteger("stomp.publishers", 4);
+	static final int outstandingPerPublisher = Integer.getInteger("stomp.outstanding", 500);
+	static final int payloadSize = Integer.getInteger("stomp.payload", 4096);
+	static final long durationSeconds = Long.getLong("stomp.duration", 10);
+
+	@Test
+	void controlLatencyUnderBulkLoad() throws Exception {
+		StubStompServer server = new StubStompServer(new StubStompBroker());
+		int port = server.start(0);
+		ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.setPoolSize(2);
+		taskScheduler.initialize();
+		try {
+			System.out.println("lanes\tlane\tmsg\tp50 (us)\tp99 (us)");
+			run(port, taskScheduler, null);
+			run(port, taskScheduler, SendLanes.builder().build());
+		} finally {
+			taskScheduler.shutdown();
+			server.stop();
+		}
+	}
+
+	void run(int port, ThreadPoolTaskScheduler taskScheduler, SendLanes lanes) throws Exception {
+		WebSocketConnectionProvider provider = WebSocketConnectionProvider.builder()
+				.connectTo("localhost", port)
+				.withTaskScheduler(taskScheduler)
+				.withSendLanes(lanes)
+				.build();
+		DefaultRabbitStompWsClient client = provider.newClient(lanes == null ? "fifo" : "lanes");
+		client.whenReady().toCompletableFuture().join();
+		Histogram bulk = new ConcurrentHistogram(TimeUnit.MINUTES.toNanos(1), 3);
+		Histogram control = new ConcurrentHistogram(TimeUnit.MINUTES.toNanos(1), 3);
+		byte[] payload = new byte[payloadSize];
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(bulkPublishers + 1);
+		for (int i = 0; i < bulkPublishers; i++) {
+			executor.submit(() -> {
+				Semaphore outstanding = new Semaphore(outstandingPerPublisher);
+				while (running.get()) {
+					outstanding.acquireUninterruptibly();
+					long start = System.nanoTime();
+					client.send("/queue/bulk", payload, SendPriority.BULK).whenComplete((ok, throwable) -> {
+						if (throwable == null) bulk.recordValue(System.nanoTime() - start);
+						outstanding.release();
+					});
+				}
+			});
+		}
+		executor.submit(() -> {
+			while (running.get()) {
+				long start = System.nanoTime();
+				client.send("/queue/control", "stop", SendPriority.HIGH).whenComplete((ok, throwable) -> {
+					if (throwable == null) control.recordValue(System.nanoTime() - start);
+				});
+				TimeUnit.MILLISECONDS.sleep(1);
+			}
+			return null;
+		});
+		Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+		running.set(false);
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		report(lanes != null, "high", control);
+		report(lanes != null, "bulk", bulk);
+		client.stop();
+		provider.stop();
+	}
+
+	static void report(boolean lanes, String lane, Histogram histogram) {
+		System.out.printf("%s\t%s\t%d\t%d\t%d%n", lanes, lane, histogram.getTotalCount(),
+				TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(50)),
+				TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99)));
+	}
+}
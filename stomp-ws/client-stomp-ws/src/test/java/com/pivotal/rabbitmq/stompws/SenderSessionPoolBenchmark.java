@@ -0,0 +1,81 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how the publish rate of a single client scales with the number of sender sessions.
+ * It needs a RabbitMQ broker with the web-stomp plugin enabled, e.g. the one launched by bin/deploy-rabbit:
+ * <pre>
+ * mvn test -Dtest=SenderSessionPoolBenchmark -Dstomp.benchmark=true -Dstomp.host=localhost -Dstomp.port=15674
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "stomp.benchmark", matches = "true")
+class SenderSessionPoolBenchmark {
+
+	static final int publishers = Integer.getInteger("stomp.publishers", 16);
+	static final int outstandingPerPublisher = Integer.getInteger("stomp.outstanding", 100);
+	static final long durationSeconds = Long.getLong("stomp.duration", 10);
+
+	@Test
+	void throughputScalesWithSenderSessions() throws InterruptedException {
+		ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.setPoolSize(2);
+		taskScheduler.initialize();
+		try {
+			System.out.println("sessions\tmsg/s");
+			for (int sessions : new int[]{1, 2, 4, 8}) {
+				System.out.printf("%d\t%d%n", sessions, run(taskScheduler, sessions));
+			}
+		} finally {
+			taskScheduler.shutdown();
+		}
+	}
+
+	long run(ThreadPoolTaskScheduler taskScheduler, int sessions) throws InterruptedException {
+		StompHeaders credentials = new StompHeaders();
+		credentials.setLogin(System.getProperty("stomp.username", "guest"));
+		credentials.setPasscode(System.getProperty("stomp.password", "guest"));
+		WebSocketConnectionProvider provider = WebSocketConnectionProvider.builder()
+				.connectTo(System.getProperty("stomp.host", "localhost"), Integer.getInteger("stomp.port", 15674))
+				.withStompHeader(credentials)
+				.withTaskScheduler(taskScheduler)
+				.withSenderSessions(sessions)
+				.withSenderRouting(SenderRouting.ROUND_ROBIN)
+				.build();
+		RabbitStompWsClient client = provider.newClient("benchmark-" + sessions);
+		client.whenReady().toCompletableFuture().join();
+
+		LongAdder sent = new LongAdder();
+		AtomicBoolean running = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(publishers);
+		for (int i = 0; i < publishers; i++) {
+			String destination = "/queue/benchmark-" + i;
+			executor.submit(() -> {
+				Semaphore outstanding = new Semaphore(outstandingPerPublisher);
+				while (running.get()) {
+					outstanding.acquireUninterruptibly();
+					client.send(destination, "benchmark").whenComplete((o, throwable) -> {
+						outstanding.release();
+						if (throwable == null) sent.increment();
+					});
+				}
+			});
+		}
+		Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+		running.set(false);
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		client.stop();
+		return sent.sum() / durationSeconds;
+	}
+}
@@ -0,0 +1,147 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SenderSessionPoolTests {
+
+	@Test
+	void destinationHashAlwaysPicksTheSameSession() {
+		SenderSessionPool pool = new SenderSessionPool(sessions(4), SenderRouting.DESTINATION_HASH);
+
+		for (int i = 0; i < 100; i++) {
+			String destination = "/queue/q-" + i;
+			assertSame(pool.select(destination), pool.select(destination));
+		}
+	}
+
+	@Test
+	void roundRobinSpreadsDestinationsEvenly() {
+		SenderSessionPool pool = new SenderSessionPool(sessions(4), SenderRouting.ROUND_ROBIN);
+
+		for (int i = 0; i < 4; i++) {
+			assertSame(pool.senders().get(i), pool.select("/queue/q-" + i));
+		}
+		assertSame(pool.senders().get(0), pool.select("/queue/q-0"));
+		assertSame(pool.senders().get(0), pool.select("/queue/q-4"));
+	}
+
+	@Test
+	void destinationsBeyondTheAssignmentLimitAreRoutedByHash() {
+		SenderSessionPool pool = new SenderSessionPool(sessions(4), SenderRouting.ROUND_ROBIN);
+		pool.maxAssignments = 2;
+
+		assertSame(pool.senders().get(0), pool.select("/queue/q-0"));
+		assertSame(pool.senders().get(1), pool.select("/queue/q-1"));
+		for (int i = 2; i < 100; i++) {
+			String destination = "/queue/q-" + i;
+			assertSame(pool.senders().get(Math.floorMod(destination.hashCode(), 4)), pool.select(destination));
+		}
+		assertSame(pool.senders().get(1), pool.select("/queue/q-1"));
+	}
+
+	@Test
+	void leastOutstandingReceiptsPicksTheIdlestSession() {
+		List<Supplier<CompletionStage<StompSession>>> sessions = sessions(2);
+		SenderSessionPool pool = new SenderSessionPool(sessions, SenderRouting.LEAST_OUTSTANDING_RECEIPTS);
+
+		SenderSessionPool.Sender busy = pool.select("/queue/busy");
+		busy.send(headers("/queue/busy"), "pending receipt");
+		assertEquals(1, busy.outstanding());
+
+		SenderSessionPool.Sender other = pool.select("/queue/other");
+		assertNotSame(busy, other);
+		assertSame(busy, pool.select("/queue/busy"));
+	}
+
+	@Test
+	void outstandingReceiptsAreReleasedOnFailure() {
+		Supplier<CompletionStage<StompSession>> failing = () -> {
+			CompletableFuture<StompSession> future = new CompletableFuture<>();
+			future.completeExceptionally(new Exception("Failed to connect"));
+			return future;
+		};
+		List<Supplier<CompletionStage<StompSession>>> sessions = new ArrayList<>();
+		sessions.add(failing);
+		SenderSessionPool pool = new SenderSessionPool(sessions, SenderRouting.DESTINATION_HASH);
+
+		SenderSessionPool.Sender sender = pool.select("/queue/test");
+		assertTrue(sender.send(headers("/queue/test"), "hello").toCompletableFuture().isCompletedExceptionally());
+		assertEquals(0, sender.outstanding());
+	}
+
+	@Test
+	void receiptsAreNotSetOnTheCallersHeaders() {
+		List<Supplier<CompletionStage<StompSession>>> sessions = sessions(1);
+		SenderSessionPool pool = new SenderSessionPool(sessions, SenderRouting.DESTINATION_HASH);
+		StompHeaders headers = headers("/queue/test");
+
+		pool.select("/queue/test").send(headers, "first");
+		pool.select("/queue/test").send(headers, "second");
+
+		assertNull(headers.getReceipt());
+		ArgumentCaptor<StompHeaders> sent = ArgumentCaptor.forClass(StompHeaders.class);
+		verify(sessions.get(0).get().toCompletableFuture().join(), times(2)).send(sent.capture(), any());
+		assertNotEquals(sent.getAllValues().get(0).getReceipt(), sent.getAllValues().get(1).getReceipt());
+	}
+
+	@Test
+	void sendsQueuedBeforeConnectedDoNotBlockTheConnectingThread() {
+		List<Runnable> receipts = new ArrayList<>();
+		StompSession session = mock(StompSession.class);
+		when(session.send(any(StompHeaders.class), any())).thenAnswer(invocation -> {
+			StompSession.Receiptable receiptable = mock(StompSession.Receiptable.class);
+			doAnswer(task -> receipts.add(task.getArgument(0))).when(receiptable).addReceiptTask(any());
+			return receiptable;
+		});
+		CompletableFuture<StompSession> connected = new CompletableFuture<>();
+		List<Supplier<CompletionStage<StompSession>>> sessions = new ArrayList<>();
+		sessions.add(() -> connected);
+		ConfirmWindow window = ConfirmWindow.builder().withMaxInFlight(2).withReceiptEvery(1).build();
+		SenderSessionPool pool = new SenderSessionPool(sessions, SenderRouting.DESTINATION_HASH,
+				i -> new WindowedSender("test", window, mock(TaskScheduler.class)));
+
+		List<CompletableFuture<?>> sent = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			sent.add(pool.select("/queue/test").send(headers("/queue/test"), "m" + i).toCompletableFuture());
+		}
+		assertTimeoutPreemptively(Duration.ofSeconds(2), () -> connected.complete(session));
+
+		verify(session, times(2)).send(any(StompHeaders.class), any());
+		assertEquals(3, pool.select("/queue/test").window().deferred());
+		while (!receipts.isEmpty()) receipts.remove(0).run();
+		verify(session, times(5)).send(any(StompHeaders.class), any());
+		sent.forEach(future -> assertTrue(future.isDone() && !future.isCompletedExceptionally()));
+	}
+
+	private List<Supplier<CompletionStage<StompSession>>> sessions(int count) {
+		List<Supplier<CompletionStage<StompSession>>> sessions = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			StompSession session = mock(StompSession.class);
+			when(session.send(any(StompHeaders.class), any())).thenReturn(mock(StompSession.Receiptable.class));
+			CompletableFuture<StompSession> connected = CompletableFuture.completedFuture(session);
+			sessions.add(() -> connected);
+		}
+		return sessions;
+	}
+
+	private StompHeaders headers(String destination) {
+		StompHeaders headers = new StompHeaders();
+		headers.setDestination(destination);
+		return headers;
+	}
+}
@@ -0,0 +1,65 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SerialExecutorTests {
+
+	ThreadPoolTaskScheduler taskScheduler;
+
+	@BeforeEach
+	void setUp() {
+		taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.setPoolSize(4);
+		taskScheduler.initialize();
+	}
+
+	@AfterEach
+	void tearDown() {
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	void runsTasksOneAtATimeInOrderOnASharedScheduler() throws Exception {
+		SerialExecutor executor = new SerialExecutor(taskScheduler);
+		List<Integer> ran = new ArrayList<>();
+		AtomicInteger running = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(1000);
+
+		for (int i = 0; i < 1000; i++) {
+			int task = i;
+			executor.execute(() -> {
+				assertEquals(1, running.incrementAndGet());
+				ran.add(task);
+				running.decrementAndGet();
+				done.countDown();
+			});
+		}
+
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+		for (int i = 0; i < 1000; i++) assertEquals(i, ran.get(i));
+	}
+
+	@Test
+	void rejectsTasksOnceShutDown() throws Exception {
+		SerialExecutor executor = new SerialExecutor(taskScheduler);
+		CountDownLatch scheduled = new CountDownLatch(1);
+		executor.schedule(scheduled::countDown, 50);
+
+		executor.shutdown();
+
+		assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+		assertFalse(scheduled.await(200, TimeUnit.MILLISECONDS));
+	}
+}
@@ -0,0 +1,134 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpooledSenderTests {
+
+	@TempDir
+	Path directory;
+
+	ThreadPoolTaskScheduler taskScheduler;
+	SubscriptionManagerTests.FakeSessionSupplier sessions;
+	BlockingQueue<Delivered> delivered = new LinkedBlockingQueue<>();
+
+	@BeforeEach
+	void setUp() {
+		taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.initialize();
+		sessions = new SubscriptionManagerTests.FakeSessionSupplier();
+	}
+
+	@AfterEach
+	void tearDown() {
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	void acceptsSendsWhileDisconnectedAndReplaysThemInOrder() throws Exception {
+		sessions.failNextConnections(Integer.MAX_VALUE);
+		SpooledSender sender = spooledSender();
+		List<CompletableFuture<Boolean>> sent = new ArrayList<>();
+		for (String payload : Arrays.asList("a", "b", "c")) sent.add(send(sender, payload));
+
+		assertEquals(3, sender.spooled());
+		assertTrue(sent.stream().noneMatch(CompletableFuture::isDone));
+		sessions.failNextConnections(0);
+
+		for (String payload : Arrays.asList("a", "b", "c")) {
+			Delivered delivery = delivered.poll(1, TimeUnit.SECONDS);
+			assertNotNull(delivery);
+			assertEquals(payload, delivery.payload);
+			assertEquals(MimeTypeUtils.TEXT_PLAIN.getType(), delivery.headers.getContentType().getType());
+			delivery.attempt.complete(true);
+		}
+		CompletableFuture.allOf(sent.toArray(new CompletableFuture[0])).get(1, TimeUnit.SECONDS);
+		assertEquals(0, sender.spooled());
+		sender.stop();
+	}
+
+	@Test
+	void writesAgainWhatIsNotReceiptedOnceTheSessionIsRestored() throws Exception {
+		sessions.connect();
+		SpooledSender sender = spooledSender();
+		CompletableFuture<Boolean> first = send(sender, "a");
+		CompletableFuture<Boolean> second = send(sender, "b");
+		delivered.poll(1, TimeUnit.SECONDS).attempt.complete(true);
+		Delivered lost = delivered.poll(1, TimeUnit.SECONDS);
+
+		sessions.lose();
+		lost.attempt.completeExceptionally(SenderSessionPool.undelivered);
+
+		Delivered replayed = delivered.poll(1, TimeUnit.SECONDS);
+		assertNotNull(replayed);
+		assertEquals("b", replayed.payload);
+		assertTrue(first.isDone());
+		assertFalse(second.isDone());
+		replayed.attempt.complete(true);
+		assertTrue(second.get(1, TimeUnit.SECONDS));
+		assertNull(delivered.poll(100, TimeUnit.MILLISECONDS));
+		sender.stop();
+	}
+
+	@Test
+	void replaysTheJournalOfAPreviousRun() throws Exception {
+		sessions.failNextConnections(Integer.MAX_VALUE);
+		SpooledSender previous = spooledSender();
+		send(previous, "a");
+		send(previous, "b");
+		previous.stop();
+
+		sessions.failNextConnections(0);
+		SpooledSender sender = spooledSender();
+
+		assertEquals("a", delivered.poll(1, TimeUnit.SECONDS).payload);
+		assertEquals("b", delivered.poll(1, TimeUnit.SECONDS).payload);
+		sender.stop();
+	}
+
+	private SpooledSender spooledSender() throws IOException {
+		return new SpooledSender("test", new OutboundJournal(directory, 4096, 4), sessions,
+				(session, headers, payload, attempt) -> delivered.add(new Delivered(headers,
+						new String(((SpooledSender.Encoded) payload).body, StandardCharsets.UTF_8), attempt)),
+				PayloadConverters.defaults(), taskScheduler, new Backoff(Duration.ofMillis(10), Duration.ofMillis(50)));
+	}
+
+	private static CompletableFuture<Boolean> send(SpooledSender sender, String payload) {
+		StompHeaders headers = new StompHeaders();
+		headers.setDestination("/queue/test");
+		CompletableFuture<Boolean> sent = new CompletableFuture<>();
+		sender.send(headers, payload, sent);
+		return sent;
+	}
+
+	static class Delivered {
+		final StompHeaders headers;
+		final String payload;
+		final CompletableFuture<Boolean> attempt;
+
+		Delivered(StompHeaders headers, String payload, CompletableFuture<Boolean> attempt) {
+			this.headers = headers;
+			this.payload = payload;
+			this.attempt = attempt;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamConsumptionTests {
+
+	static final String stream = "/amq/queue/events";
+
+	@TempDir
+	Path directory;
+	StubStompBroker broker;
+	ThreadPoolTaskScheduler taskScheduler;
+	WebSocketConnectionProvider provider;
+	FileOffsetStore offsets;
+
+	@BeforeEach
+	void setUp() {
+		broker = new StubStompBroker();
+		broker.declareStream(stream);
+		taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.initialize();
+		provider = WebSocketConnectionProvider.builder()
+				.withWebSocketClient(new LoopbackWebSocketClient(broker))
+				.withTaskScheduler(taskScheduler)
+				.withReconnectBackoff(new Backoff(Duration.ofMillis(10), Duration.ofMillis(50)))
+				.build();
+		offsets = new FileOffsetStore(directory);
+	}
+
+	@AfterEach
+	void tearDown() {
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	void resumesAfterTheLastCheckpointWhenRestarted() throws Exception {
+		DefaultRabbitStompWsClient publisher = provider.newClient("publisher");
+		for (int i = 0; i < 5; i++) publisher.send(stream, "m" + i).toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		List<String> first = new CopyOnWriteArrayList<>();
+		DefaultRabbitStompWsClient consumer = provider.newClient("consumer");
+		consumer.subscribe(stream, String.class, options(StreamOffset.first()), (headers, payload) -> first.add(payload))
+				.toCompletableFuture().get(1, TimeUnit.SECONDS);
+		awaitSize(first, 5);
+		awaitCheckpoint(4);
+		consumer.stop();
+
+		for (int i = 5; i < 8; i++) publisher.send(stream, "m" + i).toCompletableFuture().get(1, TimeUnit.SECONDS);
+		List<String> second = new CopyOnWriteArrayList<>();
+		DefaultRabbitStompWsClient restarted = provider.newClient("consumer");
+		restarted.subscribe(stream, String.class, options(StreamOffset.first()), (headers, payload) -> second.add(payload))
+				.toCompletableFuture().get(1, TimeUnit.SECONDS);
+		awaitSize(second, 3);
+
+		assertEquals("m5", second.get(0));
+		restarted.stop();
+		publisher.stop();
+	}
+
+	@Test
+	void resumesWhereItWasAfterAReconnection() throws Exception {
+		DefaultRabbitStompWsClient publisher = provider.newClient("publisher");
+		List<String> received = new CopyOnWriteArrayList<>();
+		DefaultRabbitStompWsClient consumer = provider.newClient("consumer");
+		consumer.subscribe(stream, String.class, options(StreamOffset.next()), (headers, payload) -> received.add(payload))
+				.toCompletableFuture().get(1, TimeUnit.SECONDS);
+		for (int i = 0; i < 3; i++) publisher.send(stream, "m" + i).toCompletableFuture().get(1, TimeUnit.SECONDS);
+		awaitSize(received, 3);
+		awaitCheckpoint(2);
+
+		broker.disconnectAll();
+		DefaultRabbitStompWsClient another = provider.newClient("another-publisher");
+		another.send(stream, "m3").toCompletableFuture().get(1, TimeUnit.SECONDS);
+		awaitSize(received, 4);
+
+		assertEquals("m3", received.get(3));
+		consumer.stop();
+		publisher.stop();
+		another.stop();
+	}
+
+	@Test
+	void offsetIsNotSetOnTheCallersHeaders() throws Exception {
+		DefaultRabbitStompWsClient publisher = provider.newClient("publisher");
+		List<String> received = new CopyOnWriteArrayList<>();
+		DefaultRabbitStompWsClient consumer = provider.newClient("consumer");
+		StompHeaders headers = new StompHeaders();
+		headers.setDestination(stream);
+		consumer.subscribe(headers, String.class, options(StreamOffset.next()), (h, payload) -> received.add(payload))
+				.toCompletableFuture().get(1, TimeUnit.SECONDS);
+		publisher.send(stream, "m0").toCompletableFuture().get(1, TimeUnit.SECONDS);
+		awaitSize(received, 1);
+
+		assertFalse(headers.containsKey(StreamTracker.offsetHeader));
+		consumer.stop();
+		publisher.stop();
+	}
+
+	@Test
+	void startsFromTheStartOfTheConsumptionWithoutAnOffset() {
+		StreamTracker tracker = new StreamTracker(LoggerFactory.getLogger(getClass()),
+				StreamConsumption.builder("new").withStart(StreamOffset.last()).withOffsetStore(offsets).build(),
+				taskScheduler);
+
+		assertEquals("last", tracker.resumeFrom());
+
+		offsets.store("new", 41);
+		StreamTracker restarted = new StreamTracker(LoggerFactory.getLogger(getClass()),
+				StreamConsumption.builder("new").withStart(StreamOffset.last()).withOffsetStore(offsets).build(),
+				taskScheduler);
+
+		assertEquals("offset=42", restarted.resumeFrom());
+		tracker.stop();
+		restarted.stop();
+	}
+
+	@Test
+	void rejectsStreamsWithoutClientAcks() {
+		assertThrows(IllegalArgumentException.class, () -> SubscriptionOptions.builder()
+				.withStream(StreamConsumption.builder("reader").withOffsetStore(offsets).build())
+				.build());
+	}
+
+	SubscriptionOptions options(StreamOffset start) {
+		return SubscriptionOptions.builder()
+				.withAckMode(AckMode.CLIENT)
+				.withPrefetch(10)
+				.withStream(StreamConsumption.builder("reader")
+						.withStart(start)
+						.withOffsetStore(offsets)
+						.withCheckpointInterval(Duration.ofMillis(50))
+						.build())
+				.build();
+	}
+
+	void awaitCheckpoint(long offset) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+		while (!offsets.load("reader").equals(OptionalLong.of(offset)) && System.nanoTime() < deadline) Thread.sleep(10);
+		assertEquals(OptionalLong.of(offset), offsets.load("reader"));
+	}
+
+	static void awaitSize(List<?> list, int size) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+		while (list.size() < size && System.nanoTime() < deadline) Thread.sleep(10);
+		assertEquals(size, list.size());
+	}
+}
@@ -0,0 +1,67 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StubStompBrokerTests {
+
+	StubStompBroker broker;
+	ThreadPoolTaskScheduler taskScheduler;
+	DefaultRabbitStompWsClient client;
+
+	@BeforeEach
+	void setUp() {
+		broker = new StubStompBroker();
+		taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.initialize();
+		client = WebSocketConnectionProvider.builder()
+				.withWebSocketClient(new LoopbackWebSocketClient(broker))
+				.withTaskScheduler(taskScheduler)
+				.build()
+				.newClient("loopback");
+	}
+
+	@AfterEach
+	void tearDown() {
+		client.stop();
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	void deliversSentMessagesToSubscribers() throws Exception {
+		List<String> received = new CopyOnWriteArrayList<>();
+		client.subscribe("/queue/q", String.class, (headers, payload) -> received.add(payload))
+				.toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		client.send("/queue/q", "hello").toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		assertEquals("hello", received.get(0));
+		assertEquals(1, broker.getDelivered());
+	}
+
+	@Test
+	void withholdsMessagesBeyondThePrefetchUntilAcked() throws Exception {
+		List<StompHeaders> received = new CopyOnWriteArrayList<>();
+		SubscriptionOptions options = SubscriptionOptions.builder()
+				.withAckMode(AckMode.CLIENT)
+				.withPrefetch(2)
+				.withAckEvery(2)
+				.build();
+		client.subscribe("/queue/q", String.class, options, (headers, payload) -> received.add(headers))
+				.toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		for (int i = 0; i < 5; i++) client.send("/queue/q", "m" + i).toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		assertEquals(5, received.size());
+		assertEquals(4, broker.getAcknowledged());
+	}
+}
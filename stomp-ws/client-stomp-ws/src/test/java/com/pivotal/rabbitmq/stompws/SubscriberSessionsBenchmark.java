@@ -0,0 +1,90 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how the consume rate of a single client scales with the number of subscriber sessions.
+ * It needs a RabbitMQ broker with the web-stomp plugin enabled, e.g. the one launched by bin/deploy-rabbit:
+ * <pre>
+ * mvn test -Dtest=SubscriberSessionsBenchmark -Dstomp.benchmark=true -Dstomp.host=localhost -Dstomp.port=15674
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "stomp.benchmark", matches = "true")
+class SubscriberSessionsBenchmark {
+
+	static final int destinations = Integer.getInteger("stomp.destinations", 16);
+	static final int outstandingPerPublisher = Integer.getInteger("stomp.outstanding", 100);
+	static final long durationSeconds = Long.getLong("stomp.duration", 10);
+
+	@Test
+	void throughputScalesWithSubscriberSessions() throws Exception {
+		ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.setPoolSize(2);
+		taskScheduler.initialize();
+		try {
+			System.out.println("sessions\tmsg/s");
+			for (int sessions : new int[]{1, 2, 4, 8}) {
+				System.out.printf("%d\t%d%n", sessions, run(taskScheduler, sessions));
+			}
+		} finally {
+			taskScheduler.shutdown();
+		}
+	}
+
+	long run(ThreadPoolTaskScheduler taskScheduler, int sessions) throws Exception {
+		StompHeaders credentials = new StompHeaders();
+		credentials.setLogin(System.getProperty("stomp.username", "guest"));
+		credentials.setPasscode(System.getProperty("stomp.password", "guest"));
+		WebSocketConnectionProvider provider = WebSocketConnectionProvider.builder()
+				.connectTo(System.getProperty("stomp.host", "localhost"), Integer.getInteger("stomp.port", 15674))
+				.withStompHeader(credentials)
+				.withTaskScheduler(taskScheduler)
+				.withSenderSessions(8)
+				.withSubscriberSessions(sessions)
+				.build();
+		RabbitStompWsClient consumer = provider.newClient("consumer-" + sessions);
+		RabbitStompWsClient publisher = provider.newClient("publisher-" + sessions);
+		publisher.whenReady().toCompletableFuture().join();
+
+		LongAdder received = new LongAdder();
+		List<RabbitStompWsClient.Subscription> subscriptions = new ArrayList<>();
+		for (int i = 0; i < destinations; i++) {
+			subscriptions.add(consumer.subscribe("/queue/benchmark-" + i, String.class,
+					(headers, payload) -> received.increment()).toCompletableFuture().get(10, TimeUnit.SECONDS));
+		}
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(destinations);
+		for (int i = 0; i < destinations; i++) {
+			String destination = "/queue/benchmark-" + i;
+			executor.submit(() -> {
+				Semaphore outstanding = new Semaphore(outstandingPerPublisher);
+				while (running.get()) {
+					outstanding.acquireUninterruptibly();
+					publisher.send(destination, "benchmark").whenComplete((o, throwable) -> outstanding.release());
+				}
+			});
+		}
+		Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+		running.set(false);
+		long rate = received.sum() / durationSeconds;
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		subscriptions.forEach(RabbitStompWsClient.Subscription::cancel);
+		publisher.stop();
+		consumer.stop();
+		return rate;
+	}
+}
@@ -0,0 +1,192 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SubscriptionManagerTests {
+
+	ThreadPoolTaskScheduler taskScheduler;
+	FakeSessionSupplier subscriberSession;
+	DefaultRabbitStompWsClient client;
+
+	@BeforeEach
+	void setUp() {
+		taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.initialize();
+		subscriberSession = new FakeSessionSupplier();
+		SenderSessionPool senders = new SenderSessionPool(
+				Collections.singletonList(() -> new CompletableFuture<>()), SenderRouting.DESTINATION_HASH);
+		client = new DefaultRabbitStompWsClient("test", senders, subscriberSession, taskScheduler,
+				new Backoff(Duration.ofMillis(10), Duration.ofMillis(50)));
+	}
+
+	@AfterEach
+	void tearDown() {
+		client.stop();
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	void subscribesAsSoonAsTheSessionIsConnected() throws Exception {
+		StompSession session = subscriberSession.connect();
+
+		client.subscribe("/queue/test", String.class, (headers, s) -> {})
+				.toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		verify(session).subscribe(any(StompHeaders.class), any(StompFrameHandler.class));
+	}
+
+	@Test
+	void subscriptionHeadersAreNotSetOnTheCallersHeaders() throws Exception {
+		StompSession session = subscriberSession.connect();
+		StompHeaders headers = new StompHeaders();
+		headers.setDestination("/queue/test");
+
+		client.subscribe(headers, String.class, SubscriptionOptions.builder()
+				.withAckMode(AckMode.CLIENT).withPrefetch(10).build(), (h, s) -> {})
+				.toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		assertEquals(Collections.singleton(StompHeaders.DESTINATION), headers.keySet());
+		ArgumentCaptor<StompHeaders> subscribed = ArgumentCaptor.forClass(StompHeaders.class);
+		verify(session).subscribe(subscribed.capture(), any(StompFrameHandler.class));
+		assertEquals("client", subscribed.getValue().getAck());
+		assertEquals("10", subscribed.getValue().getFirst("prefetch-count"));
+	}
+
+	@Test
+	void resubscribesWhenTheSessionIsRestored() throws Exception {
+		subscriberSession.connect();
+		client.subscribe("/queue/test", String.class, (headers, s) -> {})
+				.toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		subscriberSession.lose();
+		StompSession recovered = subscriberSession.connect();
+
+		verify(recovered, timeout(1000)).subscribe(any(StompHeaders.class), any(StompFrameHandler.class));
+	}
+
+	@Test
+	void reconnectsWithBackoffUntilTheSessionIsRestored() throws Exception {
+		subscriberSession.failNextConnections(3);
+
+		client.subscribe("/queue/test", String.class, (headers, s) -> {})
+				.toCompletableFuture().get(2, TimeUnit.SECONDS);
+
+		assertEquals(4, subscriberSession.connectionAttempts.get());
+	}
+
+	@Test
+	void cancelledSubscriptionsAreNotRestored() throws Exception {
+		subscriberSession.connect();
+		RabbitStompWsClient.Subscription subscription = client.subscribe("/queue/test", String.class, (headers, s) -> {})
+				.toCompletableFuture().get(1, TimeUnit.SECONDS);
+		subscription.cancel();
+
+		subscriberSession.lose();
+		StompSession recovered = subscriberSession.connect();
+
+		Thread.sleep(100);
+		verify(recovered, never()).subscribe(any(StompHeaders.class), any(StompFrameHandler.class));
+		assertTrue(subscriberSession.listeners.size() > 0);
+	}
+
+	@Test
+	void shardsAreSubscribedAndRestoredOnTheirOwn() throws Exception {
+		FakeSessionSupplier[] shards = {new FakeSessionSupplier(), new FakeSessionSupplier()};
+		SenderSessionPool senders = new SenderSessionPool(
+				Collections.singletonList(() -> new CompletableFuture<>()), SenderRouting.DESTINATION_HASH);
+		DefaultRabbitStompWsClient sharded = new DefaultRabbitStompWsClient("test", senders, Arrays.asList(shards),
+				taskScheduler, new Backoff(Duration.ofMillis(10), Duration.ofMillis(50)), ClientMetrics.NONE);
+		StompSession[] sessions = {shards[0].connect(), shards[1].connect()};
+		for (int shard = 0; shard < 2; shard++) {
+			sharded.subscribe(destinationOf(shard), String.class, (headers, s) -> {})
+					.toCompletableFuture().get(1, TimeUnit.SECONDS);
+			verify(sessions[shard]).subscribe(any(StompHeaders.class), any(StompFrameHandler.class));
+		}
+
+		shards[1].lose();
+		StompSession recovered = shards[1].connect();
+
+		verify(recovered, timeout(1000)).subscribe(any(StompHeaders.class), any(StompFrameHandler.class));
+		verify(sessions[0], times(1)).subscribe(any(StompHeaders.class), any(StompFrameHandler.class));
+		sharded.stop();
+	}
+
+	static String destinationOf(int shard) {
+		for (int i = 0; ; i++) {
+			String destination = "/queue/test-" + i;
+			if (Math.floorMod(destination.hashCode(), 2) == shard) return destination;
+		}
+	}
+
+	static class FakeSessionSupplier implements SessionSupplier {
+		final List<Listener> listeners = new CopyOnWriteArrayList<>();
+		final AtomicReference<CompletableFuture<StompSession>> current = new AtomicReference<>();
+		final AtomicInteger connectionAttempts = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+
+		StompSession connect() {
+			StompSession session = newSession();
+			current.set(CompletableFuture.completedFuture(session));
+			listeners.forEach(listener -> listener.connected(session));
+			return session;
+		}
+
+		void lose() {
+			current.set(null);
+			listeners.forEach(listener -> listener.lost(new Exception("Connection lost")));
+		}
+
+		void failNextConnections(int count) {
+			failures.set(count);
+		}
+
+		@Override
+		public void addListener(Listener listener) {
+			listeners.add(listener);
+		}
+
+		@Override
+		public CompletionStage<StompSession> get() {
+			CompletableFuture<StompSession> session = current.get();
+			if (session != null) return session;
+			connectionAttempts.incrementAndGet();
+			if (failures.getAndDecrement() > 0) {
+				CompletableFuture<StompSession> failed = new CompletableFuture<>();
+				failed.completeExceptionally(new Exception("Failed to connect"));
+				return failed;
+			}
+			return CompletableFuture.completedFuture(connect());
+		}
+
+		private StompSession newSession() {
+			StompSession session = mock(StompSession.class);
+			when(session.isConnected()).thenReturn(true);
+			when(session.subscribe(any(StompHeaders.class), any(StompFrameHandler.class)))
+					.thenReturn(mock(StompSession.Subscription.class));
+			return session;
+		}
+	}
+}
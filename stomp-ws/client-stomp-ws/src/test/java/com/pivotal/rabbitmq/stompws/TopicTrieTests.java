@@ -0,0 +1,70 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopicTrieTests {
+
+	@Test
+	void matchesWordsStarsAndHashes() {
+		TopicTrie<String> trie = new TopicTrie<>();
+		trie.add("a.b", "a.b");
+		trie.add("a.*", "a.*");
+		trie.add("a.#", "a.#");
+		trie.add("#.c", "#.c");
+		trie.add("a.#.c.#", "a.#.c.#");
+
+		assertEquals(set("a.b", "a.*", "a.#"), matches(trie, "a.b"));
+		assertEquals(set("a.#"), matches(trie, "a"));
+		assertEquals(set("a.*", "a.#", "#.c", "a.#.c.#"), matches(trie, "a.c"));
+		assertEquals(set("a.#", "#.c", "a.#.c.#"), matches(trie, "a.c.c"));
+		assertEquals(set(), matches(trie, "b"));
+	}
+
+	@Test
+	void stopsMatchingRemovedValues() {
+		TopicTrie<String> trie = new TopicTrie<>();
+		trie.add("a.*", "first");
+		trie.add("a.*", "second");
+
+		assertTrue(trie.remove("a.*", "first"));
+		assertFalse(trie.remove("a.b", "second"));
+		assertEquals(set("second"), matches(trie, "a.b"));
+		assertTrue(trie.remove("a.*", "second"));
+		assertTrue(trie.isEmpty());
+	}
+
+	@Test
+	void tellsWhetherAPatternCoversAnother() {
+		assertTrue(TopicTrie.covers("a.*", "a.b"));
+		assertTrue(TopicTrie.covers("a.#", "a.*.c"));
+		assertTrue(TopicTrie.covers("#", "a.#"));
+		assertTrue(TopicTrie.covers("a.#", "a.#"));
+		assertFalse(TopicTrie.covers("a.*", "a.#"));
+		assertFalse(TopicTrie.covers("a.b", "a.*"));
+		assertFalse(TopicTrie.covers("*.b", "a.*"));
+		assertTrue(TopicTrie.matches("*.b.#", "a.b"));
+	}
+
+	/**
+	 * Matches in no particular order, each value once.
+	 */
+	private Set<String> matches(TopicTrie<String> trie, String routingKey) {
+		List<String> matches = new ArrayList<>();
+		trie.match(routingKey, matches::add);
+		Set<String> set = new HashSet<>(matches);
+		assertEquals(matches.size(), set.size(), "matched more than once");
+		return set;
+	}
+
+	private Set<String> set(String... values) {
+		return new HashSet<>(Arrays.asList(values));
+	}
+}
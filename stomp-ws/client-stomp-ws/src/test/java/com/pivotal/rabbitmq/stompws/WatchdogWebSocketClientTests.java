@@ -0,0 +1,104 @@
+package com.pivotal.rabbitmq.stompws;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.client.WebSocketClient;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.pivotal.rabbitmq.stompws.EndpointSelectorTests.a;
+import static com.pivotal.rabbitmq.stompws.EndpointSelectorTests.b;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WatchdogWebSocketClientTests {
+
+	static final Heartbeat heartbeat = Heartbeat.builder()
+			.withSendInterval(Duration.ofMillis(50))
+			.withReceiveInterval(Duration.ofMillis(50))
+			.withReadIdleTimeout(Duration.ofMillis(150))
+			.build();
+
+	ThreadPoolTaskScheduler taskScheduler;
+	SimpleMeterRegistry registry;
+	StubStompBroker brokerA;
+	StubStompBroker brokerB;
+	DefaultRabbitStompWsClient client;
+
+	@BeforeEach
+	void setUp() {
+		taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.setPoolSize(2);
+		taskScheduler.initialize();
+		registry = new SimpleMeterRegistry();
+		brokerA = new StubStompBroker();
+		brokerB = new StubStompBroker();
+		Map<Integer, WebSocketClient> cluster = new HashMap<>();
+		cluster.put(a.getPort(), new LoopbackWebSocketClient(brokerA));
+		cluster.put(b.getPort(), new LoopbackWebSocketClient(brokerB));
+		client = WebSocketConnectionProvider.builder()
+				.connectTo(Arrays.asList(a, b))
+				.withWebSocketClient(new EndpointSelectorTests.ClusterWebSocketClient(cluster))
+				.withHeartbeat(heartbeat)
+				.withTaskScheduler(taskScheduler)
+				.withMeterRegistry(registry)
+				.build()
+				.newClient("test");
+	}
+
+	@AfterEach
+	void tearDown() {
+		client.stop();
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	void declaresAHalfOpenSessionDeadAndFailsOver() throws Exception {
+		brokerA.sendHeartbeats(taskScheduler);
+		client.send("/queue/q", "1").toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		brokerA.partition();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+		while (readIdleTimeouts() == 0 && System.nanoTime() < deadline) Thread.sleep(10);
+		client.send("/queue/q", "2").toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		assertEquals(1, readIdleTimeouts());
+		assertEquals(1, brokerA.getSent());
+		assertEquals(1, brokerB.getSent());
+		assertEquals(1, registry.get("stomp.client.failover.duration").tag("session", "sender").timer().count());
+	}
+
+	@Test
+	void keepsSessionsHeartbeatedByTheBroker() throws Exception {
+		brokerA.sendHeartbeats(taskScheduler);
+		client.send("/queue/q", "1").toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		Thread.sleep(500);
+		client.send("/queue/q", "2").toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		assertEquals(0, readIdleTimeouts());
+		assertEquals(2, brokerA.getSent());
+	}
+
+	@Test
+	void leavesSessionsAloneIfTheBrokerDoesNotHeartbeat() throws Exception {
+		client.send("/queue/q", "1").toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		Thread.sleep(500);
+		client.send("/queue/q", "2").toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		assertEquals(0, readIdleTimeouts());
+		assertEquals(2, brokerA.getSent());
+		assertEquals(1, brokerA.getConnections());
+	}
+
+	double readIdleTimeouts() {
+		return registry.get("stomp.client.read.idle.timeouts").counter().count();
+	}
+}
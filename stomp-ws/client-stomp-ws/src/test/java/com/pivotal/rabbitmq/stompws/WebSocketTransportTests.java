@@ -0,0 +1,66 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WebSocketTransportTests {
+
+	ThreadPoolTaskScheduler taskScheduler;
+	StubStompServer server;
+	int port;
+
+	@BeforeEach
+	void setUp() {
+		taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.initialize();
+		server = new StubStompServer(new StubStompBroker());
+		port = server.start(0);
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.stop();
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	void standardTransportSendsAndReceivesLargeMessages() throws Exception {
+		sendsAndReceives(WebSocketTransport.standard().withMaxMessageSize(256 * 1024).build(), 100 * 1024);
+	}
+
+	@Test
+	void jettyTransportSendsAndReceivesLargeMessages() throws Exception {
+		sendsAndReceives(WebSocketTransport.jetty().withMaxMessageSize(256 * 1024).build(), 100 * 1024);
+	}
+
+	@Test
+	void compressedSessionsSendAndReceive() throws Exception {
+		sendsAndReceives(WebSocketTransport.standard().withCompression(true).build(), 1024);
+		sendsAndReceives(WebSocketTransport.jetty().withCompression(true).build(), 1024);
+	}
+
+	private void sendsAndReceives(WebSocketTransport transport, int size) throws Exception {
+		WebSocketConnectionProvider provider = WebSocketConnectionProvider.builder()
+				.connectTo("localhost", port)
+				.withTaskScheduler(taskScheduler)
+				.withTransport(transport)
+				.build();
+		DefaultRabbitStompWsClient client = provider.newClient("test");
+		CompletableFuture<byte[]> received = new CompletableFuture<>();
+		client.subscribe("/queue/test", byte[].class, (headers, payload) -> received.complete(payload))
+				.toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+		client.send("/queue/test", new byte[size]).toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+		assertEquals(size, received.get(5, TimeUnit.SECONDS).length);
+		client.stop();
+		provider.stop();
+	}
+}
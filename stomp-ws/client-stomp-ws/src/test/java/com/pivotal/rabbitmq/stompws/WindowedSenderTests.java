@@ -0,0 +1,181 @@
+package com.pivotal.rabbitmq.stompws;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class WindowedSenderTests {
+
+	StompSession session;
+	TaskScheduler taskScheduler;
+	List<Runnable> receipts;
+	List<String> receiptIds;
+
+	@BeforeEach
+	void setUp() {
+		receipts = new ArrayList<>();
+		receiptIds = new ArrayList<>();
+		session = mock(StompSession.class);
+		when(session.send(any(StompHeaders.class), any())).thenAnswer(invocation -> {
+			StompHeaders headers = invocation.getArgument(0);
+			StompSession.Receiptable receiptable = mock(StompSession.Receiptable.class);
+			if (headers.getReceipt() != null) {
+				receiptIds.add(headers.getReceipt());
+				doAnswer(task -> receipts.add(task.getArgument(0))).when(receiptable).addReceiptTask(any());
+			}
+			return receiptable;
+		});
+		taskScheduler = mock(TaskScheduler.class);
+		doReturn(mock(ScheduledFuture.class)).when(taskScheduler).schedule(any(Runnable.class), any(Date.class));
+	}
+
+	@Test
+	void requestsReceiptEveryNthFrameAndSettlesAllEarlierFrames() {
+		WindowedSender sender = new WindowedSender("test", window(100, 3, ConfirmWindow.Overflow.BLOCK), taskScheduler);
+
+		List<CompletableFuture<Boolean>> sent = send(sender, 3);
+
+		assertEquals(1, receiptIds.size());
+		verify(session, times(3)).send(any(StompHeaders.class), any());
+		sent.forEach(future -> assertFalse(future.isDone()));
+		assertEquals(3, sender.inFlight());
+
+		receipts.get(0).run();
+
+		sent.forEach(future -> assertTrue(future.isDone()));
+		assertEquals(0, sender.inFlight());
+	}
+
+	@Test
+	void holdsTheTailOfABurstUntilTheLingerTimeElapses() {
+		WindowedSender sender = new WindowedSender("test", window(100, 10, ConfirmWindow.Overflow.BLOCK), taskScheduler);
+
+		List<CompletableFuture<Boolean>> sent = send(sender, 2);
+
+		verify(session, times(1)).send(any(StompHeaders.class), any());
+		ArgumentCaptor<Runnable> linger = ArgumentCaptor.forClass(Runnable.class);
+		verify(taskScheduler).schedule(linger.capture(), any(Date.class));
+
+		linger.getValue().run();
+
+		verify(session, times(2)).send(any(StompHeaders.class), any());
+		assertEquals(1, receiptIds.size());
+		receipts.get(0).run();
+		sent.forEach(future -> assertTrue(future.isDone()));
+	}
+
+	@Test
+	void defersSendsOnceTheWindowIsFull() {
+		WindowedSender sender = new WindowedSender("test", window(4, 2, ConfirmWindow.Overflow.DEFER), taskScheduler);
+
+		List<CompletableFuture<Boolean>> sent = send(sender, 6);
+
+		assertEquals(4, sender.inFlight());
+		assertEquals(2, sender.deferred());
+		assertEquals(2, receiptIds.size());
+
+		receipts.get(0).run();
+
+		assertTrue(sent.get(0).isDone());
+		assertTrue(sent.get(1).isDone());
+		assertEquals(0, sender.deferred());
+		assertEquals(4, sender.inFlight());
+		assertEquals(3, receiptIds.size());
+	}
+
+	@Test
+	void failsSendsBeyondTheDeferredLimit() {
+		WindowedSender sender = new WindowedSender("test", ConfirmWindow.builder()
+				.withMaxInFlight(4)
+				.withReceiptEvery(2)
+				.withOverflow(ConfirmWindow.Overflow.DEFER)
+				.withMaxDeferred(2)
+				.build(), taskScheduler);
+
+		List<CompletableFuture<Boolean>> sent = send(sender, 7);
+
+		assertEquals(4, sender.inFlight());
+		assertEquals(2, sender.deferred());
+		assertTrue(sent.get(6).isCompletedExceptionally());
+		sent.subList(0, 6).forEach(future -> assertFalse(future.isDone()));
+
+		receipts.get(0).run();
+
+		assertEquals(0, sender.deferred());
+		assertFalse(sent.get(5).isCompletedExceptionally());
+	}
+
+	@Test
+	void lostReceiptFailsAllTheFramesItCovers() {
+		List<Runnable> lost = new ArrayList<>();
+		when(session.send(any(StompHeaders.class), any())).thenAnswer(invocation -> {
+			StompSession.Receiptable receiptable = mock(StompSession.Receiptable.class);
+			doAnswer(task -> lost.add(task.getArgument(0))).when(receiptable).addReceiptLostTask(any());
+			return receiptable;
+		});
+		WindowedSender sender = new WindowedSender("test", window(100, 2, ConfirmWindow.Overflow.BLOCK), taskScheduler);
+
+		List<CompletableFuture<Boolean>> sent = send(sender, 2);
+		lost.get(0).run();
+
+		sent.forEach(future -> assertTrue(future.isCompletedExceptionally()));
+		assertEquals(0, sender.inFlight());
+	}
+
+	@Test
+	void writesOutsideTheMonitorOfTheWindow() throws Exception {
+		CountDownLatch writing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(session.send(any(StompHeaders.class), any())).thenAnswer(invocation -> {
+			writing.countDown();
+			release.await();
+			return mock(StompSession.Receiptable.class);
+		});
+		WindowedSender sender = new WindowedSender("test", window(100, 1, ConfirmWindow.Overflow.BLOCK), taskScheduler);
+
+		Thread writer = new Thread(() -> send(sender, 1));
+		writer.start();
+		assertTrue(writing.await(1, TimeUnit.SECONDS));
+
+		assertTimeoutPreemptively(Duration.ofSeconds(1), () -> assertEquals(1, sender.inFlight()));
+		release.countDown();
+		writer.join();
+	}
+
+	private List<CompletableFuture<Boolean>> send(WindowedSender sender, int frames) {
+		List<CompletableFuture<Boolean>> sent = new ArrayList<>();
+		for (int i = 0; i < frames; i++) {
+			StompHeaders headers = new StompHeaders();
+			headers.setDestination("/queue/test");
+			CompletableFuture<Boolean> future = new CompletableFuture<>();
+			sender.send(session, headers, "message-" + i, future);
+			sent.add(future);
+		}
+		return sent;
+	}
+
+	private ConfirmWindow window(int maxInFlight, int receiptEvery, ConfirmWindow.Overflow overflow) {
+		return ConfirmWindow.builder()
+				.withMaxInFlight(maxInFlight)
+				.withReceiptEvery(receiptEvery)
+				.withLinger(Duration.ofMillis(5))
+				.withOverflow(overflow)
+				.build();
+	}
+}